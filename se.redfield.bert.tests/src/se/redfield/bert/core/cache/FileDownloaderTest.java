@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.knime.core.node.ExecutionMonitor;
+
+/**
+ * Tests the resumable download of {@link FileDownloader} and the checksum
+ * verification of {@link HuggingFaceDownloader} against a local server.
+ */
+public class FileDownloaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private byte[] content;
+	private Path target;
+	private Path part;
+
+	@Before
+	public void setUp() throws IOException {
+		content = new byte[200_000];
+		new Random(42).nextBytes(content);
+		target = folder.getRoot().toPath().resolve("model.bin");
+		part = target.resolveSibling("model.bin.incomplete");
+	}
+
+	@Test
+	public void testDownload() throws Exception {
+		try (LocalHttpServer server = new LocalHttpServer(content)) {
+			String sha256 = FileDownloader.download(server.getUrl(), target, new ExecutionMonitor());
+
+			assertArrayEquals(content, Files.readAllBytes(target));
+			assertEquals(sha256(content), sha256);
+			assertFalse(Files.exists(part));
+			assertNull(server.getRanges().get(0));
+		}
+	}
+
+	@Test
+	public void testResumesIncompleteDownload() throws Exception {
+		Files.write(part, Arrays.copyOf(content, 50_000));
+		try (LocalHttpServer server = new LocalHttpServer(content)) {
+			String sha256 = FileDownloader.download(server.getUrl(), target, new ExecutionMonitor());
+
+			assertEquals("bytes=50000-", server.getRanges().get(0));
+			assertArrayEquals(content, Files.readAllBytes(target));
+			// the checksum covers the previously downloaded part too
+			assertEquals(sha256(content), sha256);
+		}
+	}
+
+	@Test
+	public void testRestartsIfRangesAreNotSupported() throws Exception {
+		Files.write(part, Arrays.copyOf(content, 50_000));
+		try (LocalHttpServer server = new LocalHttpServer(content)) {
+			server.setSupportRanges(false);
+			String sha256 = FileDownloader.download(server.getUrl(), target, new ExecutionMonitor());
+
+			assertArrayEquals(content, Files.readAllBytes(target));
+			assertEquals(sha256(content), sha256);
+		}
+	}
+
+	@Test
+	public void testRestartsIfRangeIsNotSatisfiable() throws Exception {
+		// a partial file longer than the content is broken
+		byte[] broken = new byte[content.length + 10];
+		Files.write(part, broken);
+		try (LocalHttpServer server = new LocalHttpServer(content)) {
+			String sha256 = FileDownloader.download(server.getUrl(), target, new ExecutionMonitor());
+
+			assertEquals(2, server.getRanges().size());
+			assertNull(server.getRanges().get(1));
+			assertArrayEquals(content, Files.readAllBytes(target));
+			assertEquals(sha256(content), sha256);
+		}
+	}
+
+	@Test
+	public void testVerifySha256Etag() throws Exception {
+		Files.write(target, content);
+		String sha256 = sha256(content);
+		HuggingFaceDownloader.verify(target, "\"" + sha256 + "\"", sha256);
+		assertTrue(Files.exists(target));
+	}
+
+	@Test
+	public void testVerifyGitBlobEtag() throws Exception {
+		byte[] config = "{\"model_type\": \"bert\"}\n".getBytes(StandardCharsets.UTF_8);
+		Files.write(target, config);
+		// git hash-object of the content above
+		String blob = "dc1fb7b6703fe03317c1a080b523bf475f3d4818";
+		HuggingFaceDownloader.verify(target, "W/\"" + blob + "\"", sha256(config));
+		assertTrue(Files.exists(target));
+	}
+
+	@Test
+	public void testVerifyMismatchDeletesFile() throws Exception {
+		Files.write(target, content);
+		byte[] other = Arrays.copyOf(content, content.length);
+		other[0]++;
+		try {
+			HuggingFaceDownloader.verify(target, "\"" + sha256(other) + "\"", sha256(content));
+			fail("Checksum mismatch expected");
+		} catch (IOException e) {
+			assertFalse(Files.exists(target));
+		}
+	}
+
+	private static String sha256(byte[] bytes) throws NoSuchAlgorithmException {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for a download server. Serves a fixed content at
+ * <code>/file</code> and answers range requests like the model hubs do.
+ */
+final class LocalHttpServer implements AutoCloseable {
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+
+	private final HttpServer server;
+	private final byte[] content;
+	private final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+	private volatile boolean supportRanges = true;
+
+	LocalHttpServer(byte[] content) throws IOException {
+		this.content = content;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/file", this::handle);
+		server.start();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		ranges.add(range);
+
+		int start = 0;
+		int code = 200;
+		if (range != null && supportRanges) {
+			Matcher m = RANGE.matcher(range);
+			if (m.matches()) {
+				start = Integer.parseInt(m.group(1));
+				if (start >= content.length) {
+					exchange.getResponseHeaders().add("Content-Range", "bytes */" + content.length);
+					exchange.sendResponseHeaders(416, -1);
+					exchange.close();
+					return;
+				}
+				code = 206;
+				exchange.getResponseHeaders().add("Content-Range",
+						"bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+			}
+		}
+
+		exchange.sendResponseHeaders(code, content.length - start);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(content, start, content.length - start);
+		}
+	}
+
+	/**
+	 * @param supportRanges Whether range requests are answered with partial
+	 *                      content, otherwise the whole content is returned.
+	 */
+	void setSupportRanges(boolean supportRanges) {
+		this.supportRanges = supportRanges;
+	}
+
+	/**
+	 * @return the Range headers of the received requests, <code>null</code> for
+	 *         the requests without the header.
+	 */
+	List<String> getRanges() {
+		return ranges;
+	}
+
+	URL getUrl() throws IOException {
+		return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), "/file");
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.knime.core.node.ExecutionMonitor;
+
+/**
+ * Tests {@link TarExtractor}.
+ */
+public class TarExtractorTest {
+	private static final String LONG_NAME = "variables/" + "a".repeat(150) + "/variables.data-00000-of-00001";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testExtractsLongNames() throws Exception {
+		Path archive = folder.getRoot().toPath().resolve("module.tar.gz");
+		byte[] data = "weights".getBytes(StandardCharsets.UTF_8);
+		try (TarArchiveOutputStream out = createArchive(archive, TarArchiveOutputStream.LONGFILE_POSIX)) {
+			addDirectory(out, "variables/");
+			addFile(out, "saved_model.pb", data);
+			addFile(out, LONG_NAME, data);
+		}
+		Path target = folder.getRoot().toPath().resolve("module");
+
+		TarExtractor.extract(archive, target, new ExecutionMonitor());
+
+		assertArrayEquals(data, Files.readAllBytes(target.resolve("saved_model.pb")));
+		assertArrayEquals(data, Files.readAllBytes(target.resolve(LONG_NAME)));
+	}
+
+	@Test
+	public void testExtractsGnuLongNames() throws Exception {
+		Path archive = folder.getRoot().toPath().resolve("module.tar.gz");
+		byte[] data = "weights".getBytes(StandardCharsets.UTF_8);
+		try (TarArchiveOutputStream out = createArchive(archive, TarArchiveOutputStream.LONGFILE_GNU)) {
+			addFile(out, LONG_NAME, data);
+		}
+		Path target = folder.getRoot().toPath().resolve("module");
+
+		TarExtractor.extract(archive, target, new ExecutionMonitor());
+
+		assertArrayEquals(data, Files.readAllBytes(target.resolve(LONG_NAME)));
+	}
+
+	@Test
+	public void testRejectsEntriesOutsideOfTarget() throws Exception {
+		Path archive = folder.getRoot().toPath().resolve("module.tar.gz");
+		try (TarArchiveOutputStream out = createArchive(archive, TarArchiveOutputStream.LONGFILE_POSIX)) {
+			addFile(out, "../evil.txt", new byte[] { 1 });
+		}
+		Path target = folder.getRoot().toPath().resolve("module");
+
+		try {
+			TarExtractor.extract(archive, target, new ExecutionMonitor());
+			fail("Path traversal expected to be rejected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("outside"));
+		}
+		assertFalse(Files.exists(folder.getRoot().toPath().resolve("evil.txt")));
+	}
+
+	private static TarArchiveOutputStream createArchive(Path archive, int longFileMode) throws IOException {
+		OutputStream gzip = new GZIPOutputStream(Files.newOutputStream(archive));
+		TarArchiveOutputStream out = new TarArchiveOutputStream(gzip);
+		out.setLongFileMode(longFileMode);
+		return out;
+	}
+
+	private static void addDirectory(TarArchiveOutputStream out, String name) throws IOException {
+		out.putArchiveEntry(new TarArchiveEntry(name));
+		out.closeArchiveEntry();
+	}
+
+	private static void addFile(TarArchiveOutputStream out, String name, byte[] data) throws IOException {
+		TarArchiveEntry entry = new TarArchiveEntry(name, true);
+		entry.setSize(data.length);
+		out.putArchiveEntry(entry);
+		out.write(data);
+		out.closeArchiveEntry();
+	}
+}
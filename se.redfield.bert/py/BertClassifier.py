@@ -1,3 +1,4 @@
+import os
 import tempfile
 import tensorflow as tf
 import numpy as np
@@ -8,7 +9,11 @@ from transformers import TFAutoModel
 from BertEmbedder import BertEmbedder
 from BertModelType import BertModelType
 from BertTokenizer import TokenizerBase
+from bert_utils import aggregate_windows, find_bert_layer, prediction_table
 from ProgressCallback import ProgressCallback
+from Pipeline import Pipeline
+import ModelCache
+import ClassifierArtifact
 
 class BertClassifier:
     def __init__(self, embedder:BertEmbedder = None, tokenizer: TokenizerBase = None, class_count = 0, model = None, multi_label = False):
@@ -20,25 +25,42 @@ class BertClassifier:
             assert embedder is not None
             assert class_count > 0
             self.tokenizer = embedder.tokenizer
+            self.bert_layer = embedder.bert_layer
             self.multi_label = multi_label
             self.create_model(embedder, class_count)
 
     def create_model(self, embedder, class_count):
-        x = tf.keras.layers.GlobalAveragePooling1D()(embedder.sequence_output)
-        x = tf.keras.layers.Dropout(0.2)(x)
-        x = tf.keras.layers.Dense(128, activation='relu')(x)
+        self.features = tf.keras.layers.GlobalAveragePooling1D()(embedder.sequence_output)
 
         activation = 'sigmoid' if self.multi_label else 'softmax'
-        output = tf.keras.layers.Dense(class_count, activation=activation)(x)
+        self.head_layers = [
+            tf.keras.layers.Dropout(0.2),
+            tf.keras.layers.Dense(128, activation='relu'),
+            tf.keras.layers.Dense(class_count),
+            tf.keras.layers.Activation(activation)
+        ]
+        # the logits are kept for the distillation, which trains on them at a different temperature
+        self.logits = self.apply_head(self.features, logits=True)
+        output = self.head_layers[-1](self.logits)
 
         self.model = tf.keras.models.Model(inputs=embedder.inputs, outputs=output)
 
-    def train(self, table, class_column, batch_size, epochs, optimizer, progress_logger, fine_tune_bert = False, validation_table = None, validation_batch_size = 20):
+    def apply_head(self, x, logits=False):
+        for layer in self.head_layers[:-1] if logits else self.head_layers:
+            x = layer(x)
+        return x
+
+    def train(self, table, class_column, batch_size, epochs, optimizer, progress_logger, fine_tune_bert = False, validation_table = None, validation_batch_size = 20,
+        cache_backbone_features = False):
         ids, masks, segments = self.tokenizer.tokenize(table, progress_logger)
         y_train = np.array(list(table[class_column]))
 
         if(not fine_tune_bert):
-            self.model.layers[3].trainable = False
+            find_bert_layer(self.model).trainable = False
+            if(cache_backbone_features):
+                self.train_head(ids, masks, segments, y_train, class_column, batch_size, epochs, optimizer, progress_logger,
+                    validation_table, validation_batch_size)
+                return
 
         validation_data = None
         if(validation_table is not None):
@@ -54,6 +76,52 @@ class BertClassifier:
         self.model.fit(x=[ids, masks, segments], y=y_train,epochs=epochs, batch_size=batch_size,
             shuffle=True, validation_data=validation_data, validation_batch_size=validation_batch_size, callbacks=[progress_logger])
 
+    def train_head(self, ids, masks, segments, y_train, class_column, batch_size, epochs, optimizer, progress_logger,
+        validation_table, validation_batch_size):
+        """Runs the frozen BERT layer once per row and trains only the head on the cached features.
+        The head layers are shared with the full model, so the full model is trained as well."""
+        with tempfile.TemporaryDirectory() as cache_dir:
+            feature_progress = ProgressCallback(len(ids), predict=True, batch_size=batch_size,
+                initial_progress=progress_logger.last_progress, subprogress_factor=0.8)
+            features = self.compute_features([ids, masks, segments], batch_size,
+                os.path.join(cache_dir, 'train_features.npy'), feature_progress)
+
+            validation_data = None
+            if(validation_table is not None):
+                ids_val, masks_val, segments_val = self.tokenizer.tokenize(validation_table, None)
+                y_val = np.array(list(validation_table[class_column]))
+                validation_data = (self.compute_features([ids_val, masks_val, segments_val], validation_batch_size,
+                    os.path.join(cache_dir, 'validation_features.npy')), y_val)
+
+            features_input = tf.keras.layers.Input(shape=self.features.shape[1:], dtype=self.features.dtype)
+            head_model = tf.keras.models.Model(inputs=features_input, outputs=self.apply_head(features_input))
+
+            loss = 'binary_crossentropy' if self.multi_label else 'categorical_crossentropy'
+            head_model.compile(loss=loss, optimizer=optimizer, metrics=self.get_metrics())
+
+            progress_logger.initial_progress = feature_progress.last_progress
+            progress_logger.subprogress_factor = (100 - feature_progress.last_progress) / 100
+            head_model.fit(x=features, y=y_train, epochs=epochs, batch_size=batch_size,
+                shuffle=True, validation_data=validation_data, validation_batch_size=validation_batch_size,
+                callbacks=[progress_logger])
+
+            # the memory-mapped files must be released before the directory is removed
+            del features, validation_data
+
+    def compute_features(self, inputs, batch_size, path, progress_logger=None):
+        """Computes the input of the head batch by batch into a memory-mapped array."""
+        feature_model = tf.keras.models.Model(inputs=self.model.inputs, outputs=self.features)
+        count = len(inputs[0])
+        features = np.lib.format.open_memmap(path, mode='w+', dtype=self.features.dtype.as_numpy_dtype,
+            shape=(count,) + tuple(self.features.shape[1:]))
+        for batch, start in enumerate(range(0, count, batch_size)):
+            end = min(start + batch_size, count)
+            features[start:end] = feature_model([x[start:end] for x in inputs], training=False).numpy()
+            if(progress_logger):
+                progress_logger.on_predict_batch_end(batch)
+        features.flush()
+        return features
+
     def get_metrics(self):
         if(self.multi_label):
             return [tf.keras.metrics.BinaryAccuracy('accuracy', dtype=tf.float32), tf.keras.metrics.AUC(name='AUC')]
@@ -63,13 +131,27 @@ class BertClassifier:
     def save(self, path):
         self.tokenizer.save_to(self.model)
         self.model.save(path)
+
+    def save_artifact(self, path, artifact_format, config):
+        """Saves the model in one of the ClassifierArtifact formats, which are rebuilt from the
+        BERT model described by the config, or from the configuration stored with them, when loaded."""
+        ClassifierArtifact.save(self.model, self.bert_layer, path, artifact_format,
+            dict(config, multi_label=self.multi_label), self.tokenizer)
     
-    def predict(self, table, batch_size, progress_logger):
-        ids, masks, segments = self.tokenizer.tokenize(table, progress_logger)
+    def predict(self, table, batch_size, progress_logger, tokens=None):
+        ids, masks, segments = tokens or self.tokenizer.tokenize(table, progress_logger)
 
         output = self.model.predict([ids, masks, segments],
             batch_size=batch_size, callbacks=[progress_logger])
         return output
+
+    def predict_windows(self, table, batch_size, progress_logger, window_stride, window_aggregation, tokens=None):
+        ids, masks, segments, window_rows = tokens or self.tokenizer.tokenize_windows(table, window_stride, progress_logger)
+        progress_logger.total_count = len(ids)
+
+        output = self.model.predict([ids, masks, segments],
+            batch_size=batch_size, callbacks=[progress_logger])
+        return aggregate_windows(output, window_rows, len(table), window_aggregation)
     
     @classmethod
     def run_train(cls,
@@ -88,19 +170,40 @@ class BertClassifier:
         epochs = 3,
         fine_tune_bert = False,
         validation_table = None,
-        multi_label = False
+        multi_label = False,
+        share_backbone_weights = False,
+        artifact_format = 'saved_model',
+        cache_backbone_features = False,
+        adapter_rank = 0
     ):
         input_table = input_table.to_pandas()
         if validation_table is not None:
             validation_table = validation_table.to_pandas()
         
         model_type = BertModelType.from_key(bert_model_type_key)
-        embedder = BertEmbedder.from_pretrained(model_type, bert_model_handle, sentence_column, max_seq_length=max_seq_length, cache_dir=cache_dir)
+        embedder = BertEmbedder.from_pretrained(model_type, bert_model_handle, sentence_column, max_seq_length=max_seq_length, cache_dir=cache_dir,
+            adapter_rank=adapter_rank)
         classifier = BertClassifier(embedder=embedder, class_count=class_count, multi_label=multi_label)
         progress_logger = ProgressCallback(len(input_table), train=True, batch_size=batch_size, epochs_count=epochs)
 
-        classifier.train(input_table, class_column, batch_size, epochs, optimizer, progress_logger, fine_tune_bert, validation_table, validation_batch_size)
-        classifier.save(file_store)
+        classifier.train(input_table, class_column, batch_size, epochs, optimizer, progress_logger, fine_tune_bert, validation_table, validation_batch_size,
+            cache_backbone_features)
+        config = {
+            'bert_model_type_key': bert_model_type_key,
+            'bert_model_handle': bert_model_handle,
+            'max_seq_length': max_seq_length,
+            'class_count': class_count
+        }
+        if(adapter_rank):
+            # only the adapters were trained, the pretrained BERT weights are left as they are
+            classifier.save_artifact(file_store, ClassifierArtifact.FORMAT_ADAPTERS, dict(config, adapter_rank=adapter_rank))
+        elif(share_backbone_weights and not fine_tune_bert):
+            # the frozen BERT weights are the pretrained ones, only their hash is stored
+            classifier.save_artifact(file_store, ClassifierArtifact.FORMAT_SHARED_BACKBONE, config)
+        elif(artifact_format != 'saved_model'):
+            classifier.save_artifact(file_store, artifact_format, config)
+        else:
+            classifier.save(file_store)
 
         output_table = pd.DataFrame(progress_logger.logs)
         knio.output_tables[0] = knio.Table.from_pandas(output_table)
@@ -112,21 +215,59 @@ class BertClassifier:
         file_store,
         bert_model_type_key,
         max_seq_length = 128,
-        batch_size = 20
+        batch_size = 20,
+        sliding_window = False,
+        window_stride = 64,
+        window_aggregation = 'mean',
+        model_cache_dir = None,
+        classes = None,
+        prediction_column = 'Prediction',
+        prediction_threshold = None,
+        prediction_top_k = None,
+        class_separator = ',',
+        probability_columns = None,
+        top_classes_column = None,
+        top_probabilities_column = None,
+        top_probabilities_count = 5,
+        sparse_probabilities_column = None,
+        sparse_probabilities_epsilon = 0.01,
+        output = None
     ):
-        model = tf.keras.models.load_model(file_store)
+        model = ModelCache.load_model(file_store, model_cache_dir)
         model_type = BertModelType.from_key(bert_model_type_key)
         tokenizer = model_type.tokenizer_cls.from_saved_model(model, sentence_column, max_seq_length=max_seq_length)
         classifier = BertClassifier(tokenizer=tokenizer, model=model)
 
-        write_table = knio.BatchOutputTable.create()
-        progress_done = 0
-        for batch in input_table.batches():
-            pd_batch = batch.to_pandas() # TODO pyarrow is probably more efficient
+        # the coalesced requests of the shared inference append to the given output
+        write_table = output if output is not None else knio.BatchOutputTable.create()
+        pipeline = Pipeline()
+        num_batches = input_table.num_batches
+
+        # the next batches are read and tokenized while the current one is predicted
+        def prepare(indexed_batch):
+            index, batch = indexed_batch
+            pd_batch = pipeline.timed('read', batch.to_pandas)
+            if(sliding_window):
+                tokens = pipeline.timed('tokenize', tokenizer.tokenize_windows, pd_batch, window_stride, None)
+            else:
+                tokens = pipeline.timed('tokenize', tokenizer.tokenize, pd_batch, None)
+            return index, pd_batch, tokens
+
+        def process(prepared):
+            index, pd_batch, tokens = prepared
             progress_logger = ProgressCallback(len(pd_batch), predict=True, batch_size=batch_size,
-                initial_progress=progress_done, subprogress_factor=1/input_table.num_batches)
-            output = classifier.predict(pd_batch, batch_size, progress_logger)
-            output_table = pd.DataFrame(output, index=pd_batch.index).astype('float64')
-            write_table.append(output_table)
-            progress_done = progress_logger.last_progress
-        knio.output_tables[0] = write_table
+                initial_progress=100 * index / num_batches, subprogress_factor=1/num_batches)
+            progress_logger.on_tokenize_rows_end(len(pd_batch))
+            if(sliding_window):
+                output = pipeline.timed('inference', classifier.predict_windows, pd_batch, batch_size, progress_logger,
+                    window_stride, window_aggregation, tokens)
+            else:
+                output = pipeline.timed('inference', classifier.predict, pd_batch, batch_size, progress_logger, tokens)
+            pipeline.timed('write', write_table.append, prediction_table(output, pd_batch.index, classes,
+                prediction_column, prediction_threshold, prediction_top_k, class_separator, probability_columns,
+                top_classes_column, top_probabilities_column, top_probabilities_count,
+                sparse_probabilities_column, sparse_probabilities_epsilon))
+
+        pipeline.run(enumerate(input_table.batches()), prepare, process)
+        if(output is None):
+            knio.output_tables[0] = write_table
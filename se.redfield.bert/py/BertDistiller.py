@@ -0,0 +1,130 @@
+import time
+import numpy as np
+import pandas as pd
+import tensorflow as tf
+import knime.scripting.io as knio
+
+from BertEmbedder import BertEmbedder
+from BertClassifier import BertClassifier
+from BertModelType import BertModelType
+from ProgressCallback import ProgressCallback
+import ModelCache
+
+SOFT_LABELS_COLUMN = '__soft_labels__'
+LATENCY_WARM_UP_ROWS = 8
+
+def soften(probabilities, temperature):
+    """Raises the temperature of softmax outputs, which equals dividing the logits by it."""
+    if(temperature == 1):
+        return probabilities
+    logits = np.log(np.clip(probabilities, 1e-12, 1)) / temperature
+    logits -= logits.max(axis=1, keepdims=True)
+    exp = np.exp(logits)
+    return exp / exp.sum(axis=1, keepdims=True)
+
+def one_hot_argmax(probabilities):
+    """The classes predicted by the teacher, used as the hard labels."""
+    return np.eye(probabilities.shape[1], dtype=np.float32)[np.argmax(probabilities, axis=1)]
+
+def train_student(student, table, soft_labels, hard_labels, temperature, hard_label_weight, batch_size, epochs,
+    optimizer, progress_logger):
+    """Trains the student on the softened teacher probabilities with its own logits softened by the same
+    temperature, the loss scaled by its square so that the gradients do not shrink with the temperature.
+    The hard labels are mixed in at a temperature of 1. The student model itself is left at a temperature
+    of 1, only the training model divides the logits."""
+    ids, masks, segments = student.tokenizer.tokenize(table, progress_logger)
+    soft_output = tf.keras.layers.Activation('softmax')(student.logits / temperature)
+    train_model = tf.keras.models.Model(inputs=student.model.inputs, outputs=[soft_output, student.model.output])
+    train_model.compile(optimizer=optimizer,
+        loss=['categorical_crossentropy', 'categorical_crossentropy'],
+        loss_weights=[(1 - hard_label_weight) * temperature ** 2, hard_label_weight])
+    train_model.fit(x=[ids, masks, segments], y=[soft_labels, hard_labels], epochs=epochs, batch_size=batch_size,
+        shuffle=True, callbacks=[progress_logger])
+
+def agreement(teacher_output, student_output, multi_label):
+    """Share of the predictions of the student that match the teacher."""
+    if(len(teacher_output) == 0):
+        return float('nan')
+    if(multi_label):
+        return float(np.mean((teacher_output > 0.5) == (student_output > 0.5)))
+    return float(np.mean(np.argmax(teacher_output, axis=1) == np.argmax(student_output, axis=1)))
+
+def measure(classifier, table, batch_size, initial_progress):
+    """Predicts the table and returns the predictions and the seconds per row. The first rows
+    are predicted once beforehand, so that tracing the model is not measured."""
+    warm_up = table.iloc[:LATENCY_WARM_UP_ROWS]
+    classifier.predict(warm_up, batch_size, ProgressCallback(len(warm_up), predict=True, batch_size=batch_size,
+        initial_progress=initial_progress, subprogress_factor=0))
+    progress_logger = ProgressCallback(len(table), predict=True, batch_size=batch_size,
+        initial_progress=initial_progress, subprogress_factor=0.05)
+    start = time.perf_counter()
+    output = classifier.predict(table, batch_size, progress_logger)
+    return output, (time.perf_counter() - start) / max(len(table), 1), progress_logger.last_progress
+
+def run_distill(
+    input_table: knio.Table,
+    teacher_file_store,
+    teacher_model_type_key,
+    teacher_max_seq_length,
+    bert_model_type_key,
+    bert_model_handle,
+    sentence_column,
+    class_count,
+    file_store,
+    optimizer,
+    cache_dir = None,
+    max_seq_length = 128,
+    batch_size = 20,
+    epochs = 3,
+    temperature = 2.0,
+    hard_label_weight = 0.0,
+    evaluation_fraction = 0.1,
+    multi_label = False,
+    model_cache_dir = None
+):
+    """Trains the student classifier on the soft labels the teacher assigns to the input table,
+    then compares both models on the rows held out for evaluation. Multi-label students are trained
+    on the teacher probabilities as they are."""
+    table = input_table.to_pandas()
+    evaluation_count = int(len(table) * evaluation_fraction)
+    shuffled = table.sample(frac=1, random_state=0)
+    evaluation_table = shuffled.iloc[:evaluation_count]
+    train_table = shuffled.iloc[evaluation_count:].copy()
+
+    teacher_model = ModelCache.load_model(teacher_file_store, model_cache_dir)
+    teacher_type = BertModelType.from_key(teacher_model_type_key)
+    teacher_tokenizer = teacher_type.tokenizer_cls.from_saved_model(teacher_model, sentence_column,
+        max_seq_length=teacher_max_seq_length)
+    teacher = BertClassifier(tokenizer=teacher_tokenizer, model=teacher_model)
+
+    labeling_progress = ProgressCallback(len(train_table), predict=True, batch_size=batch_size, subprogress_factor=0.2)
+    teacher_output = teacher.predict(train_table, batch_size, labeling_progress)
+
+    model_type = BertModelType.from_key(bert_model_type_key)
+    embedder = BertEmbedder.from_pretrained(model_type, bert_model_handle, sentence_column, max_seq_length=max_seq_length,
+        cache_dir=cache_dir)
+    student = BertClassifier(embedder=embedder, class_count=class_count, multi_label=multi_label)
+    progress_logger = ProgressCallback(len(train_table), train=True, batch_size=batch_size, epochs_count=epochs,
+        initial_progress=labeling_progress.last_progress, subprogress_factor=0.7)
+    if(multi_label):
+        train_table[SOFT_LABELS_COLUMN] = list(teacher_output)
+        student.train(train_table, SOFT_LABELS_COLUMN, batch_size, epochs, optimizer, progress_logger,
+            fine_tune_bert=True)
+    else:
+        train_student(student, train_table, soften(teacher_output, temperature), one_hot_argmax(teacher_output),
+            temperature, hard_label_weight, batch_size, epochs, optimizer, progress_logger)
+    student.save(file_store)
+
+    evaluation_table = evaluation_table if len(evaluation_table) > 0 else train_table
+    teacher_output, teacher_latency, progress = measure(teacher, evaluation_table, batch_size, progress_logger.last_progress)
+    student_output, student_latency, _ = measure(student, evaluation_table, batch_size, progress)
+    student_agreement = agreement(teacher_output, student_output, multi_label)
+
+    knio.output_tables[0] = knio.Table.from_pandas(pd.DataFrame({
+        'Model': ['Teacher', 'Student'],
+        'Parameters': [teacher.model.count_params(), student.model.count_params()],
+        'Latency per row (ms)': [teacher_latency * 1000, student_latency * 1000],
+        'Speedup': [1.0, teacher_latency / student_latency if student_latency > 0 else float('nan')],
+        'Agreement with teacher': [1.0, student_agreement],
+        'Evaluation rows': [len(evaluation_table)] * 2
+    }))
@@ -1,55 +1,165 @@
+import os
 import tensorflow as tf
 import pandas as pd
 import knime.scripting.io as knio
 from tensorflow.keras.models import Model
 
 from ProgressCallback import ProgressCallback
+from Pipeline import Pipeline
+import Coalescing
+import ModelCache
+import LoraAdapters
 from BertTokenizer import TokenizerBase
 from BertModelType import BertModelType
+from EmbeddingProjection import EmbeddingProjection
+from bert_utils import aggregate_windows, find_bert_layer
+from tensor_utils import encode_sequences, encode_embeddings, l2_normalize
 
 class BertEmbedder:
-    def __init__(self, bert_layer, tokenizer: TokenizerBase):
+    def __init__(self, bert_layer, tokenizer: TokenizerBase, pooling='pooler', pooling_layers=4):
         self.tokenizer = tokenizer
+        self.bert_layer = bert_layer
 
         input_ids = tf.keras.layers.Input(shape=(tokenizer.max_seq_length,), dtype=tf.int32, name="input_ids")
         input_masks = tf.keras.layers.Input(shape=(tokenizer.max_seq_length,), dtype=tf.int32, name="input_masks")
         input_segments = tf.keras.layers.Input(shape=(tokenizer.max_seq_length,), dtype=tf.int32, name="input_segments")
 
+        hidden_states = None
         if bert_layer.__class__.__module__.startswith('transformers'):
-            res = bert_layer(input_ids, input_masks, input_segments)
+            res = bert_layer(input_ids, input_masks, input_segments, output_hidden_states=(pooling == 'concat_last_n'))
             self.pooled_output =  res.pooler_output
             self.sequence_output = res.last_hidden_state
+            hidden_states = res.hidden_states
         else:
             self.pooled_output, self.sequence_output = bert_layer([input_ids, input_masks, input_segments])
 
         self.inputs = [input_ids, input_masks, input_segments]
+        self.embeddings_output = pool_embeddings(pooling, self.pooled_output, self.sequence_output, input_masks,
+            hidden_states, pooling_layers)
         
-        self.model = Model(inputs=self.inputs, outputs=[self.pooled_output, self.sequence_output])
+        self.model = Model(inputs=self.inputs, outputs=[self.embeddings_output, self.sequence_output])
+        self.embeddings_model = Model(inputs=self.inputs, outputs=self.embeddings_output)
 
-    def predict(self, input_table: pd.DataFrame, batch_size, progress_logger):
-        ids, masks, segments = self.tokenizer.tokenize(input_table, progress_logger)
+    def tokenize(self, input_table: pd.DataFrame, progress_logger, sliding_window=False, window_stride=64):
+        if(sliding_window):
+            return self.tokenizer.tokenize_windows(input_table, window_stride, progress_logger)
+        return self.tokenizer.tokenize(input_table, progress_logger)
 
-        pooled_emb, sequence_emb = self.model.predict([ids, masks, segments],
+    def predict(self, input_table: pd.DataFrame, batch_size, progress_logger, include_sequence_embeddings=True, tokens=None):
+        ids, masks, segments = tokens or self.tokenize(input_table, progress_logger)
+
+        if(not include_sequence_embeddings):
+            embeddings = self.embeddings_model.predict([ids, masks, segments],
+                batch_size=batch_size, callbacks=[progress_logger])
+            return embeddings, None, masks
+
+        embeddings, sequence_emb = self.model.predict([ids, masks, segments],
             batch_size=batch_size, callbacks=[progress_logger])
-        return pooled_emb, sequence_emb
+        return embeddings, sequence_emb, masks
+
+    def predict_windows(self, input_table: pd.DataFrame, batch_size, progress_logger, window_stride, window_aggregation, tokens=None):
+        ids, masks, segments, window_rows = tokens or self.tokenize(input_table, progress_logger, True, window_stride)
+        progress_logger.total_count = len(ids)
+
+        embeddings = self.embeddings_model.predict([ids, masks, segments],
+            batch_size=batch_size, callbacks=[progress_logger])
+        return aggregate_windows(embeddings, window_rows, len(input_table), window_aggregation)
 
     def compute_embeddings(self, input_table: pd.DataFrame, batch_size, progress_logger,
         embeddings_column = 'embeddings',
         sequence_embedding_column_prefix = 'sequence_embeddings_',
-        include_sequence_embeddings = False
+        include_sequence_embeddings = False,
+        sliding_window = False,
+        window_stride = 64,
+        window_aggregation = 'mean',
+        sequence_embeddings_format = 'columns',
+        sequence_embeddings_column = 'sequence_embeddings',
+        embeddings_precision = 'double',
+        normalize_embeddings = False,
+        projection: EmbeddingProjection = None,
+        tokens = None
     ):
-        pooled_emb, sequence_emb = self.predict(input_table, batch_size, progress_logger)
+        if(sliding_window):
+            embeddings = self.predict_windows(input_table, batch_size, progress_logger, window_stride, window_aggregation,
+                tokens)
+            include_sequence_embeddings = False
+        else:
+            embeddings, sequence_emb, masks = self.predict(input_table, batch_size, progress_logger, include_sequence_embeddings,
+                tokens)
+
+        if(projection is not None):
+            embeddings = projection.transform(embeddings)
+
+        if(normalize_embeddings):
+            embeddings = l2_normalize(embeddings)
 
         output_table = pd.DataFrame(index=input_table.index)
-        output_table[embeddings_column] = pooled_emb.tolist()
+        output_table[embeddings_column] = encode_embeddings(embeddings, embeddings_precision)
 
-        if(include_sequence_embeddings):
+        if(include_sequence_embeddings and sequence_embeddings_format == 'tensor'):
+            output_table[sequence_embeddings_column] = encode_sequences(sequence_emb, masks, embeddings_precision)
+        elif(include_sequence_embeddings):
             columns = [sequence_embedding_column_prefix + str(i) for i in range(len(sequence_emb[0]))]
             se = pd.DataFrame(sequence_emb.tolist(), columns = columns, index = output_table.index)
             output_table = pd.concat([output_table, se], axis=1)
 
         return output_table
 
+    def run(self, input_table: knio.Table, batch_size,
+        dimension_reduction = 'none',
+        reduced_dimensions = 128,
+        pca_sample_size = 10000,
+        projection_file = None,
+        fit_projection = True,
+        output = None,
+        **kwargs
+    ):
+        """Computes the embeddings batch by batch and writes them into the output table, or appends
+        them to the given output. The next batches are read and tokenized while the embeddings of the
+        current one are computed. Remaining keyword arguments are passed to compute_embeddings."""
+        projection = EmbeddingProjection.create(dimension_reduction, reduced_dimensions, pca_sample_size,
+            projection_file, fit_projection)
+        if(projection is not None and projection.needs_fit()):
+            # the sample is drawn from the whole table, so the projection is fitted before any chunk is transformed
+            self.fit_projection(input_table, projection, batch_size, **kwargs)
+        write_table = output if output is not None else knio.BatchOutputTable.create()
+        pipeline = Pipeline()
+        num_batches = input_table.num_batches
+
+        def prepare(indexed_batch):
+            index, batch = indexed_batch
+            pd_batch = pipeline.timed('read', batch.to_pandas)
+            tokens = pipeline.timed('tokenize', self.tokenize, pd_batch, None,
+                kwargs.get('sliding_window', False), kwargs.get('window_stride', 64))
+            return index, pd_batch, tokens
+
+        def process(prepared):
+            index, pd_batch, tokens = prepared
+            progress_logger = ProgressCallback(len(pd_batch), predict=True, batch_size=batch_size,
+                initial_progress=100 * index / num_batches, subprogress_factor=1/num_batches)
+            progress_logger.on_tokenize_rows_end(len(pd_batch))
+            output_batch = pipeline.timed('inference', self.compute_embeddings, pd_batch, batch_size, progress_logger,
+                projection=projection, tokens=tokens, **kwargs)
+            pipeline.timed('write', write_table.append, output_batch)
+
+        pipeline.run(enumerate(input_table.batches()), prepare, process)
+        if(output is None):
+            knio.output_tables[0] = write_table
+
+    def fit_projection(self, input_table, projection, batch_size, sliding_window=False, window_stride=64,
+        window_aggregation='mean', **kwargs):
+        """Fits the projection on the embeddings of the rows sampled from the whole input table. Only the
+        sampled rows are kept while the table is read, their embeddings are computed in an extra pass."""
+        positions = projection.sample_positions(input_table.num_rows)
+        sample = select_rows(Coalescing.read_frames(input_table), positions)
+        # the extra pass does not report progress, the progress of the chunks starts afterwards
+        progress_logger = ProgressCallback(len(sample), predict=True, batch_size=batch_size, subprogress_factor=0)
+        if(sliding_window):
+            embeddings = self.predict_windows(sample, batch_size, progress_logger, window_stride, window_aggregation)
+        else:
+            embeddings, _, _ = self.predict(sample, batch_size, progress_logger, False)
+        projection.fit(embeddings)
+
     @classmethod
     def run_from_pretrained(cls,
         input_table:knio.Table,
@@ -60,22 +170,18 @@ class BertEmbedder:
         max_seq_length = 128,
         second_sentence_column = None,
         batch_size = 20,
-        embeddings_column = 'embeddings',
-        sequence_embedding_column_prefix = 'sequence_embeddings_',
-        include_sequence_embeddings = False
+        pooling = 'pooler',
+        pooling_layers = 4,
+        **kwargs
     ):
         model_type = BertModelType.from_key(bert_model_type_key)
-        embedder = cls.from_pretrained(model_type, bert_model_handle, sentence_column, second_sentence_column, max_seq_length, cache_dir)
-        write_table = knio.BatchOutputTable.create()
-        progress_done = 0
-        for batch in input_table.batches():
-            pd_batch = batch.to_pandas()
-            progress_logger = ProgressCallback(len(pd_batch), predict=True, batch_size=batch_size,
-                initial_progress=progress_done, subprogress_factor=1/input_table.num_batches)
-            output_batch = embedder.compute_embeddings(pd_batch, batch_size, progress_logger, embeddings_column, sequence_embedding_column_prefix, include_sequence_embeddings)
-            write_table.append(output_batch)
-            progress_done = progress_logger.last_progress
-        knio.output_tables[0] = write_table
+        # a model given by a local path is loaded again once it changes
+        modified = ModelCache.get_modification_time(bert_model_handle) if os.path.exists(bert_model_handle) else None
+        key = ('pretrained_embedder', bert_model_type_key, bert_model_handle, modified, cache_dir, sentence_column,
+            second_sentence_column, max_seq_length, pooling, pooling_layers)
+        embedder = ModelCache.get_keyed(key, lambda: cls.from_pretrained(model_type, bert_model_handle, sentence_column,
+            second_sentence_column, max_seq_length, cache_dir, pooling, pooling_layers))
+        embedder.run(input_table, batch_size, **kwargs)
     
     @classmethod
     def run_from_classifier(cls,
@@ -86,32 +192,66 @@ class BertEmbedder:
         max_seq_length = 128,
         second_sentence_column = None,
         batch_size = 20,
-        embeddings_column = 'embeddings',
-        sequence_embedding_column_prefix = 'sequence_embeddings_',
-        include_sequence_embeddings = False
+        pooling = 'pooler',
+        pooling_layers = 4,
+        model_cache_dir = None,
+        **kwargs
     ):
-        saved_model = tf.keras.models.load_model(file_store)
+        saved_model = ModelCache.load_model(file_store, model_cache_dir)
         model_type = BertModelType.from_key(bert_model_type_key)
-        embedder = cls.from_saved_model(model_type, saved_model, sentence_column, second_sentence_column, max_seq_length)
-        write_table = knio.BatchOutputTable.create()
-        progress_done = 0
-        for batch in input_table.batches():
-            pd_batch = batch.to_pandas()
-            progress_logger = ProgressCallback(len(pd_batch), predict=True, batch_size=batch_size,
-                initial_progress=progress_done, subprogress_factor=1/input_table.num_batches)
-            output_table = embedder.compute_embeddings(pd_batch, batch_size, progress_logger, embeddings_column, sequence_embedding_column_prefix, include_sequence_embeddings)
-            write_table.append(output_table)
-            progress_done = progress_logger.last_progress
-        knio.output_tables[0] = write_table
+        embedder = cls.from_saved_model(model_type, saved_model, sentence_column, second_sentence_column, max_seq_length,
+            pooling, pooling_layers)
+        embedder.run(input_table, batch_size, **kwargs)
 
     @classmethod
-    def from_pretrained(cls, model_type:BertModelType, bert_model_handle, sentence_column, second_sentence_column=None, max_seq_length=128, cache_dir=None):
+    def from_pretrained(cls, model_type:BertModelType, bert_model_handle, sentence_column, second_sentence_column=None, max_seq_length=128, cache_dir=None,
+        pooling='pooler', pooling_layers=4, adapter_rank=0, adapter_alpha=None):
         bert_layer = model_type.load_bert_layer(bert_model_handle, cache_dir)
+        if(adapter_rank):
+            LoraAdapters.inject(bert_layer, adapter_rank, adapter_alpha)
         tokenizer = model_type.tokenizer_cls.from_pretrained(bert_model_handle, sentence_column, second_sentence_column, max_seq_length, cache_dir)
-        return BertEmbedder(bert_layer, tokenizer)
+        return BertEmbedder(bert_layer, tokenizer, pooling, pooling_layers)
 
     @classmethod
-    def from_saved_model(cls, model_type:BertModelType, saved_model, sentence_column, second_sentence_column=None, max_seq_length=128):
-        bert_layer = saved_model.layers[3]
+    def from_saved_model(cls, model_type:BertModelType, saved_model, sentence_column, second_sentence_column=None, max_seq_length=128,
+        pooling='pooler', pooling_layers=4):
+        bert_layer = find_bert_layer(saved_model)
         tokenizer = model_type.tokenizer_cls.from_saved_model(saved_model, sentence_column, second_sentence_column, max_seq_length)
-        return BertEmbedder(bert_layer, tokenizer)
\ No newline at end of file
+        return BertEmbedder(bert_layer, tokenizer, pooling, pooling_layers)
+
+def select_rows(frames, positions):
+    """Selects the rows at the sorted positions from the consecutive frames of a table."""
+    parts = []
+    start = 0
+    for frame in frames:
+        end = start + len(frame)
+        selected = positions[(positions >= start) & (positions < end)] - start
+        if(len(selected)):
+            parts.append(frame.iloc[selected])
+        start = end
+    return pd.concat(parts)
+
+def pool_embeddings(pooling, pooled_output, sequence_output, input_masks, hidden_states=None, pooling_layers=4):
+    """Reduces the BERT outputs to a single vector per row inside the model graph,
+    so that only the pooled vectors leave the model."""
+    if(pooling == 'pooler'):
+        return pooled_output
+    elif(pooling == 'cls'):
+        return sequence_output[:, 0]
+    elif(pooling == 'mean'):
+        return masked_mean(sequence_output, input_masks)
+    elif(pooling == 'max'):
+        mask = tf.cast(tf.expand_dims(input_masks, -1), sequence_output.dtype)
+        return tf.reduce_max(sequence_output + (1 - mask) * sequence_output.dtype.min, axis=1)
+    elif(pooling == 'concat_last_n'):
+        if hidden_states is None:
+            raise ValueError('Concatenation of the last layers is only supported for Hugging Face models')
+        layers = hidden_states[-pooling_layers:]
+        return tf.concat([masked_mean(layer, input_masks) for layer in layers], axis=-1)
+    else:
+        raise ValueError('Unsupported pooling: ' + str(pooling))
+
+def masked_mean(sequence_output, input_masks):
+    mask = tf.cast(tf.expand_dims(input_masks, -1), sequence_output.dtype)
+    summed = tf.reduce_sum(sequence_output * mask, axis=1)
+    return summed / tf.maximum(tf.reduce_sum(mask, axis=1), 1)
\ No newline at end of file
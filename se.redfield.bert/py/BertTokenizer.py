@@ -1,7 +1,9 @@
+import functools
 import tempfile
 import os
 import tensorflow as tf
 import numpy as np
+import pandas as pd
 
 from zipfile import ZipFile
 try:
@@ -14,11 +16,17 @@ except ImportError:
 from transformers import AutoTokenizer, AutoConfig
 from ProgressCallback import ProgressCallback
 from bert_utils import load_bert_layer
+import ModelCache
 
 #temporary fix for the UnparsedFlagAccessError
 from absl import flags
 flags.FLAGS([''])
 
+# the fast tokenizers encode the rows of a batch in parallel
+os.environ.setdefault('TOKENIZERS_PARALLELISM', 'true')
+TOKENIZE_BATCH_SIZE = 1024
+WORDPIECE_CACHE_SIZE = 1 << 16
+
 class TokenizerBase:
     def __init__(self, tokenizer, max_seq_length, sentence_column, second_sentence_column=None):
         self.tokenizer = tokenizer
@@ -31,32 +39,81 @@ class TokenizerBase:
         if(self.second_sentence_column):
             selector.append(self.second_sentence_column)
 
-        input_ids, input_masks, input_segments = [], [], []
+        input_ids, input_masks, input_segments = self.allocate_inputs(len(table))
 
         current_count = 0
 
         for row in table[selector].values:
             ids,masks,segments = self.create_single_input(row)
  
-            input_ids.append(ids)
-            input_masks.append(masks)
-            input_segments.append(segments)
+            input_ids[current_count] = ids
+            input_masks[current_count] = masks
+            input_segments[current_count] = segments
 
             current_count += 1
             if(current_count % 10 == 0 and progress_logger): 
                 progress_logger.on_tokenize_rows_end(current_count)
 
-        input_ids = np.array(input_ids)
-        input_masks = np.array(input_masks)
-        input_segments = np.array(input_segments)
         return input_ids, input_masks, input_segments
 
+    def allocate_inputs(self, count):
+        return tuple(np.zeros((count, self.max_seq_length), dtype=np.int32) for _ in range(3))
+
+    def tokenize_windows(self, table, stride, progress_logger):
+        """Splits every row into overlapping windows of max_seq_length tokens.
+        Returns ids, masks and segments of all the windows, as well as the index
+        of the row every window belongs to."""
+        selector = [self.sentence_column]
+        if(self.second_sentence_column):
+            selector.append(self.second_sentence_column)
+
+        input_ids, input_masks, input_segments, window_rows = [], [], [], []
+
+        current_count = 0
+
+        for row in table[selector].values:
+            for ids, masks, segments in self.create_window_inputs(row, stride):
+                input_ids.append(ids)
+                input_masks.append(masks)
+                input_segments.append(segments)
+                window_rows.append(current_count)
+
+            current_count += 1
+            if(current_count % 10 == 0 and progress_logger):
+                progress_logger.on_tokenize_rows_end(current_count)
+
+        input_ids = np.array(input_ids, dtype=np.int32)
+        input_masks = np.array(input_masks, dtype=np.int32)
+        input_segments = np.array(input_segments, dtype=np.int32)
+        return input_ids, input_masks, input_segments, np.array(window_rows, dtype=np.int64)
+
     def create_single_input(self, row):
         raise NotImplementedError()
 
+    def create_window_inputs(self, row, stride):
+        raise NotImplementedError()
+
     def save_to(self, model):
         raise NotImplementedError()
 
+    def get_sep_token_id(self):
+        raise NotImplementedError()
+
+    def first_sentence_lengths(self, ids, masks, token_counts):
+        """The number of tokens up to and including the first separator of every row.
+        Taken from the separator position rather than the segments, which are all zeros
+        for the models without token types, e.g. RoBERTa or DistilBERT."""
+        sep_token_id = self.get_sep_token_id()
+        if(sep_token_id is None):
+            return token_counts
+        separators = (ids == sep_token_id) & (masks == 1)
+        return np.where(separators.any(axis=1), separators.argmax(axis=1) + 1, token_counts).astype(np.int32)
+
+    def get_window_pair_length(self):
+        """In the sliding window mode the second sentence is appended to every window
+        and may occupy at most half of the sequence."""
+        return (self.max_seq_length - 3) // 2
+
 
     @classmethod
     def run(cls, input_table,
@@ -67,19 +124,33 @@ class TokenizerBase:
         second_sentence_column = None,
         ids_column = 'ids',
         masks_column = 'masks',
-        segments_column = 'segments'
+        segments_column = 'segments',
+        output_format = 'padded',
+        token_count_column = 'token_count',
+        first_sentence_length_column = 'first_sentence_length'
     ):
+        import knime.scripting.io as knio
         tokenizer = cls.from_pretrained(bert_model_handle, sentence_column, second_sentence_column, max_seq_length, tfhub_cache_dir)        
 
-        progress_logger = ProgressCallback(len(input_table))
-        ids, masks, segments = tokenizer.tokenize(input_table, progress_logger)
-
-        output_table = input_table.copy()
-        output_table[ids_column] = ids
-        output_table[masks_column] = masks
-        output_table[segments_column] = segments
-
-        return output_table
+        table = input_table.to_pandas()
+        progress_logger = ProgressCallback(len(table))
+        ids, masks, segments = tokenizer.tokenize(table, progress_logger)
+
+        # only the token columns are returned, they are appended to the input table by the node
+        output_table = pd.DataFrame(index=table.index)
+        if(output_format == 'packed'):
+            # the padding is dropped, the masks and segments follow from the lengths
+            token_counts = masks.sum(axis=1, dtype=np.int32)
+            output_table[ids_column] = [row[:count] for row, count in zip(ids, token_counts)]
+            output_table[token_count_column] = token_counts
+            if(second_sentence_column):
+                output_table[first_sentence_length_column] = tokenizer.first_sentence_lengths(ids, masks, token_counts)
+        else:
+            output_table[ids_column] = list(ids)
+            output_table[masks_column] = list(masks)
+            output_table[segments_column] = list(segments)
+
+        knio.output_tables[0] = knio.Table.from_pandas(output_table)
 
     @classmethod
     def from_pretrained(cls, bert_model_handle, sentence_column, second_sentence_column = None, max_seq_length = 128, cache_dir = None):
@@ -94,6 +165,9 @@ class BertTokenizer(TokenizerBase):
         self.vocab_file = vocab_file
         self.do_lower_case = do_lower_case
         tokenizer = FullTokenizer(vocab_file.asset_path.numpy(), do_lower_case.numpy())
+        # WordPiece splits every distinct word the same way, and the words follow a long-tailed distribution
+        wordpiece = tokenizer.wordpiece_tokenizer
+        wordpiece.tokenize = functools.lru_cache(maxsize=WORDPIECE_CACHE_SIZE)(wordpiece.tokenize)
 
         super().__init__(tokenizer, max_seq_length, sentence_column, second_sentence_column)
 
@@ -115,6 +189,20 @@ class BertTokenizer(TokenizerBase):
  
         return ids, masks, segments
 
+    def create_window_inputs(self, row, stride):
+        stokens = self.tokenizer.tokenize(row[0])
+
+        stokens2 = []
+        if(row.size > 1):
+            stokens2 = self.tokenizer.tokenize(row[1])[:self.get_window_pair_length()] + ["[SEP]"]
+
+        window_size = self.max_seq_length - 2 - len(stokens2)
+        inputs = []
+        for window in split_windows(stokens, window_size, stride):
+            tokens = ["[CLS]"] + window + ["[SEP]"] + stokens2
+            inputs.append((self.get_ids(tokens), self.get_masks(tokens), self.get_segments(tokens)))
+        return inputs
+
 
     def get_ids(self, tokens):
         """Token ids from Tokenizer vocab"""
@@ -135,6 +223,9 @@ class BertTokenizer(TokenizerBase):
                 current_segment_id = 1
         return segments + [0] * (self.max_seq_length - len(tokens))
     
+    def get_sep_token_id(self):
+        return self.tokenizer.convert_tokens_to_ids(["[SEP]"])[0]
+
     def save_to(self, model):
         model.vocab_file = self.vocab_file
         model.do_lower_case = self.do_lower_case
@@ -157,6 +248,25 @@ class HFTokenizerWrap(TokenizerBase):
         self.tokenizer_config = tokenizer_config
         super().__init__(tokenizer, max_seq_length, sentence_column, second_sentence_column)
 
+    def tokenize(self, table, progress_logger):
+        """Encodes the rows batch by batch, which lets the fast tokenizer process a batch in parallel."""
+        texts = table[self.sentence_column].tolist()
+        pairs = table[self.second_sentence_column].tolist() if self.second_sentence_column else None
+        input_ids, input_masks, input_segments = self.allocate_inputs(len(texts))
+
+        for start in range(0, len(texts), TOKENIZE_BATCH_SIZE):
+            end = min(start + TOKENIZE_BATCH_SIZE, len(texts))
+            res = self.tokenizer(text=texts[start:end], text_pair=pairs[start:end] if pairs else None,
+                padding='max_length', truncation=True, max_length=self.max_seq_length,
+                return_attention_mask=True, return_token_type_ids=True, return_tensors='np')
+            input_ids[start:end] = res['input_ids']
+            input_masks[start:end] = res['attention_mask']
+            input_segments[start:end] = res['token_type_ids']
+            if(progress_logger):
+                progress_logger.on_tokenize_rows_end(end)
+
+        return input_ids, input_masks, input_segments
+
     def create_single_input(self, row):
         text = row[0]
         text_pair = row[1] if row.size > 1 else None
@@ -165,6 +275,30 @@ class HFTokenizerWrap(TokenizerBase):
                 max_length=self.max_seq_length, return_attention_mask=True, return_token_type_ids=True, return_length=True)
         return res['input_ids'], res['attention_mask'], res['token_type_ids']
 
+    def create_window_inputs(self, row, stride):
+        ids = self.tokenizer(row[0], add_special_tokens=False)['input_ids']
+
+        pair_ids = None
+        if(row.size > 1):
+            pair_ids = self.tokenizer(row[1], add_special_tokens=False)['input_ids'][:self.get_window_pair_length()]
+
+        pair_length = len(pair_ids) if pair_ids is not None else 0
+        window_size = self.max_seq_length - self.tokenizer.num_special_tokens_to_add(pair=pair_ids is not None) - pair_length
+        pad_id = self.tokenizer.pad_token_id or 0
+
+        inputs = []
+        for window in split_windows(ids, window_size, stride):
+            input_ids = self.tokenizer.build_inputs_with_special_tokens(window, pair_ids)
+            segments = self.tokenizer.create_token_type_ids_from_sequences(window, pair_ids)
+            padding = self.max_seq_length - len(input_ids)
+            inputs.append((input_ids + [pad_id] * padding,
+                [1] * len(input_ids) + [0] * padding,
+                segments + [0] * padding))
+        return inputs
+
+    def get_sep_token_id(self):
+        return self.tokenizer.sep_token_id
+
     def save_to(self, model):
         temp_dir =  tempfile.TemporaryDirectory()
         self.tokenizer.save_pretrained(temp_dir.name)
@@ -189,10 +323,34 @@ class HFTokenizerWrap(TokenizerBase):
     def from_saved_model(cls, saved_model, sentence_column, second_sentence_column=None, max_seq_length=128):
         zip_file_path = saved_model.tokenizer_file.asset_path.numpy().decode()
         extracted_path = os.path.join(os.path.dirname(zip_file_path), 'tokenizer')
+        cls.extract_once(zip_file_path, extracted_path)
+
+        tokenizer, config = ModelCache.get('hf_tokenizer', zip_file_path,
+            lambda: (AutoTokenizer.from_pretrained(extracted_path), AutoConfig.from_pretrained(extracted_path)))
+        return HFTokenizerWrap(tokenizer, config, max_seq_length, sentence_column, second_sentence_column)
+
+    @classmethod
+    def extract_once(cls, zip_file_path, extracted_path):
+        """Extracts the tokenizer unless it was already extracted from the same archive."""
+        marker = os.path.join(extracted_path, '.extracted')
+        stamp = str(os.path.getmtime(zip_file_path))
+        if os.path.exists(marker):
+            with open(marker, 'r') as f:
+                if f.read() == stamp:
+                    return
 
         with ZipFile(zip_file_path, 'r') as zip:
             zip.extractall(extracted_path)
-        
-        tokenizer = AutoTokenizer.from_pretrained(extracted_path)
-        config = AutoConfig.from_pretrained(extracted_path)
-        return HFTokenizerWrap(tokenizer, config, max_seq_length, sentence_column, second_sentence_column)
\ No newline at end of file
+        with open(marker, 'w') as f:
+            f.write(stamp)
+
+def split_windows(tokens, window_size, stride):
+    """Splits the tokens into windows of window_size tokens, each next window
+    starting stride tokens after the previous one. Always returns at least one window."""
+    stride = max(1, min(stride, window_size))
+    windows = [tokens[:window_size]]
+    start = stride
+    while start + window_size - stride < len(tokens):
+        windows.append(tokens[start:start + window_size])
+        start += stride
+    return windows
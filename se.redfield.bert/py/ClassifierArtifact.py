@@ -0,0 +1,208 @@
+import hashlib
+import json
+import os
+import tempfile
+import zlib
+from concurrent.futures import ThreadPoolExecutor
+
+import numpy as np
+
+import LoraAdapters
+import ModelCache
+
+# Classifier file store layouts that are smaller and faster to load than a SavedModel. All of them
+# keep a manifest describing how the model is rebuilt and differ in how the weights are stored:
+#  - shared_backbone: head weights only, the frozen BERT weights are the pretrained ones and are
+#    not stored at all. The model is rebuilt from the pretrained BERT model in the model cache,
+#    whose weights are checked against the content hash kept in the manifest.
+#  - compact: all the weights in a single raw file, read with one sequential read when loaded.
+#  - compressed: the same byte layout split into zlib compressed shards, decompressed in parallel.
+#  - adapters: head weights and the low-rank adapter weights only, the BERT weights are the
+#    pretrained ones.
+# The compact and compressed classifiers are self-contained: the model configuration and the
+# tokenizer are stored in the bert directory, so the model is built from the configuration without
+# the pretrained model. Keras copies the weights into its variables in any case, the raw layout
+# only avoids the parsing and the per-variable reads of a SavedModel.
+MANIFEST_FILE = 'classifier.json'
+BERT_MODEL_DIR = 'bert'
+HEAD_WEIGHTS_FILE = 'head_weights.npz'
+ADAPTER_WEIGHTS_FILE = 'adapter_weights.npz'
+WEIGHTS_FILE = 'weights.bin'
+SHARD_FILE = 'weights-%05d.bin.z'
+
+FORMAT_SHARED_BACKBONE = 'shared_backbone'
+FORMAT_COMPACT = 'compact'
+FORMAT_COMPRESSED = 'compressed'
+FORMAT_ADAPTERS = 'adapters'
+
+ALIGNMENT = 64
+SHARD_SIZE = 64 << 20
+COMPRESSION_LEVEL = 1
+
+def is_artifact(path):
+    return os.path.isfile(os.path.join(path, MANIFEST_FILE))
+
+def weights_hash(weights):
+    digest = hashlib.sha256()
+    for w in weights:
+        digest.update(str(w.dtype).encode('utf-8'))
+        digest.update(str(w.shape).encode('utf-8'))
+        digest.update(np.ascontiguousarray(w).tobytes())
+    return digest.hexdigest()
+
+def save_weights(path, weights):
+    directory = os.path.dirname(path)
+    with tempfile.NamedTemporaryFile(dir=directory, suffix='.tmp', delete=False) as f:
+        np.savez(f, *weights)
+    os.replace(f.name, path)
+
+def load_weights(path):
+    with np.load(path) as data:
+        return [data['arr_%d' % i] for i in range(len(data.files))]
+
+def write_weights_file(path, weights):
+    """Writes the raw weights one after another, each aligned so that the arrays can be viewed in
+    the buffer the file is read into. Returns the index describing the arrays."""
+    index = []
+    offset = 0
+    with open(path, 'wb') as f:
+        for w in weights:
+            w = np.ascontiguousarray(w)
+            padding = (-offset) % ALIGNMENT
+            f.write(b'\0' * padding)
+            offset += padding
+            index.append({'dtype': w.dtype.str, 'shape': list(w.shape), 'offset': offset})
+            f.write(w.tobytes())
+            offset += w.nbytes
+    return index, offset
+
+def view_weights(buffer, index):
+    return [np.ndarray(tuple(e['shape']), dtype=np.dtype(e['dtype']), buffer=buffer, offset=e['offset'])
+        for e in index]
+
+def write_shards(path, raw_file, size):
+    """Splits the raw weights file into compressed shards."""
+    def compress(i):
+        with open(raw_file, 'rb') as f:
+            f.seek(i * SHARD_SIZE)
+            data = zlib.compress(f.read(SHARD_SIZE), COMPRESSION_LEVEL)
+        with open(os.path.join(path, SHARD_FILE % i), 'wb') as out:
+            out.write(data)
+
+    shard_count = max(1, -(-size // SHARD_SIZE))
+    with ThreadPoolExecutor() as executor:
+        list(executor.map(compress, range(shard_count)))
+    return shard_count
+
+def read_shards(path, shard_count, size):
+    buffer = bytearray(size)
+
+    def decompress(i):
+        with open(os.path.join(path, SHARD_FILE % i), 'rb') as f:
+            data = zlib.decompress(f.read())
+        buffer[i * SHARD_SIZE:i * SHARD_SIZE + len(data)] = data
+
+    # zlib releases the GIL, so the shards are decompressed in parallel
+    with ThreadPoolExecutor() as executor:
+        list(executor.map(decompress, range(shard_count)))
+    return buffer
+
+def save_bert_model(tokenizer, path):
+    """Stores the model configuration and the tokenizer the BERT model is rebuilt from."""
+    if not hasattr(tokenizer, 'tokenizer_config'):
+        raise ValueError('The compact and compressed formats are only supported for Hugging Face models')
+    model_dir = os.path.join(path, BERT_MODEL_DIR)
+    tokenizer.tokenizer.save_pretrained(model_dir)
+    tokenizer.tokenizer_config.save_pretrained(model_dir)
+    return BERT_MODEL_DIR
+
+def save(model, bert_layer, path, artifact_format, config, tokenizer=None):
+    """Saves the classifier model into the path using the given format. The tokenizer is stored
+    along with the compact and compressed formats."""
+    os.makedirs(path, exist_ok=True)
+    manifest = dict(config, format=artifact_format)
+    if artifact_format in (FORMAT_COMPACT, FORMAT_COMPRESSED):
+        manifest['bert_model_dir'] = save_bert_model(tokenizer, path)
+
+    if artifact_format == FORMAT_SHARED_BACKBONE:
+        manifest['backbone_sha256'] = weights_hash(bert_layer.get_weights())
+        save_weights(os.path.join(path, HEAD_WEIGHTS_FILE), get_head_weights(model, bert_layer))
+    elif artifact_format == FORMAT_ADAPTERS:
+        save_weights(os.path.join(path, ADAPTER_WEIGHTS_FILE), LoraAdapters.get_weights(bert_layer))
+        save_weights(os.path.join(path, HEAD_WEIGHTS_FILE), get_head_weights(model, bert_layer))
+    elif artifact_format == FORMAT_COMPACT:
+        manifest['weights'], manifest['size'] = write_weights_file(os.path.join(path, WEIGHTS_FILE),
+            model.get_weights())
+    elif artifact_format == FORMAT_COMPRESSED:
+        with tempfile.TemporaryDirectory(dir=path) as tmp:
+            raw_file = os.path.join(tmp, WEIGHTS_FILE)
+            manifest['weights'], manifest['size'] = write_weights_file(raw_file, model.get_weights())
+            manifest['shards'] = write_shards(path, raw_file, manifest['size'])
+    else:
+        raise ValueError('Unknown classifier format: ' + artifact_format)
+
+    with open(os.path.join(path, MANIFEST_FILE), 'w') as f:
+        json.dump(manifest, f)
+
+def load(path, cache_dir=None):
+    """Rebuilds the classifier model saved by save. The returned model exposes the tokenizer the
+    same way a loaded SavedModel does. The pretrained BERT model is looked up in the given cache
+    directory of the loading machine, the classifier may have been trained elsewhere."""
+    from BertModelType import BertModelType
+    from BertEmbedder import BertEmbedder
+    from BertClassifier import BertClassifier
+
+    with open(os.path.join(path, MANIFEST_FILE)) as f:
+        manifest = json.load(f)
+
+    if 'bert_model_dir' in manifest:
+        # self-contained classifier, the architecture is built from the stored configuration and
+        # the pruning structure, if any, the weights are set below
+        import Pruning
+        embedder = Pruning.load_embedder(os.path.join(path, manifest['bert_model_dir']), manifest['max_seq_length'],
+            manifest.get('pruning'))
+    else:
+        model_type = BertModelType.from_key(manifest['bert_model_type_key'])
+        embedder = BertEmbedder.from_pretrained(model_type, manifest['bert_model_handle'], '',
+            max_seq_length=manifest['max_seq_length'], cache_dir=cache_dir,
+            adapter_rank=manifest.get('adapter_rank', 0), adapter_alpha=manifest.get('adapter_alpha'))
+    classifier = BertClassifier(embedder=embedder, class_count=manifest['class_count'],
+        multi_label=manifest['multi_label'])
+
+    artifact_format = manifest['format']
+    if artifact_format == FORMAT_SHARED_BACKBONE:
+        load_shared_backbone(path, manifest, classifier.model, embedder.bert_layer, cache_dir)
+    elif artifact_format == FORMAT_COMPACT:
+        with open(os.path.join(path, WEIGHTS_FILE), 'rb') as f:
+            buffer = f.read()
+        classifier.model.set_weights(view_weights(buffer, manifest['weights']))
+    elif artifact_format == FORMAT_COMPRESSED:
+        buffer = read_shards(path, manifest['shards'], manifest['size'])
+        classifier.model.set_weights(view_weights(buffer, manifest['weights']))
+    elif artifact_format == FORMAT_ADAPTERS:
+        LoraAdapters.set_weights(embedder.bert_layer, load_weights(os.path.join(path, ADAPTER_WEIGHTS_FILE)))
+        LoraAdapters.merge(embedder.bert_layer)
+        set_head_weights(classifier.model, embedder.bert_layer, load_weights(os.path.join(path, HEAD_WEIGHTS_FILE)))
+    else:
+        raise ValueError('Unknown classifier format: ' + artifact_format)
+
+    embedder.tokenizer.save_to(classifier.model)
+    return classifier.model
+
+def load_shared_backbone(path, manifest, model, bert_layer, cache_dir):
+    # the hash of the weights loaded from the same cached files is computed once per kernel
+    key = ('backbone_sha256', manifest['bert_model_type_key'], manifest['bert_model_handle'], cache_dir)
+    if ModelCache.get_keyed(key, lambda: weights_hash(bert_layer.get_weights())) != manifest['backbone_sha256']:
+        raise ValueError('The weights of ' + manifest['bert_model_handle'] + ' differ from the BERT weights '
+            + 'the classifier was trained with')
+
+    set_head_weights(model, bert_layer, load_weights(os.path.join(path, HEAD_WEIGHTS_FILE)))
+
+def get_head_weights(model, bert_layer):
+    return [w for layer in model.layers if layer is not bert_layer for w in layer.get_weights()]
+
+def set_head_weights(model, bert_layer, weights):
+    head_weights = iter(weights)
+    for layer in model.layers:
+        if layer is not bert_layer and layer.weights:
+            layer.set_weights([next(head_weights) for _ in layer.weights])
@@ -0,0 +1,70 @@
+import collections
+import math
+
+import pandas as pd
+import knime.scripting.io as knio
+
+# Reads the input tables of several coalesced requests as one table whose batches span the tables,
+# so that the requests of small tables are computed together in full batches, and splits the
+# outputs by table again. The output batches have to be appended in the order of the input batches.
+
+class CoalescedBatch:
+    def __init__(self, frame):
+        self.frame = frame
+
+    def to_pandas(self):
+        return self.frame
+
+class CoalescedTable:
+    def __init__(self, tables, chunk_size):
+        self.tables = tables
+        self.chunk_size = chunk_size
+        self.num_rows = sum(table.num_rows for table in tables)
+        self.num_batches = max(1, math.ceil(self.num_rows / chunk_size))
+        # (table index, original index) of the parts of every batch that is not written yet
+        self.segments = collections.deque()
+
+    def batches(self):
+        frames = []
+        parts = []
+        rows = 0
+        for table_index, table in enumerate(self.tables):
+            for batch in table.batches():
+                frame = batch.to_pandas()
+                frames.append(frame)
+                parts.append((table_index, frame.index))
+                rows += len(frame)
+                if rows >= self.chunk_size:
+                    yield self._create_batch(frames, parts)
+                    frames, parts, rows = [], [], 0
+        if frames:
+            yield self._create_batch(frames, parts)
+
+    def _create_batch(self, frames, parts):
+        # the row keys of different tables may collide, the batch is indexed by position
+        self.segments.append(parts)
+        return CoalescedBatch(pd.concat(frames, ignore_index=True))
+
+def read_frames(table):
+    """Reads the frames of a knio or coalesced input table without preparing the outputs, e.g. for
+    an extra pass over the rows before the batches are computed."""
+    tables = table.tables if isinstance(table, CoalescedTable) else [table]
+    for t in tables:
+        for batch in t.batches():
+            yield batch.to_pandas()
+
+class CoalescedOutput:
+    def __init__(self, coalesced_table):
+        self.segments = coalesced_table.segments
+        self.tables = [knio.BatchOutputTable.create() for _ in coalesced_table.tables]
+        for i, table in enumerate(self.tables):
+            knio.output_tables[i] = table
+
+    def append(self, frame):
+        """Splits the output of a coalesced batch by table and restores the original row keys."""
+        start = 0
+        for table_index, index in self.segments.popleft():
+            part = frame.iloc[start:start + len(index)].copy()
+            part.index = index
+            self.tables[table_index].append(part)
+            start += len(index)
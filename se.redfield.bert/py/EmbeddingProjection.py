@@ -0,0 +1,84 @@
+import os
+import numpy as np
+
+class EmbeddingProjection:
+    """Reduces the dimensionality of the embeddings before they are written to the output table."""
+    def transform(self, embeddings):
+        raise NotImplementedError()
+
+    def needs_fit(self):
+        """Whether the projection has to be fitted on a sample of the embeddings before the first
+        chunk is transformed."""
+        return False
+
+    @classmethod
+    def create(cls, dimension_reduction, reduced_dimensions, pca_sample_size=10000, projection_file=None, fit_projection=True):
+        if(dimension_reduction == 'truncate'):
+            return TruncateProjection(reduced_dimensions)
+        elif(dimension_reduction == 'pca'):
+            return PcaProjection(reduced_dimensions, pca_sample_size, projection_file, fit_projection)
+        else:
+            return None
+
+class TruncateProjection(EmbeddingProjection):
+    """Keeps the leading dimensions only. Intended for models trained with the Matryoshka
+    representation learning, where the leading dimensions carry most of the information."""
+    def __init__(self, dimensions):
+        self.dimensions = dimensions
+
+    def transform(self, embeddings):
+        return embeddings[:, :self.dimensions]
+
+class PcaProjection(EmbeddingProjection):
+    """PCA projection fitted on a sample of the rows of the whole table, or loaded from a previously
+    saved file."""
+    def __init__(self, dimensions, sample_size, file=None, fit=True):
+        self.dimensions = dimensions
+        self.sample_size = sample_size
+        self.file = file
+        self.mean = None
+        self.components = None
+
+        if(not fit):
+            self.load(file)
+
+    def needs_fit(self):
+        return self.components is None
+
+    def sample_positions(self, num_rows):
+        """The sorted positions of the rows the projection is fitted on, drawn uniformly from all the
+        rows of the table."""
+        count = min(self.sample_size, num_rows)
+        if(self.dimensions > count):
+            raise ValueError('Can not fit %d PCA components on a table with %d rows' % (self.dimensions, num_rows))
+        return np.sort(np.random.default_rng(0).choice(num_rows, count, replace=False))
+
+    def fit(self, sample):
+        if(self.dimensions > min(sample.shape)):
+            raise ValueError('Can not fit %d PCA components on a sample of %d rows with %d dimensions'
+                % (self.dimensions, sample.shape[0], sample.shape[1]))
+
+        sample = sample.astype(np.float64)
+        self.mean = sample.mean(axis=0)
+        _, _, vt = np.linalg.svd(sample - self.mean, full_matrices=False)
+        self.components = vt[:self.dimensions]
+
+        if(self.file):
+            self.save(self.file)
+
+    def transform(self, embeddings):
+        return ((embeddings - self.mean) @ self.components.T).astype(embeddings.dtype)
+
+    def save(self, file):
+        with open(file, 'wb') as f:
+            np.savez(f, mean=self.mean, components=self.components)
+
+    def load(self, file):
+        if(not file or not os.path.exists(file)):
+            raise ValueError('Projection file does not exist: ' + str(file))
+        with np.load(file) as data:
+            self.mean = data['mean']
+            self.components = data['components']
+        if(self.components.shape[0] != self.dimensions):
+            raise ValueError('The projection in %s has %d dimensions, %d expected'
+                % (file, self.components.shape[0], self.dimensions))
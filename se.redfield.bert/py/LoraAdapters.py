@@ -0,0 +1,97 @@
+import tensorflow as tf
+
+# Low-rank adapters (LoRA) for the attention projections of Hugging Face models. The pretrained
+# projection kernel W stays frozen and only the product A * B of two small matrices is trained,
+# the adapted projection computing x * (W + scale * A * B).
+TARGET_PROJECTIONS = ['query', 'value', 'q_lin', 'v_lin']
+
+class LoraDense(tf.keras.layers.Layer):
+    def __init__(self, dense, rank, alpha, **kwargs):
+        super().__init__(name=dense.name + '_lora', **kwargs)
+        self.dense = dense
+        self.rank = rank
+        self.scale = alpha / rank
+        self.merged = False
+        self.lora_a = tf.keras.layers.Dense(rank, use_bias=False, name='lora_a',
+            kernel_initializer=tf.keras.initializers.HeUniform())
+        self.lora_b = tf.keras.layers.Dense(dense.units, use_bias=False, name='lora_b',
+            kernel_initializer='zeros')
+
+    def call(self, inputs):
+        output = self.dense(inputs)
+        if(self.merged):
+            return output
+        return output + self.scale * self.lora_b(self.lora_a(inputs))
+
+    def get_adapter_weights(self):
+        return self.lora_a.get_weights() + self.lora_b.get_weights()
+
+    def set_adapter_weights(self, weights):
+        self.lora_a.set_weights(weights[:1])
+        self.lora_b.set_weights(weights[1:])
+
+    def merge(self):
+        """Folds the adapter into the projection kernel, so that inference costs the same as
+        without the adapter. The adapter can't be trained any further afterwards."""
+        delta = tf.matmul(self.lora_a.kernel, self.lora_b.kernel) * self.scale
+        self.dense.kernel.assign_add(tf.cast(delta, self.dense.kernel.dtype))
+        self.merged = True
+
+def is_supported(bert_layer):
+    return bert_layer.__class__.__module__.startswith('transformers')
+
+def inject(bert_layer, rank=8, alpha=None):
+    """Wraps the attention projections of the BERT layer into adapters. Has to be called before
+    the layer is used to build a model. Returns the adapters."""
+    if alpha is None:
+        alpha = 2 * rank
+    if not is_supported(bert_layer):
+        raise ValueError('Low-rank adapters are only supported for Hugging Face models')
+
+    adapters = []
+    for module in list(bert_layer.submodules):
+        if isinstance(module, LoraDense):
+            continue
+        for name in TARGET_PROJECTIONS:
+            dense = getattr(module, name, None)
+            if isinstance(dense, tf.keras.layers.Dense):
+                adapter = LoraDense(dense, rank, alpha)
+                setattr(module, name, adapter)
+                adapters.append(adapter)
+    if not adapters:
+        raise ValueError('No attention layers to attach the adapters to were found in '
+            + bert_layer.__class__.__name__)
+
+    freeze_base(bert_layer, adapters)
+    return adapters
+
+def freeze_base(bert_layer, adapters):
+    """Freezes every weight of the BERT layer except the adapter matrices. Freezing a Keras layer
+    freezes all its sublayers, so only the sublayers without adapters inside are frozen."""
+    trainable = set()
+    for adapter in adapters:
+        trainable.update(id(l) for l in (adapter.lora_a, adapter.lora_b))
+
+    for layer in bert_layer.submodules:
+        if not isinstance(layer, tf.keras.layers.Layer) or id(layer) in trainable:
+            continue
+        contains_adapter = any(isinstance(m, LoraDense) for m in [layer] + list(layer.submodules))
+        if not contains_adapter:
+            layer.trainable = False
+
+def get_adapters(bert_layer):
+    return [m for m in bert_layer.submodules if isinstance(m, LoraDense)]
+
+def get_weights(bert_layer):
+    return [w for adapter in get_adapters(bert_layer) for w in adapter.get_adapter_weights()]
+
+def set_weights(bert_layer, weights):
+    adapters = get_adapters(bert_layer)
+    if len(weights) != 2 * len(adapters):
+        raise ValueError('The adapter weights do not match the BERT model')
+    for i, adapter in enumerate(adapters):
+        adapter.set_adapter_weights(weights[2 * i:2 * i + 2])
+
+def merge(bert_layer):
+    for adapter in get_adapters(bert_layer):
+        adapter.merge()
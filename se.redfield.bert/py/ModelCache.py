@@ -0,0 +1,52 @@
+import os
+from collections import OrderedDict
+
+import tensorflow as tf
+
+import ClassifierArtifact
+
+# Objects loaded by this kernel, keyed by the source path and its modification time, or by the
+# arguments a pretrained model is loaded with. The Predictor and the Embedder keep the kernel of a
+# model alive between executions (see BertKernelPool.release), and the shared inference kernels live
+# as long as their model is used, so repeated executions with the same model find it here.
+_cache = OrderedDict()
+MAX_ENTRIES = 4
+
+def get_modification_time(path):
+    """Latest modification time of the path and the files a saved model consists of."""
+    candidates = [path, os.path.join(path, 'saved_model.pb'), os.path.join(path, 'variables', 'variables.index'),
+        os.path.join(path, ClassifierArtifact.MANIFEST_FILE)]
+    return max(os.path.getmtime(p) for p in candidates if os.path.exists(p))
+
+def get(kind, path, factory):
+    """Returns the object of the given kind previously created for the path, or creates it with
+    the factory if the path was not seen yet or was modified since."""
+    path = os.path.abspath(path)
+    key = (kind, path, get_modification_time(path))
+    if key not in _cache:
+        for stale in [k for k in _cache if k[0] == kind and k[1] == path]:
+            del _cache[stale]
+    return get_keyed(key, factory)
+
+def get_keyed(key, factory):
+    """Returns the object previously created for the key, or creates it with the factory."""
+    if key in _cache:
+        _cache.move_to_end(key)
+        return _cache[key]
+
+    value = factory()
+    _cache[key] = value
+    while len(_cache) > MAX_ENTRIES:
+        _cache.popitem(last=False)
+    return value
+
+def load_model(file_store, model_cache_dir=None):
+    """Loads the Keras model saved into the classifier file store. The model cache directory is the
+    one of this machine, the classifiers that reference the pretrained BERT model are rebuilt from it."""
+    return get('keras_model', file_store, lambda: read_model(file_store, model_cache_dir))
+
+def read_model(file_store, model_cache_dir=None):
+    """Loads a new instance of the model bypassing the cache, e.g. to modify it."""
+    if ClassifierArtifact.is_artifact(file_store):
+        return ClassifierArtifact.load(file_store, model_cache_dir)
+    return tf.keras.models.load_model(file_store)
@@ -0,0 +1,83 @@
+import queue
+import threading
+import time
+
+# Overlaps the preparation of the next chunks of a table (reading them from KNIME and tokenization)
+# with the inference on the current chunk. TensorFlow releases the GIL while it computes, so the
+# preparation thread runs mostly in parallel.
+QUEUE_SIZE = 2
+
+_DONE = object()
+
+class Pipeline:
+    def __init__(self, queue_size=QUEUE_SIZE):
+        self.queue_size = queue_size
+        self.busy = {}
+        self.waiting = 0.0
+        self.elapsed = 0.0
+
+    def timed(self, stage, fn, *args, **kwargs):
+        """Calls fn and adds the time it took to the busy time of the stage."""
+        start = time.perf_counter()
+        try:
+            return fn(*args, **kwargs)
+        finally:
+            self.busy[stage] = self.busy.get(stage, 0.0) + time.perf_counter() - start
+
+    def run(self, items, prepare, process):
+        """Calls process with prepare(item) for every item in order. prepare runs in a background
+        thread and stays at most queue_size items ahead, which bounds the memory use. Exceptions of
+        either stage are raised in the calling thread."""
+        prepared_items = queue.Queue(self.queue_size)
+        stop = threading.Event()
+        errors = []
+
+        def put(value):
+            while not stop.is_set():
+                try:
+                    prepared_items.put(value, timeout=0.1)
+                    return True
+                except queue.Full:
+                    pass
+            return False
+
+        def produce():
+            try:
+                for item in items:
+                    if not put(prepare(item)):
+                        return
+            except BaseException as e:
+                errors.append(e)
+            put(_DONE)
+
+        start = time.perf_counter()
+        producer = threading.Thread(target=produce, name='BERT pipeline', daemon=True)
+        producer.start()
+        try:
+            while True:
+                wait_start = time.perf_counter()
+                prepared = prepared_items.get()
+                self.waiting += time.perf_counter() - wait_start
+                if prepared is _DONE:
+                    break
+                process(prepared)
+            if errors:
+                raise errors[0]
+        finally:
+            stop.set()
+            producer.join()
+            self.elapsed = time.perf_counter() - start
+            self.report()
+
+    def utilization(self):
+        """Returns the share of the elapsed time every stage was busy. The stage close to 100% is
+        the bottleneck."""
+        if self.elapsed <= 0:
+            return {}
+        return {stage: busy / self.elapsed for stage, busy in self.busy.items()}
+
+    def report(self):
+        stages = ', '.join('{} {:.0f}%'.format(stage, 100 * share) for stage, share in self.utilization().items())
+        print('')
+        print('stats: pipeline {:.1f} s, {}, waited {:.1f} s for prepared chunks'.format(
+            self.elapsed, stages, self.waiting))
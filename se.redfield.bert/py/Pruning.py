@@ -0,0 +1,250 @@
+import json
+import numpy as np
+import pandas as pd
+import tensorflow as tf
+import knime.scripting.io as knio
+from transformers import AutoConfig, AutoTokenizer, TFAutoModel
+
+from BertEmbedder import BertEmbedder
+from BertClassifier import BertClassifier
+from BertDistiller import SOFT_LABELS_COLUMN, agreement, measure, one_hot_argmax
+from BertTokenizer import HFTokenizerWrap
+from ProgressCallback import ProgressCallback
+from bert_utils import find_bert_layer
+import ClassifierArtifact
+import LoraAdapters
+import ModelCache
+
+# Structured pruning of the attention heads and the layers of Hugging Face BERT-like models. The
+# pruning structure lists the original indices of the kept layers and, for each of them, of the
+# kept heads, so that it can be applied again to the freshly built model when the classifier is
+# loaded.
+
+def get_encoder_layers(bert_layer):
+    encoder = getattr(bert_layer, 'encoder', None)
+    layers = getattr(encoder, 'layer', None)
+    if not layers or not hasattr(layers[0], 'attention') or not hasattr(layers[0].attention, 'self_attention'):
+        raise ValueError('Pruning is only supported for BERT-like Hugging Face models, not for '
+            + bert_layer.__class__.__name__)
+    return list(layers)
+
+def unwrap(dense):
+    """Returns the projection the low-rank adapter wraps, with the adapter merged into it."""
+    if isinstance(dense, LoraAdapters.LoraDense):
+        if not dense.merged:
+            dense.merge()
+        return dense.dense
+    return dense
+
+def get_structure(bert_layer):
+    if hasattr(bert_layer, 'pruning_structure'):
+        return json.loads(bert_layer.pruning_structure)
+    layers = get_encoder_layers(bert_layer)
+    return {
+        'layers': list(range(len(layers))),
+        'heads': [list(range(layer.attention.self_attention.num_attention_heads)) for layer in layers]
+    }
+
+def create_dense(dense, kernel, bias):
+    result = tf.keras.layers.Dense(kernel.shape[1], activation=dense.activation, name=dense.name)
+    result.build((None, kernel.shape[0]))
+    result.set_weights([kernel, bias])
+    return result
+
+def prune_heads(layer, head_positions):
+    """Keeps only the given heads of the layer. All the projections are replaced even if no head
+    is removed, which keeps the order of the weights independent of the pruning history."""
+    self_attention = layer.attention.self_attention
+    output = layer.attention.dense_output
+    head_size = self_attention.attention_head_size
+    columns = np.concatenate([np.arange(p * head_size, (p + 1) * head_size) for p in head_positions])
+
+    for name in ['query', 'key', 'value']:
+        dense = unwrap(getattr(self_attention, name))
+        kernel, bias = dense.get_weights()
+        setattr(self_attention, name, create_dense(dense, kernel[:, columns], bias[columns]))
+    dense = unwrap(output.dense)
+    kernel, bias = dense.get_weights()
+    output.dense = create_dense(dense, kernel[columns], bias)
+
+    self_attention.num_attention_heads = len(head_positions)
+    self_attention.all_head_size = len(head_positions) * head_size
+
+def apply(bert_layer, structure):
+    """Removes the layers and heads the structure does not keep. Has to be called before the layer
+    is used to build a model."""
+    current = get_structure(bert_layer)
+    layers = get_encoder_layers(bert_layer)
+    kept = []
+    for layer_index, heads in zip(structure['layers'], structure['heads']):
+        position = current['layers'].index(layer_index)
+        prune_heads(layers[position], [current['heads'][position].index(h) for h in heads])
+        kept.append(layers[position])
+    bert_layer.encoder.layer = kept
+    bert_layer.pruning_structure = json.dumps(structure)
+
+def compute_importance(model, bert_layer, inputs, predictions, batch_size, multi_label, progress_logger):
+    """Estimates how much the loss would change if a head or the feed-forward part of a layer were
+    removed, using the first-order approximation |<W, dL/dW>| over the rows of the output projection
+    the head (or the feed-forward part) contributes. The loss is measured against the classes the
+    model predicts: against its own probabilities the gradient of the cross-entropy would be zero."""
+    layers = get_encoder_layers(bert_layer)
+    head_outputs = [unwrap(layer.attention.dense_output.dense) for layer in layers]
+    ffn_outputs = [unwrap(layer.bert_output.dense) for layer in layers]
+    kernels = [d.kernel for d in head_outputs] + [d.kernel for d in ffn_outputs]
+    head_counts = [layer.attention.self_attention.num_attention_heads for layer in layers]
+
+    head_scores = [np.zeros(count) for count in head_counts]
+    ffn_scores = np.zeros(len(layers))
+    loss_fn = tf.keras.losses.BinaryCrossentropy() if multi_label else tf.keras.losses.CategoricalCrossentropy()
+    if(multi_label):
+        targets = (predictions > 0.5).astype(np.float32)
+    else:
+        targets = one_hot_argmax(predictions)
+
+    count = len(inputs[0])
+    for batch, start in enumerate(range(0, count, batch_size)):
+        end = min(start + batch_size, count)
+        with tf.GradientTape() as tape:
+            tape.watch(kernels)
+            output = model([x[start:end] for x in inputs], training=False)
+            loss = loss_fn(targets[start:end], output)
+        gradients = tape.gradient(loss, kernels)
+
+        for i, kernel in enumerate(kernels[:len(layers)]):
+            contribution = (kernel * gradients[i]).numpy().reshape(head_counts[i], -1).sum(axis=1)
+            head_scores[i] += np.abs(contribution)
+        for i, kernel in enumerate(kernels[len(layers):]):
+            ffn_scores[i] += abs(float(tf.reduce_sum(kernel * gradients[len(layers) + i])))
+        progress_logger.on_predict_batch_end(batch)
+
+    if(not ffn_scores.any() and not any(scores.any() for scores in head_scores)):
+        raise ValueError('All the importance scores are zero, the heads and layers to remove cannot be chosen')
+    return head_scores, ffn_scores
+
+def plan(bert_layer, head_scores, ffn_scores, target_fraction):
+    """Greedily removes the heads or layers with the lowest importance per parameter until the
+    encoder parameters fit into the target fraction. Returns the pruning structure."""
+    layers = get_encoder_layers(bert_layer)
+    hidden = layers[0].attention.dense_output.dense.units
+    head_sizes = [layer.attention.self_attention.attention_head_size for layer in layers]
+    head_costs = [4 * hidden * d + 3 * d for d in head_sizes]
+    layer_costs = [layer.count_params() for layer in layers]
+    fixed_costs = [cost - len(scores) * head_cost for cost, scores, head_cost in zip(layer_costs, head_scores, head_costs)]
+
+    kept = {i: set(range(len(scores))) for i, scores in enumerate(head_scores)}
+    def size(i):
+        return fixed_costs[i] + len(kept[i]) * head_costs[i]
+
+    total = sum(layer_costs)
+    target = total * target_fraction
+    current = total
+    while current > target:
+        candidates = []
+        if len(kept) > 1:
+            for i in kept:
+                score = ffn_scores[i] + sum(head_scores[i][h] for h in kept[i])
+                candidates.append((score / size(i), i, None))
+        for i in kept:
+            if len(kept[i]) > 1:
+                candidates.extend((head_scores[i][h] / head_costs[i], i, h) for h in kept[i])
+        if not candidates:
+            break
+
+        _, i, h = min(candidates, key=lambda c: c[0])
+        if h is None:
+            current -= size(i)
+            del kept[i]
+        else:
+            current -= head_costs[i]
+            kept[i].remove(h)
+
+    structure = get_structure(bert_layer)
+    return {
+        'layers': [structure['layers'][i] for i in sorted(kept)],
+        'heads': [[structure['heads'][i][h] for h in sorted(kept[i])] for i in sorted(kept)]
+    }
+
+def load_embedder(model_dir, max_seq_length, structure=None):
+    """Builds the embedder from the model configuration and the tokenizer stored with a compact
+    or a pruned classifier. The weights are set afterwards."""
+    config = AutoConfig.from_pretrained(model_dir)
+    auto_model = TFAutoModel.from_config(config)
+    auto_model(auto_model.dummy_inputs)
+    bert_layer = auto_model.layers[0]
+    if structure:
+        apply(bert_layer, structure)
+    tokenizer = HFTokenizerWrap(AutoTokenizer.from_pretrained(model_dir), config, max_seq_length, '')
+    return BertEmbedder(bert_layer, tokenizer)
+
+def run_prune(
+    input_table: knio.Table,
+    source_file_store,
+    bert_model_type_key,
+    sentence_column,
+    class_count,
+    file_store,
+    optimizer,
+    max_seq_length = 128,
+    batch_size = 20,
+    target_size = 0.5,
+    epochs = 1,
+    multi_label = False,
+    model_cache_dir = None
+):
+    """Prunes the classifier to the target fraction of the encoder parameters based on the importance
+    measured on the input table, optionally trains the pruned classifier to reproduce the predictions
+    of the original one, and compares both."""
+    table = input_table.to_pandas()
+    if(bert_model_type_key != 'HUGGING_FACE'):
+        raise ValueError('Pruning is only supported for Hugging Face models')
+
+    # a separate instance, the pruning modifies the model in place
+    model = ModelCache.read_model(source_file_store, model_cache_dir)
+    tokenizer = HFTokenizerWrap.from_saved_model(model, sentence_column, max_seq_length=max_seq_length)
+    original = BertClassifier(tokenizer=tokenizer, model=model)
+    bert_layer = find_bert_layer(model)
+    original_structure = get_structure(bert_layer)
+    original_params = bert_layer.count_params()
+
+    original_output, original_latency, progress = measure(original, table, batch_size, 0)
+
+    inputs = tokenizer.tokenize(table, None)
+    importance_progress = ProgressCallback(len(table), predict=True, batch_size=batch_size,
+        initial_progress=progress, subprogress_factor=0.3)
+    head_scores, ffn_scores = compute_importance(model, bert_layer, inputs, original_output, batch_size, multi_label,
+        importance_progress)
+    structure = plan(bert_layer, head_scores, ffn_scores, target_size)
+
+    head_weights = ClassifierArtifact.get_head_weights(model, bert_layer)
+    apply(bert_layer, structure)
+    bert_layer.trainable = True
+    pruned = BertClassifier(embedder=BertEmbedder(bert_layer, tokenizer), class_count=class_count, multi_label=multi_label)
+    ClassifierArtifact.set_head_weights(pruned.model, bert_layer, head_weights)
+
+    progress = importance_progress.last_progress
+    if(epochs > 0):
+        train_table = table.copy()
+        train_table[SOFT_LABELS_COLUMN] = list(original_output)
+        progress_logger = ProgressCallback(len(table), train=True, batch_size=batch_size, epochs_count=epochs,
+            initial_progress=progress, subprogress_factor=0.5)
+        pruned.train(train_table, SOFT_LABELS_COLUMN, batch_size, epochs, optimizer, progress_logger, fine_tune_bert=True)
+        progress = progress_logger.last_progress
+
+    pruned.save_artifact(file_store, ClassifierArtifact.FORMAT_COMPACT, {
+        'bert_model_type_key': bert_model_type_key,
+        'pruning': structure,
+        'max_seq_length': max_seq_length,
+        'class_count': class_count
+    })
+
+    pruned_output, pruned_latency, _ = measure(pruned, table, batch_size, progress)
+    knio.output_tables[0] = knio.Table.from_pandas(pd.DataFrame({
+        'Model': ['Original', 'Pruned'],
+        'Layers': [len(original_structure['layers']), len(structure['layers'])],
+        'Attention heads': [sum(map(len, original_structure['heads'])), sum(map(len, structure['heads']))],
+        'BERT parameters': [original_params, bert_layer.count_params()],
+        'Latency per row (ms)': [original_latency * 1000, pruned_latency * 1000],
+        'Speedup': [1.0, original_latency / pruned_latency if pruned_latency > 0 else float('nan')],
+        'Agreement with original': [1.0, agreement(original_output, pruned_output, multi_label)]
+    }))
@@ -4,6 +4,7 @@ import numpy as np
 import knime.scripting.io as knio
 from transformers import TFAutoModelForSequenceClassification, AutoTokenizer
 from ProgressCallback import ProgressCallback
+from bert_utils import prediction_table
 
 
 
@@ -37,7 +38,7 @@ class ZeroShotTextClassifier:
             candidate_labels : A list of labels to use for prediction.
         
         Return 
-            output_table : A dataFrame that contains the senetence_column and the model predictions.
+            predictions : An array with the probability of every candidate label for every sentence.
         """
         
         sequence_pairs = []
@@ -81,8 +82,7 @@ class ZeroShotTextClassifier:
             probabilities = tf.nn.softmax(entail_contra_logits)
             predictions = probabilities[..., 1].numpy().astype('float64')
 
-        output_table = pd.DataFrame(predictions, index=input_table.index)    
-        return output_table     
+        return predictions
         
 
     @classmethod
@@ -95,12 +95,26 @@ class ZeroShotTextClassifier:
                  bert_model_type_key,
                  cache_dir=None,
                  multi_label=False,
-                 batch_size=20):
+                 batch_size=20,
+                 prediction_column='Prediction',
+                 prediction_threshold=None,
+                 prediction_top_k=None,
+                 class_separator=',',
+                 probability_columns=None,
+                 top_classes_column=None,
+                 top_probabilities_column=None,
+                 top_probabilities_count=5,
+                 sparse_probabilities_column=None,
+                 sparse_probabilities_epsilon=0.01):
                  
         input_table = input_table.to_pandas()
         model = TFAutoModelForSequenceClassification.from_pretrained(bert_model_handle, cache_dir = cache_dir)
         tokenizer = AutoTokenizer.from_pretrained(bert_model_handle, cache_dir = cache_dir)
         classifier = ZeroShotTextClassifier(model, tokenizer, multi_label, hypothesis)
-        output_table  = classifier.predict(input_table, sentence_column, candidate_labels, batch_size) 
+        predictions = classifier.predict(input_table, sentence_column, candidate_labels, batch_size)
+        output_table = prediction_table(predictions, input_table.index, candidate_labels, prediction_column,
+            prediction_threshold, prediction_top_k, class_separator, probability_columns,
+            top_classes_column, top_probabilities_column, top_probabilities_count,
+            sparse_probabilities_column, sparse_probabilities_epsilon)
 
         knio.output_tables[0] = knio.Table.from_pandas(output_table)
@@ -2,6 +2,7 @@ import pandas as pd
 import numpy as np
 import tensorflow_hub as hub
 import os
+import json
 from transformers import TFAutoModel
 
 def load_bert_layer(bert_model_handle, tfhub_cache_dir=None):
@@ -13,19 +14,69 @@ def load_hf_bert_layer(bert_model_handle, tfhub_cache_dir=None):
     auto_model = TFAutoModel.from_pretrained(bert_model_handle, cache_dir=tfhub_cache_dir)
     return auto_model.layers[0]
 
-def compute_predictions(output_propabilities, classes, multi_label, threshold = None):
-    if(multi_label or threshold is not None):
-        return compute_predictions_with_threshold(output_propabilities, classes, threshold)
+def find_bert_layer(model):
+    """Returns the BERT layer of a classifier model, which is the layer holding by far the most weights.
+    Unlike a fixed layer index this does not depend on how the model was built."""
+    return max(model.layers, key=lambda layer: len(layer.weights))
+
+def compute_predictions(probabilities, classes, threshold=None, top_k=None, separator=','):
+    """Computes the predicted classes of every row: the top_k most probable classes if top_k is set,
+    the classes with a probability above the threshold if the threshold is set, the most probable
+    class otherwise. Multiple classes are joined with the separator."""
+    classes = np.asarray(classes, dtype=object)
+    if(top_k is not None):
+        # stable sort keeps the class order for equal probabilities
+        top = np.argsort(-probabilities, axis=1, kind='stable')[:, :top_k]
+        return [separator.join(row) for row in classes[top]]
+    elif(threshold is not None):
+        return [separator.join(row) for row in map(classes.__getitem__, probabilities > threshold)]
     else:
-        return [classes[idx] for idx in output_propabilities.argmax(axis=1)]
+        return classes[probabilities.argmax(axis=1)].tolist()
 
-def compute_predictions_with_threshold(output_propabilities, classes, threshold = None):
-    if(threshold is None):
-        threshold = 0.5
-    classes = pd.Series(classes)
+def top_probabilities(probabilities, count):
+    """Returns the indices and the probabilities of the count most probable classes of every row,
+    in descending order. Only the selected classes are sorted."""
+    count = min(count, probabilities.shape[1])
+    top = np.argpartition(-probabilities, count - 1, axis=1)[:, :count]
+    values = np.take_along_axis(probabilities, top, axis=1)
+    order = np.argsort(-values, axis=1, kind='stable')
+    return np.take_along_axis(top, order, axis=1), np.take_along_axis(values, order, axis=1)
 
-    return np.apply_along_axis(lambda x: compute_classes_for_row(x, classes, threshold), 1, output_propabilities)
+def sparse_probabilities(probabilities, classes, epsilon):
+    """Returns the probabilities above epsilon of every row as a JSON object keyed by class."""
+    return [json.dumps({classes[i]: float(row[i]) for i in np.flatnonzero(row > epsilon)}) for row in probabilities]
 
-def compute_classes_for_row(row, classes, threshold):
-    return np.asarray(classes[row > threshold].str.cat(sep=','), dtype=object)
+def prediction_table(probabilities, index, classes, prediction_column, threshold=None, top_k=None,
+        separator=',', probability_columns=None, top_classes_column=None, top_probabilities_column=None,
+        top_probabilities_count=5, sparse_probabilities_column=None, sparse_probabilities_epsilon=0.01):
+    """Builds the columns the prediction nodes append to the input table: the predicted classes
+    followed by the probabilities of the individual classes, the most probable classes with their
+    probabilities and the sparse probabilities, each if the column names are given."""
+    columns = {prediction_column: compute_predictions(probabilities, classes, threshold, top_k, separator)}
+    if(probability_columns):
+        for name, values in zip(probability_columns, probabilities.T):
+            columns[name] = values.astype('float64')
+    if(top_classes_column):
+        top, values = top_probabilities(probabilities, top_probabilities_count)
+        class_names = np.asarray(classes, dtype=object)
+        columns[top_classes_column] = [row.tolist() for row in class_names[top]]
+        columns[top_probabilities_column] = [row.tolist() for row in values.astype('float64')]
+    if(sparse_probabilities_column):
+        columns[sparse_probabilities_column] = sparse_probabilities(probabilities, classes, sparse_probabilities_epsilon)
+    return pd.DataFrame(columns, index=index)
 
+def aggregate_windows(values, window_rows, row_count, aggregation='mean'):
+    """Aggregates the per-window values into per-row values.
+    window_rows holds the index of the row every window belongs to."""
+    result_shape = (row_count,) + values.shape[1:]
+    if(aggregation == 'max'):
+        result = np.full(result_shape, -np.inf, dtype=values.dtype)
+        np.maximum.at(result, window_rows, values)
+        return result
+    elif(aggregation == 'mean'):
+        result = np.zeros(result_shape, dtype=values.dtype)
+        np.add.at(result, window_rows, values)
+        counts = np.bincount(window_rows, minlength=row_count).reshape((row_count,) + (1,) * (values.ndim - 1))
+        return result / np.maximum(counts, 1)
+    else:
+        raise ValueError('Unsupported window aggregation: ' + str(aggregation))
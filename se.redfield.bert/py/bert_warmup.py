@@ -0,0 +1,17 @@
+# Imported into every kernel of the BERT kernel pool before it is handed out, so that the nodes
+# do not pay for importing TensorFlow, transformers and the BERT modules. Add new modules here.
+# Modules importing knime.scripting.io must not be imported since it has to be imported after the
+# input tables are put.
+import transformers
+import tensorflow_hub
+
+import BertTokenizer
+import BertModelType
+import ProgressCallback
+import bert_utils
+import tensor_utils
+import EmbeddingProjection
+import ModelCache
+import ClassifierArtifact
+import LoraAdapters
+import Pipeline
@@ -0,0 +1,46 @@
+import struct
+import numpy as np
+
+# Binary tensor layout (little-endian):
+#   int32 dtype code, int32 number of dimensions, int32 size of every dimension,
+#   for int8 tensors: float32 scale of every vector along the last dimension,
+#   raw data in row-major order.
+# Original values of an int8 tensor are restored as data * scale.
+DTYPE_CODES = {
+    'float32': 0,
+    'float16': 1,
+    'int8': 2,
+}
+
+def encode_tensor(tensor: np.ndarray, dtype='float32'):
+    """Encodes the tensor into a single contiguous binary blob of the given precision."""
+    header = struct.pack('<' + 'i' * (2 + tensor.ndim), DTYPE_CODES[dtype], tensor.ndim, *tensor.shape)
+    if(dtype == 'int8'):
+        scales, data = quantize(tensor)
+        return header + scales.astype('<f4').tobytes() + data.tobytes()
+    return header + np.ascontiguousarray(tensor, dtype=np.dtype(dtype).newbyteorder('<')).tobytes()
+
+def quantize(tensor: np.ndarray):
+    """Symmetric scalar quantization to int8 with a separate scale for every vector along the last dimension."""
+    scales = np.abs(tensor).max(axis=-1, keepdims=True) / 127
+    scales[scales == 0] = 1
+    data = np.clip(np.rint(tensor / scales), -127, 127).astype(np.int8)
+    return scales.reshape(-1), data
+
+def encode_embeddings(embeddings: np.ndarray, precision='double'):
+    """Encodes every row either as a list of doubles, or as a binary vector of the given precision."""
+    if(precision == 'double'):
+        return embeddings.tolist()
+    return [encode_tensor(vector, precision) for vector in embeddings]
+
+def encode_sequences(sequence_output: np.ndarray, masks: np.ndarray, precision='float32'):
+    """Encodes per-token outputs of every row as a [seq_len x hidden] tensor,
+    with the padding positions trimmed using the attention mask."""
+    if(precision == 'double'):
+        precision = 'float32'
+    lengths = masks.sum(axis=1)
+    return [encode_tensor(sequence[:length], precision) for sequence, length in zip(sequence_output, lengths)]
+
+def l2_normalize(embeddings: np.ndarray):
+    norms = np.linalg.norm(embeddings, axis=-1, keepdims=True)
+    return embeddings / np.maximum(norms, 1e-12)
@@ -18,6 +18,9 @@ package se.redfield.bert;
 import org.eclipse.core.runtime.Plugin;
 import org.osgi.framework.BundleContext;
 
+import se.redfield.bert.core.BertKernelPool;
+import se.redfield.bert.core.SharedInferenceService;
+
 public class BertPlugin extends Plugin {
 	// The shared instance.
 	private static BertPlugin plugin;
@@ -50,6 +53,8 @@ public class BertPlugin extends Plugin {
 	 */
 	@Override
 	public void stop(final BundleContext context) throws Exception {
+		SharedInferenceService.getInstance().shutdown();
+		BertKernelPool.getInstance().shutdown();
 		super.stop(context);
 		plugin = null;
 	}
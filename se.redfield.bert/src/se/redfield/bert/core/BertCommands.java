@@ -15,9 +15,6 @@
  */
 package se.redfield.bert.core;
 
-import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,77 +23,126 @@ import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
 import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.NodeLogger;
 import org.knime.dl.core.DLInvalidEnvironmentException;
 import org.knime.dl.python.util.DLPythonSourceCodeBuilder;
 import org.knime.dl.python.util.DLPythonUtils;
 import org.knime.python2.PythonCommand;
 import org.knime.python2.config.PythonCommandConfig;
-import org.knime.python2.extensions.serializationlibrary.SerializationOptions;
-import org.knime.python2.kernel.PythonCancelable;
-import org.knime.python2.kernel.PythonCanceledExecutionException;
 import org.knime.python2.kernel.PythonExecutionMonitorCancelable;
 import org.knime.python2.kernel.PythonIOException;
 import org.knime.python2.kernel.PythonKernel;
-import org.knime.python2.kernel.PythonKernelBackendRegistry.PythonKernelBackendType;
 import org.knime.python2.kernel.PythonKernelCleanupException;
-import org.knime.python2.kernel.PythonKernelOptions;
-import org.knime.python2.kernel.PythonKernelQueue;
 import org.knime.python2.kernel.PythonOutputListener;
-import org.knime.python3.PythonSourceDirectoryLocator;
-
-import com.google.common.base.Strings;
 
 import se.redfield.bert.nodes.port.BertModelConfig;
 import se.redfield.bert.nodes.port.BertModelType;
+import se.redfield.bert.prefs.BertPreferences;
 import se.redfield.bert.setting.InputSettings;
+import se.redfield.bert.setting.SlidingWindowSettings;
 
 public class BertCommands implements AutoCloseable {
+	private static final NodeLogger LOGGER = NodeLogger.getLogger(BertCommands.class);
 
 	private static final String KNIO_INPUT_TABLE = "knio.input_tables[%d]";
 	private static final String KNIO_OUTPUT_TABLE = "knio.output_tables[%d]";
 
-	private static final int DEFAULT_TABLE_CHUNK_SIZE = 10000;
+	private static final String IMPORT_KNIO = "import knime.scripting.io as knio";
+	private static final String RELOAD_KNIO = "import importlib\n" + IMPORT_KNIO + "\nknio = importlib.reload(knio)";
 
+	private final PythonCommand command;
+	private final String modelKey;
 	private PythonKernel kernel;
 	private ProgressListener progressListener;
+	private boolean knioImported;
+	private boolean failed = false;
+	private int tableChunkSize = TableChunking.DEFAULT_CHUNK_SIZE;
 
 	public BertCommands(PythonCommandConfig config, int numOutputTables) throws DLInvalidEnvironmentException {
-		kernel = createKernel(config.getCommand());
+		this(config.getCommand());
+		setExpectedOutputTables(numOutputTables);
+	}
+
+	/**
+	 * Creates commands whose kernel is kept alive after they are closed, so that
+	 * the next execution with the same model key finds the model already loaded by
+	 * ModelCache.py instead of deserializing it again. The kernel is closed
+	 * instead if anything failed.
+	 * 
+	 * @param config          The Python command config.
+	 * @param numOutputTables The number of output tables.
+	 * @param modelKey        The key identifying the model, e.g. the path of the
+	 *                        classifier file store.
+	 * @throws DLInvalidEnvironmentException
+	 */
+	public BertCommands(PythonCommandConfig config, int numOutputTables, String modelKey)
+			throws DLInvalidEnvironmentException {
+		command = config.getCommand();
+		this.modelKey = modelKey;
+		var resident = BertKernelPool.getInstance().getKernel(command, modelKey);
+		init(resident.getKernel(), resident.isReused());
+		setExpectedOutputTables(numOutputTables);
+	}
+
+	/**
+	 * Creates commands whose kernel may execute several scripts with different
+	 * input tables, see {@link SharedInferenceService}. The kernel is closed with
+	 * the commands.
+	 * 
+	 * @param command The Python command.
+	 * @throws DLInvalidEnvironmentException
+	 */
+	BertCommands(PythonCommand command) throws DLInvalidEnvironmentException {
+		this.command = command;
+		this.modelKey = null;
+		init(createKernel(command), false);
+	}
+
+	private void init(PythonKernel kernel, boolean knioImported) {
+		this.kernel = kernel;
+		this.knioImported = knioImported;
 		progressListener = new ProgressListener();
 		kernel.addStdoutListener(progressListener);
-		kernel.setExpectedOutputTables(new String[numOutputTables]);
 	}
 
+	/**
+	 * Takes a kernel from the {@link BertKernelPool}.
+	 * 
+	 * @param command The Python command.
+	 * @return The kernel with TensorFlow and the BERT modules imported.
+	 * @throws DLInvalidEnvironmentException
+	 */
 	public static PythonKernel createKernel(PythonCommand command) throws DLInvalidEnvironmentException {
-		PythonKernelOptions options = getKernelOptions();
-		try {
-			PythonKernel kernel = PythonKernelQueue.getNextKernel(command, PythonKernelBackendType.PYTHON3,
-					Collections.emptySet(), Collections.emptySet(), options, PythonCancelable.NOT_CANCELABLE);
-			kernel.execute("import tensorflow as tf");
-			kernel.execute(setupPythonPath());
-			return kernel;
-		} catch (PythonIOException e) {
-			final String msg = !Strings.isNullOrEmpty(e.getMessage())
-					? "An error occurred while trying to launch Python: " + e.getMessage()
-					: "An unknown error occurred while trying to launch Python. See log for details.";
-			throw new DLInvalidEnvironmentException(msg, e);
-		} catch (PythonCanceledExecutionException e) {
-			throw new IllegalStateException("Implementation error", e);
-		}
+		return BertKernelPool.getInstance().getKernel(command);
 	}
 
-	private static String setupPythonPath() {
-		DLPythonSourceCodeBuilder b = DLPythonUtils.createSourceCodeBuilder("import sys");
-		Path path = PythonSourceDirectoryLocator.getPathFor(BertCommands.class, "py");
-		b.a("sys.path.append(").asr(path.toString()).a(")").n();
-		return b.toString();
+	/**
+	 * Sets the number of rows per chunk of the tables transferred to and from
+	 * Python. Has to be called before the tables are put.
+	 * 
+	 * @param chunkSize The number of rows per chunk.
+	 * @throws PythonIOException
+	 */
+	public void setTableChunkSize(int chunkSize) throws PythonIOException {
+		LOGGER.debugWithFormat("Table chunk size: %d rows", chunkSize);
+		if (chunkSize != tableChunkSize) {
+			try {
+				kernel.setOptions(BertKernelPool.getKernelOptions(chunkSize));
+			} catch (PythonIOException e) {
+				failed = true;
+				throw e;
+			}
+			tableChunkSize = chunkSize;
+		}
 	}
 
-	private static PythonKernelOptions getKernelOptions() {
-		SerializationOptions serializationOpts = new SerializationOptions().forChunkSize(DEFAULT_TABLE_CHUNK_SIZE);
-
-		return new PythonKernelOptions().forAddedAdditionalRequiredModuleNames(Arrays.asList("bert", "tensorflow_hub"))
-				.forSerializationOptions(serializationOpts);
+	/**
+	 * Sets the number of output tables the next executed script creates.
+	 * 
+	 * @param numOutputTables The number of output tables.
+	 */
+	void setExpectedOutputTables(int numOutputTables) {
+		kernel.setExpectedOutputTables(new String[numOutputTables]);
 	}
 
 	public void putDataTable(BufferedDataTable table, ExecutionMonitor exec)
@@ -107,7 +153,12 @@ public class BertCommands implements AutoCloseable {
 	public void putDataTable(int idx, BufferedDataTable table, ExecutionMonitor exec)
 			throws PythonIOException, CanceledExecutionException {
 		String name = String.format(KNIO_INPUT_TABLE, idx);
-		kernel.putDataTable(name, table, exec);
+		try {
+			kernel.putDataTable(name, table, exec);
+		} catch (PythonIOException | CanceledExecutionException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
 	}
 
 	public BufferedDataTable getDataTable(ExecutionContext exec, ExecutionMonitor monitor)
@@ -118,22 +169,53 @@ public class BertCommands implements AutoCloseable {
 	public BufferedDataTable getDataTable(int idx, ExecutionContext exec, ExecutionMonitor monitor)
 			throws PythonIOException, CanceledExecutionException {
 		String name = String.format(KNIO_OUTPUT_TABLE, idx);
-		return kernel.getDataTable(name, exec, monitor);
+		try {
+			return kernel.getDataTable(name, exec, monitor);
+		} catch (PythonIOException | CanceledExecutionException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
 	}
 
 	public void executeInKernel(String code, ExecutionMonitor exec)
 			throws PythonIOException, CanceledExecutionException {
-		// must be imported after the input tables are put in so that they are wrapped properly
-		kernel.execute("import knime.scripting.io as knio");
-		progressListener.setMonitor(exec);
-		kernel.executeAndCheckOutputs(code, new PythonExecutionMonitorCancelable(exec));
-		progressListener.setMonitor(null);
+		try {
+			// must be imported after the input tables are put in so that they are wrapped properly,
+			// a reused kernel has to reload the module to see the new tables
+			kernel.execute(knioImported ? RELOAD_KNIO : IMPORT_KNIO);
+			knioImported = true;
+			progressListener.setMonitor(exec);
+			kernel.executeAndCheckOutputs(code, new PythonExecutionMonitorCancelable(exec));
+		} catch (PythonIOException | CanceledExecutionException | RuntimeException e) {
+			failed = true;
+			throw e;
+		} finally {
+			progressListener.setMonitor(null);
+		}
 		exec.setProgress(1.0);
 	}
 
+	/**
+	 * Closes the kernel, or hands it back to the {@link BertKernelPool} if the
+	 * commands were created with a model key and nothing failed.
+	 */
 	@Override
 	public void close() throws PythonKernelCleanupException {
-		kernel.close();
+		if (modelKey == null || failed) {
+			kernel.close();
+			return;
+		}
+		kernel.removeStdoutListener(progressListener);
+		try {
+			if (tableChunkSize != TableChunking.DEFAULT_CHUNK_SIZE) {
+				kernel.setOptions(BertKernelPool.getKernelOptions(TableChunking.DEFAULT_CHUNK_SIZE));
+			}
+		} catch (PythonIOException e) {
+			LOGGER.debug("Failed to reset the kernel options", e);
+			kernel.close();
+			return;
+		}
+		BertKernelPool.getInstance().release(command, modelKey, kernel);
 	}
 
 	public static void putInputTableArgs(DLPythonSourceCodeBuilder b) {
@@ -160,6 +242,17 @@ public class BertCommands implements AutoCloseable {
 		b.a("file_store = ").asr(fileStore.getFile().getAbsolutePath()).a(",").n();
 	}
 
+	/**
+	 * Puts the cache directory of this machine, the pretrained BERT model of a
+	 * classifier that references it instead of storing its weights is loaded from
+	 * there.
+	 * 
+	 * @param b The source code builder.
+	 */
+	public static void putClassifierLoadArgs(DLPythonSourceCodeBuilder b) {
+		b.a("model_cache_dir = ").asr(BertPreferences.getCacheDir()).a(",").n();
+	}
+
 	public static void putBatchSizeArgs(DLPythonSourceCodeBuilder b, int batchSize) {
 		b.a("batch_size = ").a(batchSize).a(",").n();
 	}
@@ -171,6 +264,15 @@ public class BertCommands implements AutoCloseable {
 		if (input.getTwoSentenceMode()) {
 			b.a("second_sentence_column = ").as(input.getSecondSentenceColumn()).a(",").n();
 		}
+		putSlidingWindowArgs(b, input.getSlidingWindowSettings());
+	}
+
+	public static void putSlidingWindowArgs(DLPythonSourceCodeBuilder b, SlidingWindowSettings window) {
+		if (window.isEnabled()) {
+			b.a("sliding_window = True,").n();
+			b.a("window_stride = ").a(window.getStride()).a(",").n();
+			b.a("window_aggregation = ").as(window.getAggregation().getKey()).a(",").n();
+		}
 	}
 
 	public static void putSentenceColumArg(DLPythonSourceCodeBuilder b, String sentenceColumn) {
@@ -187,6 +289,7 @@ public class BertCommands implements AutoCloseable {
 
 	private static class ProgressListener implements PythonOutputListener {
 		private static final Pattern PATTERN = Pattern.compile("^progress: (\\d+)");
+		private static final Pattern STATS_PATTERN = Pattern.compile("^stats: (.*)");
 
 		private ExecutionMonitor monitor;
 		private boolean disabled = false;
@@ -202,6 +305,11 @@ public class BertCommands implements AutoCloseable {
 
 		@Override
 		public void messageReceived(String message, boolean isWarningMessage) {
+			Matcher stats = STATS_PATTERN.matcher(message);
+			if (stats.matches()) {
+				LOGGER.debug(stats.group(1));
+				return;
+			}
 			if (monitor != null && !disabled) {
 				Matcher m = PATTERN.matcher(message);
 				if (m.matches()) {
@@ -15,8 +15,18 @@
  */
 package se.redfield.bert.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -25,44 +35,66 @@ import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
 import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.blob.BinaryObjectDataCell;
 import org.knime.core.data.collection.CollectionCellFactory;
 import org.knime.core.data.collection.ListCell;
 import org.knime.core.data.container.AbstractCellFactory;
 import org.knime.core.data.container.CellFactory;
+import org.knime.core.data.container.CloseableRowIterator;
 import org.knime.core.data.container.ColumnRearranger;
 import org.knime.core.data.def.DoubleCell;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
+import org.knime.core.util.FileUtil;
 import org.knime.dl.core.DLInvalidEnvironmentException;
 import org.knime.dl.python.util.DLPythonSourceCodeBuilder;
 import org.knime.dl.python.util.DLPythonUtils;
-import org.knime.python2.kernel.PythonIOException;
 import org.knime.python2.kernel.PythonKernelCleanupException;
 
 import se.redfield.bert.nodes.port.BertClassifierPortObject;
 import se.redfield.bert.nodes.port.BertModelPortObject;
 import se.redfield.bert.nodes.port.BertPortObjectBase;
+import se.redfield.bert.nodes.port.BertPortObjectSpecBase.BertPortObjectType;
 import se.redfield.bert.setting.BertEmbedderSettings;
+import se.redfield.bert.setting.BertEmbedderSettings.EmbeddingPooling;
+import se.redfield.bert.setting.BertEmbedderSettings.EmbeddingsPrecision;
+import se.redfield.bert.setting.BertEmbedderSettings.SequenceEmbeddingsFormat;
+import se.redfield.bert.setting.DimensionReductionSettings;
+import se.redfield.bert.setting.DimensionReductionSettings.DimensionReduction;
 import se.redfield.bert.util.InputUtils;
 
 public class BertEmbedder {
 
 	private static final String EMBEDDING_COLUMN = "embeddings";
 	private static final String SEQ_EMBEDDING_COLUMN_PREFIX = "sequence_embeddings_";
+	private static final String SEQ_EMBEDDING_COLUMN = "sequence_embeddings";
+
+	private static final String PROJECTION_FILE = "projection.npz";
+	private static final String PROJECTION_KEY_FILE = "projection.key";
 
 	private BertEmbedderSettings settings;
 
+	private File projectionDir;
+	private String projectionKey;
+
 	public BertEmbedder(BertEmbedderSettings settings) {
 		this.settings = settings;
 	}
 
 	public DataTableSpec createSpec(DataTableSpec inTableSpec) {
 		List<DataColumnSpec> columns = new ArrayList<>();
-		columns.add(
-				new DataColumnSpecCreator(EMBEDDING_COLUMN, ListCell.getCollectionType(DoubleCell.TYPE)).createSpec());
+		if (settings.getEmbeddingsPrecision() == EmbeddingsPrecision.DOUBLE) {
+			columns.add(new DataColumnSpecCreator(EMBEDDING_COLUMN, ListCell.getCollectionType(DoubleCell.TYPE))
+					.createSpec());
+		} else {
+			columns.add(new DataColumnSpecCreator(EMBEDDING_COLUMN, BinaryObjectDataCell.TYPE).createSpec());
+		}
 
-		if (settings.getIncludeSeqEmbeddings()) {
+		if (settings.getIncludeSeqEmbeddings()
+				&& settings.getSeqEmbeddingsFormat() == SequenceEmbeddingsFormat.TENSOR) {
+			columns.add(new DataColumnSpecCreator(SEQ_EMBEDDING_COLUMN, BinaryObjectDataCell.TYPE).createSpec());
+		} else if (settings.getIncludeSeqEmbeddings()) {
 			int seqLength = settings.getInputSettings().getMaxSeqLength();
 			for (int i = 0; i < seqLength; i++) {
 				columns.add(new DataColumnSpecCreator(SEQ_EMBEDDING_COLUMN_PREFIX + i,
@@ -74,18 +106,83 @@ public class BertEmbedder {
 	}
 
 	public BufferedDataTable computeEmbeddings(BertPortObjectBase bertObject, BufferedDataTable inTable,
-			ExecutionContext exec) throws PythonIOException, CanceledExecutionException, PythonKernelCleanupException,
+			ExecutionContext exec) throws IOException, CanceledExecutionException, PythonKernelCleanupException,
 			DLInvalidEnvironmentException {
 		var preprocessedTable = preprocess(inTable, exec);
-		try (BertCommands commands = new BertCommands(settings.getPythonCommand(), 1)) {
-			commands.putDataTable(preprocessedTable, exec.createSubProgress(0.1));
+		String key = usesFittedProjection() ? createProjectionKey(bertObject, preprocessedTable, exec) : null;
+		int chunkSize = TableChunking.getChunkSize(settings, estimateRowBytes());
+		String script = computeEmbeddingsScript(bertObject, key);
+
+		BufferedDataTable embeddings;
+		if (settings.getShareModel()) {
 			exec.setMessage("Calculate embeddings");
-			commands.executeInKernel(computeEmbeddingsScript(bertObject), exec.createSubProgress(0.85));
-			var embeddings = commands.getDataTable(exec, exec.createSubProgress(0.05));
-			return exec.createJoinedTable(inTable, embeddings, exec.createSilentSubProgress(0));
+			embeddings = SharedInferenceService.getInstance().execute(settings.getPythonCommand(),
+					getModelKey(bertObject), script, chunkSize, preprocessedTable, exec.createSubExecutionContext(1));
+		} else {
+			try (BertCommands commands = createCommands(bertObject)) {
+				commands.setTableChunkSize(chunkSize);
+				commands.putDataTable(preprocessedTable, exec.createSubProgress(0.1));
+				exec.setMessage("Calculate embeddings");
+				commands.executeInKernel(script, exec.createSubProgress(0.85));
+				embeddings = commands.getDataTable(exec, exec.createSubProgress(0.05));
+			}
+		}
+		if (usesFittedProjection()) {
+			projectionKey = key;
 		}
+
+		return exec.createJoinedTable(inTable, embeddings, exec.createSilentSubProgress(0));
 	}
 	
+	/**
+	 * The kernel stays alive with the loaded classifier or pretrained model for
+	 * the next execution, e.g. in a loop.
+	 */
+	private BertCommands createCommands(BertPortObjectBase bertObject) throws DLInvalidEnvironmentException {
+		return new BertCommands(settings.getPythonCommand(), 1, getModelKey(bertObject));
+	}
+
+	/**
+	 * Estimates the size of an input row and its embeddings. The sequence
+	 * embeddings dominate if they are included.
+	 */
+	private long estimateRowBytes() {
+		int maxSeqLength = settings.getInputSettings().getMaxSeqLength();
+		int hiddenSize = TableChunking.ASSUMED_HIDDEN_SIZE;
+		int bytesPerValue = getBytesPerValue(settings.getEmbeddingsPrecision());
+
+		int embeddingSize = hiddenSize;
+		if (settings.getPooling() == EmbeddingPooling.CONCAT_LAST_N) {
+			embeddingSize *= settings.getPoolingLayers();
+		}
+		DimensionReductionSettings reduction = settings.getDimensionReductionSettings();
+		if (reduction.getMethod() != DimensionReduction.NONE) {
+			embeddingSize = reduction.getDimensions();
+		}
+
+		long bytes = TableChunking.estimateTextBytes(maxSeqLength) + (long) embeddingSize * bytesPerValue;
+		if (settings.getIncludeSeqEmbeddings()) {
+			int seqBytesPerValue = settings.getSeqEmbeddingsFormat() == SequenceEmbeddingsFormat.TENSOR
+					? bytesPerValue
+					: Double.BYTES;
+			bytes += (long) maxSeqLength * hiddenSize * seqBytesPerValue;
+		}
+		return bytes;
+	}
+
+	private static int getBytesPerValue(EmbeddingsPrecision precision) {
+		switch (precision) {
+		case FLOAT32:
+			return Float.BYTES;
+		case FLOAT16:
+			return Short.BYTES;
+		case INT8:
+			return Byte.BYTES;
+		default:
+			return Double.BYTES;
+		}
+	}
+
 	/**
 	 * Only keeps the sentence columns and converts them to string if they aren't yet.
 	 */
@@ -102,23 +199,158 @@ public class BertEmbedder {
 		return exec.createColumnRearrangeTable(inTable, rearranger, exec.createSilentSubProgress(0));
 	}
 
-	private String computeEmbeddingsScript(BertPortObjectBase bertObject) {
+	private String computeEmbeddingsScript(BertPortObjectBase bertObject, String key) throws IOException {
 		DLPythonSourceCodeBuilder b = DLPythonUtils.createSourceCodeBuilder("from BertEmbedder import BertEmbedder");
 		b.a("BertEmbedder.").a(getRunMethodName(bertObject)).a("(").n();
 
-		BertCommands.putInputTableArgs(b);
+		if (settings.getShareModel()) {
+			SharedInferenceService.putInputTableArgs(b);
+		} else {
+			BertCommands.putInputTableArgs(b);
+		}
 		putBertObjectArgs(bertObject, b);
 		BertCommands.putArgs(b, settings.getInputSettings());
 		BertCommands.putBatchSizeArgs(b, settings.getBatchSize());
 
 		b.a("embeddings_column = ").as(EMBEDDING_COLUMN).a(",").n();
 		b.a("sequence_embedding_column_prefix = ").as(SEQ_EMBEDDING_COLUMN_PREFIX).a(",").n();
+		b.a("sequence_embeddings_column = ").as(SEQ_EMBEDDING_COLUMN).a(",").n();
+		b.a("sequence_embeddings_format = ").as(settings.getSeqEmbeddingsFormat().getKey()).a(",").n();
+		b.a("embeddings_precision = ").as(settings.getEmbeddingsPrecision().getKey()).a(",").n();
+		b.a("normalize_embeddings = ").a(settings.getNormalizeEmbeddings()).a(",").n();
 		b.a("include_sequence_embeddings = ").a(settings.getIncludeSeqEmbeddings()).a(",").n();
+		b.a("pooling = ").as(settings.getPooling().getKey()).a(",").n();
+		b.a("pooling_layers = ").a(settings.getPoolingLayers()).a(",").n();
+		putDimensionReductionArgs(b, key);
 		b.a(")").n();
 
 		return b.toString();
 	}
 
+	private void putDimensionReductionArgs(DLPythonSourceCodeBuilder b, String key) throws IOException {
+		DimensionReductionSettings reduction = settings.getDimensionReductionSettings();
+		if (reduction.getMethod() == DimensionReduction.NONE) {
+			return;
+		}
+
+		b.a("dimension_reduction = ").as(reduction.getMethod().getKey()).a(",").n();
+		b.a("reduced_dimensions = ").a(reduction.getDimensions()).a(",").n();
+
+		if (reduction.getMethod() == DimensionReduction.PCA) {
+			if (!usesFittedProjection()) {
+				b.a("projection_file = ").asr(toAbsolutePath(reduction.getProjectionFile())).a(",").n();
+				b.a("fit_projection = False,").n();
+			} else {
+				// the fitted projection is reused as long as the model, the relevant settings and the input stay the same
+				b.a("projection_file = ").asr(getProjectionFile().getAbsolutePath()).a(",").n();
+				b.a("fit_projection = ").a(!key.equals(projectionKey)).a(",").n();
+				b.a("pca_sample_size = ").a(reduction.getSampleSize()).a(",").n();
+			}
+		}
+	}
+
+	private boolean usesFittedProjection() {
+		DimensionReductionSettings reduction = settings.getDimensionReductionSettings();
+		return reduction.getMethod() == DimensionReduction.PCA && reduction.getProjectionFile().isEmpty();
+	}
+
+	private static String toAbsolutePath(String path) throws IOException {
+		try {
+			return FileUtil.getFileFromURL(FileUtil.toURL(path)).getAbsolutePath();
+		} catch (MalformedURLException e) {
+			throw new IOException("Invalid projection file: " + path, e);
+		}
+	}
+
+	/**
+	 * Creates the key identifying the fitted PCA projection. The projection is
+	 * refitted whenever the key changes. The key covers the sentences, since the
+	 * projection is fitted on a sample of them.
+	 */
+	private String createProjectionKey(BertPortObjectBase bertObject, BufferedDataTable sentencesTable,
+			ExecutionContext exec) throws CanceledExecutionException {
+		DimensionReductionSettings reduction = settings.getDimensionReductionSettings();
+		return String.join("|", getModelKey(bertObject), settings.getPooling().name(), String.valueOf(settings.getPoolingLayers()),
+				String.valueOf(settings.getInputSettings().getMaxSeqLength()),
+				String.valueOf(reduction.getDimensions()), String.valueOf(reduction.getSampleSize()),
+				hashSentences(sentencesTable, exec));
+	}
+
+	/**
+	 * Hashes the sentences of the table in the order of the rows.
+	 */
+	private static String hashSentences(BufferedDataTable sentencesTable, ExecutionContext exec)
+			throws CanceledExecutionException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		exec.setMessage("Hash the input table");
+		try (CloseableRowIterator it = sentencesTable.iterator()) {
+			while (it.hasNext()) {
+				exec.checkCanceled();
+				for (DataCell cell : it.next()) {
+					// the marker distinguishes the missing cells, the terminator the cell boundaries
+					digest.update((byte) (cell.isMissing() ? 1 : 2));
+					if (!cell.isMissing()) {
+						digest.update(cell.toString().getBytes(StandardCharsets.UTF_8));
+					}
+					digest.update((byte) 0);
+				}
+			}
+		}
+		return Base64.getEncoder().encodeToString(digest.digest());
+	}
+
+	/**
+	 * Identifies the model: the classifier file store or the BERT model handle.
+	 */
+	private static String getModelKey(BertPortObjectBase bertObject) {
+		return bertObject.getType() == BertPortObjectType.CLASSIFIER
+				? ((BertClassifierPortObject) bertObject).getFileStore().getFile().getAbsolutePath()
+				: ((BertModelPortObject) bertObject).getModel().getHandle();
+	}
+
+	private File getProjectionFile() throws IOException {
+		if (projectionDir == null) {
+			projectionDir = FileUtil.createTempDir("bert-embedder-projection");
+		}
+		return new File(projectionDir, PROJECTION_FILE);
+	}
+
+	/**
+	 * Saves the fitted PCA projection (if any) into the node internals directory.
+	 * 
+	 * @param nodeInternDir The node internals directory.
+	 * @throws IOException
+	 */
+	public void saveInternals(File nodeInternDir) throws IOException {
+		if (projectionKey != null && projectionDir != null && getProjectionFile().exists()) {
+			Files.copy(getProjectionFile().toPath(), nodeInternDir.toPath().resolve(PROJECTION_FILE),
+					StandardCopyOption.REPLACE_EXISTING);
+			Files.writeString(nodeInternDir.toPath().resolve(PROJECTION_KEY_FILE), projectionKey,
+					StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Loads the previously fitted PCA projection from the node internals
+	 * directory.
+	 * 
+	 * @param nodeInternDir The node internals directory.
+	 * @throws IOException
+	 */
+	public void loadInternals(File nodeInternDir) throws IOException {
+		Path file = nodeInternDir.toPath().resolve(PROJECTION_FILE);
+		Path keyFile = nodeInternDir.toPath().resolve(PROJECTION_KEY_FILE);
+		if (Files.exists(file) && Files.exists(keyFile)) {
+			Files.copy(file, getProjectionFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+			projectionKey = Files.readString(keyFile, StandardCharsets.UTF_8);
+		}
+	}
+
 	private static String getRunMethodName(BertPortObjectBase bertObject) {
 		switch (bertObject.getType()) {
 		case BERT_MODEL:
@@ -149,6 +381,7 @@ public class BertEmbedder {
 
 	private static void putClassifierArgs(BertClassifierPortObject classifier, DLPythonSourceCodeBuilder builder) {
 		BertCommands.putFileStoreArgs(builder, classifier.getFileStore());
+		BertCommands.putClassifierLoadArgs(builder);
 		BertCommands.putModelTypeArg(builder, classifier.getModelType());
 	}
 }
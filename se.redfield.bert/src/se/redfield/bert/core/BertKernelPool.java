@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.knime.core.node.NodeLogger;
+import org.knime.dl.core.DLInvalidEnvironmentException;
+import org.knime.dl.python.util.DLPythonSourceCodeBuilder;
+import org.knime.dl.python.util.DLPythonUtils;
+import org.knime.python2.PythonCommand;
+import org.knime.python2.extensions.serializationlibrary.SerializationOptions;
+import org.knime.python2.kernel.PythonCancelable;
+import org.knime.python2.kernel.PythonCanceledExecutionException;
+import org.knime.python2.kernel.PythonIOException;
+import org.knime.python2.kernel.PythonKernel;
+import org.knime.python2.kernel.PythonKernelBackendRegistry.PythonKernelBackendType;
+import org.knime.python2.kernel.PythonKernelCleanupException;
+import org.knime.python2.kernel.PythonKernelOptions;
+import org.knime.python2.kernel.PythonKernelQueue;
+import org.knime.python3.PythonSourceDirectoryLocator;
+
+import com.google.common.base.Strings;
+
+import se.redfield.bert.prefs.BertPreferences;
+
+/**
+ * Pool of Python kernels with TensorFlow, transformers and the BERT modules
+ * already imported. Warm kernels are taken with
+ * {@link #getKernel(PythonCommand)}, the pool is refilled in the background up
+ * to the size configured on the preference page.
+ * <p>
+ * Kernels that loaded a model are not closed after the execution but released
+ * with {@link #release(PythonCommand, String, PythonKernel)}. They are kept
+ * per Python command and model key, e.g. the path of the classifier file
+ * store, and handed out again by {@link #getKernel(PythonCommand, String)} to
+ * the next execution with the same key, which finds the model still loaded.
+ * At most {@value #MAX_RESIDENT_KERNELS} such resident kernels are kept, the
+ * least recently released is closed first. A resident kernel that is not
+ * taken again within five minutes is closed as well.
+ */
+public final class BertKernelPool {
+	private static final NodeLogger LOGGER = NodeLogger.getLogger(BertKernelPool.class);
+
+	/**
+	 * Module imported into every kernel, it imports the BERT modules that can be
+	 * loaded before the input tables are put.
+	 */
+	private static final String WARM_UP_MODULE = "bert_warmup";
+
+	/**
+	 * Idle kernels of a Python command that is neither configured on the
+	 * preference page nor was requested for this long are closed.
+	 */
+	private static final long UNUSED_COMMAND_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * The maximum number of kernels kept alive with a loaded model between the
+	 * executions, the least recently released is closed first.
+	 */
+	private static final int MAX_RESIDENT_KERNELS = 2;
+	/**
+	 * Resident kernels not taken again for this long are closed.
+	 */
+	private static final long RESIDENT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private static final BertKernelPool INSTANCE = new BertKernelPool();
+
+	private final Map<PythonCommand, LinkedBlockingDeque<PythonKernel>> kernels = new ConcurrentHashMap<>();
+	private final Map<PythonCommand, AtomicInteger> pending = new ConcurrentHashMap<>();
+	private final Map<PythonCommand, Long> lastRequested = new ConcurrentHashMap<>();
+	private final LinkedHashMap<ResidentKey, ResidentKernel> resident = new LinkedHashMap<>();
+	private final ScheduledExecutorService executor;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong startedKernels = new AtomicLong();
+	private final AtomicLong totalStartupMillis = new AtomicLong();
+
+	private volatile boolean shutdown = false;
+
+	private BertKernelPool() {
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "BERT kernel pool");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.scheduleWithFixedDelay(() -> {
+			closeUnused();
+			closeExpiredResident();
+		}, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @return the shared instance.
+	 */
+	public static BertKernelPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Takes a warm kernel from the pool or starts a new one if the pool is empty.
+	 * The pool is refilled asynchronously afterwards. The caller owns the returned
+	 * kernel and is responsible for closing it.
+	 *
+	 * @param command The Python command.
+	 * @return The kernel.
+	 * @throws DLInvalidEnvironmentException
+	 */
+	public PythonKernel getKernel(PythonCommand command) throws DLInvalidEnvironmentException {
+		long start = System.currentTimeMillis();
+		lastRequested.put(command, start);
+		PythonKernel kernel = getQueue(command).pollFirst();
+		boolean hit = kernel != null;
+		if (hit) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			kernel = startKernel(command);
+		}
+		refill(command);
+
+		logStats(hit, System.currentTimeMillis() - start);
+		return kernel;
+	}
+
+	/**
+	 * Takes the kernel released with the given model key if there is one, so that
+	 * the model it loaded is still in memory (see ModelCache.py). Takes a kernel
+	 * from the pool otherwise. The caller either releases the kernel with
+	 * {@link #release(PythonCommand, String, PythonKernel)} or closes it.
+	 *
+	 * @param command  The Python command.
+	 * @param modelKey The key identifying the model, e.g. the path of the
+	 *                 classifier file store.
+	 * @return The kernel and whether it was resident.
+	 * @throws DLInvalidEnvironmentException
+	 */
+	ResidentKernel getKernel(PythonCommand command, String modelKey) throws DLInvalidEnvironmentException {
+		ResidentKernel kernel;
+		synchronized (resident) {
+			kernel = resident.remove(new ResidentKey(command, modelKey));
+		}
+		if (kernel != null) {
+			LOGGER.debugWithFormat("Reusing the resident kernel of %s", modelKey);
+			lastRequested.put(command, System.currentTimeMillis());
+			return kernel;
+		}
+		return new ResidentKernel(getKernel(command), false);
+	}
+
+	/**
+	 * Keeps the kernel alive for the next execution with the same model key. The
+	 * kernel must not be used by the caller afterwards.
+	 *
+	 * @param command  The Python command.
+	 * @param modelKey The key identifying the model.
+	 * @param kernel   The kernel, must have the default options.
+	 */
+	void release(PythonCommand command, String modelKey, PythonKernel kernel) {
+		if (shutdown) {
+			closeQuietly(kernel);
+			return;
+		}
+		List<ResidentKernel> evicted = new ArrayList<>();
+		synchronized (resident) {
+			ResidentKernel previous = resident.put(new ResidentKey(command, modelKey), new ResidentKernel(kernel, true));
+			if (previous != null) {
+				evicted.add(previous);
+			}
+			var it = resident.values().iterator();
+			while (resident.size() > MAX_RESIDENT_KERNELS) {
+				evicted.add(it.next());
+				it.remove();
+			}
+		}
+		evicted.forEach(r -> closeQuietly(r.getKernel()));
+	}
+
+	private void closeExpiredResident() {
+		long now = System.currentTimeMillis();
+		List<ResidentKernel> expired = new ArrayList<>();
+		synchronized (resident) {
+			var it = resident.values().iterator();
+			while (it.hasNext()) {
+				ResidentKernel r = it.next();
+				if (now - r.releasedAt > RESIDENT_TIMEOUT_MILLIS) {
+					expired.add(r);
+					it.remove();
+				}
+			}
+		}
+		expired.forEach(r -> closeQuietly(r.getKernel()));
+	}
+
+	private LinkedBlockingDeque<PythonKernel> getQueue(PythonCommand command) {
+		return kernels.computeIfAbsent(command, c -> new LinkedBlockingDeque<>());
+	}
+
+	private void refill(PythonCommand command) {
+		int size = BertPreferences.getKernelPoolSize();
+		AtomicInteger inProgress = pending.computeIfAbsent(command, c -> new AtomicInteger());
+		var queue = getQueue(command);
+
+		while (!shutdown && queue.size() + inProgress.get() < size) {
+			inProgress.incrementAndGet();
+			executor.execute(() -> {
+				try {
+					if (!shutdown) {
+						queue.addLast(startKernel(command));
+					}
+				} catch (DLInvalidEnvironmentException e) {
+					LOGGER.warn("Failed to start a kernel for the BERT kernel pool: " + e.getMessage(), e);
+				} finally {
+					inProgress.decrementAndGet();
+				}
+				if (shutdown) {
+					closeAll();
+				}
+			});
+		}
+	}
+
+	private PythonKernel startKernel(PythonCommand command) throws DLInvalidEnvironmentException {
+		long start = System.currentTimeMillis();
+		try {
+			PythonKernel kernel = PythonKernelQueue.getNextKernel(command, PythonKernelBackendType.PYTHON3,
+					Collections.emptySet(), Collections.emptySet(), getKernelOptions(), PythonCancelable.NOT_CANCELABLE);
+			try {
+				kernel.execute("import tensorflow as tf");
+				kernel.execute(setupPythonPath());
+				kernel.execute(warmUpScript());
+			} catch (PythonIOException e) {
+				closeQuietly(kernel);
+				throw e;
+			}
+			startedKernels.incrementAndGet();
+			totalStartupMillis.addAndGet(System.currentTimeMillis() - start);
+			return kernel;
+		} catch (PythonIOException e) {
+			final String msg = !Strings.isNullOrEmpty(e.getMessage())
+					? "An error occurred while trying to launch Python: " + e.getMessage()
+					: "An unknown error occurred while trying to launch Python. See log for details.";
+			throw new DLInvalidEnvironmentException(msg, e);
+		} catch (PythonCanceledExecutionException e) {
+			throw new IllegalStateException("Implementation error", e);
+		}
+	}
+
+	private static String setupPythonPath() {
+		DLPythonSourceCodeBuilder b = DLPythonUtils.createSourceCodeBuilder("import sys");
+		Path path = PythonSourceDirectoryLocator.getPathFor(BertKernelPool.class, "py");
+		b.a("sys.path.append(").asr(path.toString()).a(")").n();
+		return b.toString();
+	}
+
+	private static String warmUpScript() {
+		return "import " + WARM_UP_MODULE;
+	}
+
+	private static PythonKernelOptions getKernelOptions() {
+		return getKernelOptions(TableChunking.DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param tableChunkSize The number of rows per chunk of the transferred tables.
+	 * @return The options of the pooled kernels with the given chunk size.
+	 */
+	static PythonKernelOptions getKernelOptions(int tableChunkSize) {
+		SerializationOptions serializationOpts = new SerializationOptions().forChunkSize(tableChunkSize);
+
+		return new PythonKernelOptions().forAddedAdditionalRequiredModuleNames(Arrays.asList("bert", "tensorflow_hub"))
+				.forSerializationOptions(serializationOpts);
+	}
+
+	private void logStats(boolean hit, long acquireMillis) {
+		long h = hits.get();
+		long total = h + misses.get();
+		long started = startedKernels.get();
+		LOGGER.debugWithFormat(
+				"BERT kernel pool %s: acquired in %d ms, hit rate %.0f%% (%d of %d), average kernel startup %d ms",
+				hit ? "hit" : "miss", acquireMillis, 100.0 * h / total, h, total,
+				started > 0 ? totalStartupMillis.get() / started : 0);
+	}
+
+	/**
+	 * Closes the idle kernels of the Python commands that are no longer
+	 * configured, e.g. after the environment was changed on the preference page or
+	 * a workflow using a Conda flow variable was closed.
+	 */
+	private void closeUnused() {
+		PythonCommand configured;
+		try {
+			configured = BertPreferences.getPythonCommandPreference();
+		} catch (RuntimeException e) {
+			LOGGER.debug("Failed to read the configured Python command", e);
+			configured = null;
+		}
+		long now = System.currentTimeMillis();
+		for (PythonCommand command : new ArrayList<>(kernels.keySet())) {
+			long requested = lastRequested.getOrDefault(command, 0L);
+			if (!command.equals(configured) && now - requested > UNUSED_COMMAND_TIMEOUT_MILLIS) {
+				List<PythonKernel> idle = new ArrayList<>();
+				kernels.get(command).drainTo(idle);
+				if (!idle.isEmpty()) {
+					LOGGER.debugWithFormat("Closing %d idle kernel(s) of the unused Python command %s", idle.size(),
+							command);
+				}
+				idle.forEach(BertKernelPool::closeQuietly);
+			}
+		}
+	}
+
+	/**
+	 * Closes all the idle kernels and stops refilling the pool.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		executor.shutdown();
+		closeAll();
+	}
+
+	private void closeAll() {
+		List<PythonKernel> idle = new ArrayList<>();
+		for (var queue : kernels.values()) {
+			queue.drainTo(idle);
+		}
+		synchronized (resident) {
+			resident.values().forEach(r -> idle.add(r.getKernel()));
+			resident.clear();
+		}
+		idle.forEach(BertKernelPool::closeQuietly);
+	}
+
+	private static void closeQuietly(PythonKernel kernel) {
+		try {
+			kernel.close();
+		} catch (PythonKernelCleanupException e) {
+			LOGGER.debug("Failed to close the Python kernel", e);
+		}
+	}
+
+	/**
+	 * A kernel taken from the pool or kept alive with a loaded model.
+	 */
+	static final class ResidentKernel {
+		private final PythonKernel kernel;
+		private final boolean reused;
+		private final long releasedAt = System.currentTimeMillis();
+
+		private ResidentKernel(PythonKernel kernel, boolean reused) {
+			this.kernel = kernel;
+			this.reused = reused;
+		}
+
+		/**
+		 * @return the kernel.
+		 */
+		PythonKernel getKernel() {
+			return kernel;
+		}
+
+		/**
+		 * @return <code>true</code> if the kernel executed scripts before.
+		 */
+		boolean isReused() {
+			return reused;
+		}
+	}
+
+	private static final class ResidentKey {
+		private final PythonCommand command;
+		private final String modelKey;
+
+		ResidentKey(PythonCommand command, String modelKey) {
+			this.command = command;
+			this.modelKey = modelKey;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ResidentKey)) {
+				return false;
+			}
+			ResidentKey other = (ResidentKey) obj;
+			return command.equals(other.command) && modelKey.equals(other.modelKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(command, modelKey);
+		}
+	}
+}
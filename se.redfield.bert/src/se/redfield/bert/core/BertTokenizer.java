@@ -15,6 +15,9 @@
  */
 package se.redfield.bert.core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
 import org.knime.core.data.DataTableSpec;
@@ -32,6 +35,8 @@ import org.knime.python2.kernel.PythonKernelCleanupException;
 
 import se.redfield.bert.nodes.port.BertModelConfig;
 import se.redfield.bert.setting.BertTokenizerSettings;
+import se.redfield.bert.setting.BertTokenizerSettings.OutputFormat;
+import se.redfield.bert.util.InputUtils;
 
 public class BertTokenizer {
 	@SuppressWarnings("unused")
@@ -40,6 +45,8 @@ public class BertTokenizer {
 	private static final String IDS_COLUMN = "ids";
 	private static final String MASKS_COLUMN = "masks";
 	private static final String SEGMENTS_COLUMN = "segments";
+	private static final String TOKEN_COUNT_COLUMN = "token_count";
+	private static final String FIRST_SENTENCE_LENGTH_COLUMN = "first_sentence_length";
 
 	private final BertTokenizerSettings settings;
 
@@ -48,6 +55,14 @@ public class BertTokenizer {
 	}
 
 	public DataTableSpec createSpec(DataTableSpec inTableSpec) {
+		return new DataTableSpec(inTableSpec, new DataTableSpec(createOutputSpecs()));
+	}
+
+	private DataColumnSpec[] createOutputSpecs() {
+		if (settings.getOutputFormat() == OutputFormat.PACKED) {
+			return createPackedSpecs();
+		}
+
 		DataColumnSpec ids = new DataColumnSpecCreator(IDS_COLUMN, ListCell.getCollectionType(IntCell.TYPE))
 				.createSpec();
 		DataColumnSpec masks = new DataColumnSpecCreator(MASKS_COLUMN, ListCell.getCollectionType(IntCell.TYPE))
@@ -55,19 +70,51 @@ public class BertTokenizer {
 		DataColumnSpec segments = new DataColumnSpecCreator(SEGMENTS_COLUMN, ListCell.getCollectionType(IntCell.TYPE))
 				.createSpec();
 
-		return new DataTableSpec(inTableSpec, new DataTableSpec(ids, masks, segments));
+		return new DataColumnSpec[] { ids, masks, segments };
+	}
+
+	/**
+	 * The packed format stores only the ids of the actual tokens. The masks are
+	 * ones for the first token count positions, the segments are zeros for the
+	 * tokens of the first sentence and ones for the rest. The first sentence ends
+	 * with the first separator token, models without token types use zero
+	 * segments for all the tokens.
+	 */
+	private DataColumnSpec[] createPackedSpecs() {
+		List<DataColumnSpec> columns = new ArrayList<>();
+		columns.add(new DataColumnSpecCreator(IDS_COLUMN, ListCell.getCollectionType(IntCell.TYPE)).createSpec());
+		columns.add(new DataColumnSpecCreator(TOKEN_COUNT_COLUMN, IntCell.TYPE).createSpec());
+		if (settings.getInputSettings().getTwoSentenceMode()) {
+			columns.add(new DataColumnSpecCreator(FIRST_SENTENCE_LENGTH_COLUMN, IntCell.TYPE).createSpec());
+		}
+
+		return columns.toArray(new DataColumnSpec[columns.size()]);
 	}
 
 	public BufferedDataTable tokenize(BertModelConfig bertModel, BufferedDataTable inTable, ExecutionContext exec)
 			throws DLInvalidEnvironmentException, PythonKernelCleanupException, PythonIOException,
 			CanceledExecutionException {
+		exec.setMessage("Prepare input table");
+		var sentencesTable = InputUtils.toStringColumnsTable(inTable, exec.createSubExecutionContext(0.05),
+				getSentenceColumns());
 		try (BertCommands commands = new BertCommands(settings.getPythonCommand(), 1)) {
-			commands.putDataTable(inTable, exec.createSubProgress(0.1));
-			commands.executeInKernel(tokenizeScript(bertModel), exec.createSubProgress(0.8));
-			return commands.getDataTable(exec, exec.createSubProgress(0.1));
+			commands.putDataTable(sentencesTable, exec.createSubProgress(0.05));
+			exec.setMessage("Tokenize");
+			commands.executeInKernel(tokenizeScript(bertModel), exec.createSubProgress(0.75));
+			var tokens = commands.getDataTable(exec, exec.createSubProgress(0.1));
+
+			// only the sentence columns were sent to Python, the token table is joined with the input table
+			return exec.createJoinedTable(inTable, tokens, exec.createSubProgress(0.05));
 		}
 	}
 
+	private String[] getSentenceColumns() {
+		var input = settings.getInputSettings();
+		return input.getTwoSentenceMode()
+				? new String[] { input.getSentenceColumn(), input.getSecondSentenceColumn() }
+				: new String[] { input.getSentenceColumn() };
+	}
+
 	private String tokenizeScript(BertModelConfig bertModel) {
 		DLPythonSourceCodeBuilder b = DLPythonUtils.createSourceCodeBuilder("from BertTokenizer import BertTokenizer");
 		b.a("BertTokenizer.run(").n();
@@ -79,6 +126,9 @@ public class BertTokenizer {
 		b.a("ids_column = ").as(IDS_COLUMN).a(",").n();
 		b.a("masks_column = ").as(MASKS_COLUMN).a(",").n();
 		b.a("segments_column = ").as(SEGMENTS_COLUMN).a(",").n();
+		b.a("output_format = ").as(settings.getOutputFormat().getKey()).a(",").n();
+		b.a("token_count_column = ").as(TOKEN_COUNT_COLUMN).a(",").n();
+		b.a("first_sentence_length_column = ").as(FIRST_SENTENCE_LENGTH_COLUMN).a(",").n();
 		b.a(")").n();
 
 		return b.toString();
@@ -23,24 +23,33 @@ import java.util.stream.Collectors;
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
 import org.knime.core.data.DataTableSpec;
-import org.knime.core.data.container.ColumnRearranger;
+import org.knime.core.data.collection.ListCell;
 import org.knime.core.data.def.DoubleCell;
 import org.knime.core.data.def.StringCell;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
+import org.knime.dl.python.util.DLPythonSourceCodeBuilder;
 
 import se.redfield.bert.setting.BertPredictorSettings;
 
 /**
- * Builds an output prediction table from the input table and the the table with
- * probabilities received from python.
+ * Builds an output prediction table from the input table and the table with
+ * predictions received from python. The predicted classes are computed in
+ * python, see {@link #putPredictionArgs(DLPythonSourceCodeBuilder)}.
  * 
  * @author Alexander Bondaletov
  *
  */
 public class PredictionTableBuilder {
 
+	private static final String TOP_CLASSES_COLUMN = "Top classes";
+	private static final String TOP_PROBABILITIES_COLUMN = "Top probabilities";
+	private static final String SPARSE_PROBABILITIES_COLUMN = "Probabilities above epsilon";
+
+	private static final int PREDICTION_BYTES = 32;
+	private static final int SPARSE_PROBABILITIES_EXPECTED_COUNT = 10;
+
 	private final BertPredictorSettings settings;
 	private final boolean multilabel;
 	private final String[] classes;
@@ -57,37 +66,86 @@ public class PredictionTableBuilder {
 	}
 
 	/**
-	 * @param inTable            The input table.
-	 * @param probabilitiesTable The table with probabilities for individual
-	 *                           classes.
-	 * @param exec               The execution context.
+	 * Adds the arguments that control how the predicted classes and the output
+	 * columns are computed by python.
+	 * 
+	 * @param b The source code builder.
+	 */
+	public void putPredictionArgs(DLPythonSourceCodeBuilder b) {
+		b.a("prediction_column = ").as(settings.getPredictionColumn()).a(",").n();
+		if (multilabel && settings.getFixNumberOfClasses()) {
+			b.a("prediction_top_k = ").a(settings.getNumberOfClassesPerPrediction()).a(",").n();
+		} else if (multilabel || settings.getUseCustomThreshould()) {
+			b.a("prediction_threshold = ").a(settings.getPredictionThreshold()).a(",").n();
+		}
+		b.a("class_separator = ").as(settings.getClassSeparator()).a(",").n();
+
+		if (settings.getOutputProbabilities()) {
+			String[] names = createProbabilitiesSpecs().stream().map(DataColumnSpec::getName)
+					.toArray(String[]::new);
+			b.a("probability_columns = ").as(names).a(",").n();
+		}
+		if (settings.getOutputTopProbabilities()) {
+			b.a("top_classes_column = ").as(TOP_CLASSES_COLUMN).a(",").n();
+			b.a("top_probabilities_column = ").as(TOP_PROBABILITIES_COLUMN).a(",").n();
+			b.a("top_probabilities_count = ").a(settings.getTopProbabilitiesCount()).a(",").n();
+		}
+		if (settings.getOutputSparseProbabilities()) {
+			b.a("sparse_probabilities_column = ").as(SPARSE_PROBABILITIES_COLUMN).a(",").n();
+			b.a("sparse_probabilities_epsilon = ").a(settings.getSparseProbabilitiesEpsilon()).a(",").n();
+		}
+	}
+
+	/**
+	 * @param inTable          The input table.
+	 * @param predictionsTable The table with the predictions and the probabilities
+	 *                         for individual classes, with the row keys of the
+	 *                         input table.
+	 * @param exec             The execution context.
 	 * @return The output table.
 	 * @throws CanceledExecutionException
 	 */
-	public BufferedDataTable buildPredictionTable(BufferedDataTable inTable, BufferedDataTable probabilitiesTable,
+	public BufferedDataTable buildPredictionTable(BufferedDataTable inTable, BufferedDataTable predictionsTable,
 			ExecutionContext exec) throws CanceledExecutionException {
-		probabilitiesTable = renameProbabilitiesColumns(probabilitiesTable, exec.createSubExecutionContext(0));
-
-		ColumnRearranger r = new ColumnRearranger(probabilitiesTable.getDataTableSpec());
-		r.insertAt(0, ComputePredictionCellFactory.create(settings, multilabel, classes));
+		return exec.createJoinedTable(inTable, predictionsTable, exec);
+	}
 
-		if (!settings.getOutputProbabilities()) {
-			r.keepOnly(0);
+	/**
+	 * @param maxSeqLength The max sequence length of the classifier.
+	 * @return The estimated size of an input row and the appended predictions.
+	 */
+	public long estimateRowBytes(int maxSeqLength) {
+		int classCount = classes == null ? 0 : classes.length;
+		long bytes = TableChunking.estimateTextBytes(maxSeqLength) + PREDICTION_BYTES;
+		if (settings.getOutputProbabilities()) {
+			bytes += (long) classCount * Double.BYTES;
 		}
-
-		BufferedDataTable result = exec.createColumnRearrangeTable(probabilitiesTable, r, exec.createSubProgress(0.5));
-
-		return exec.createJoinedTable(inTable, result, exec.createSubProgress(0.5));
-
+		if (settings.getOutputTopProbabilities()) {
+			bytes += (long) Math.min(classCount, settings.getTopProbabilitiesCount()) * (PREDICTION_BYTES + Double.BYTES);
+		}
+		if (settings.getOutputSparseProbabilities()) {
+			bytes += (long) PREDICTION_BYTES * SPARSE_PROBABILITIES_EXPECTED_COUNT;
+		}
+		return bytes;
 	}
 
-	private BufferedDataTable renameProbabilitiesColumns(BufferedDataTable probTable, ExecutionContext exec) {
+	private List<DataColumnSpec> createOutputSpecs() {
+		List<DataColumnSpec> columns = new ArrayList<>();
+		columns.add(new DataColumnSpecCreator(settings.getPredictionColumn(), StringCell.TYPE).createSpec());
+
 		if (settings.getOutputProbabilities()) {
-			return exec.createSpecReplacerTable(probTable,
-					new DataTableSpec(createProbabilitiesSpecs().toArray(new DataColumnSpec[] {})));
-		} else {
-			return probTable;
+			columns.addAll(createProbabilitiesSpecs());
+		}
+		if (settings.getOutputTopProbabilities()) {
+			columns.add(new DataColumnSpecCreator(TOP_CLASSES_COLUMN, ListCell.getCollectionType(StringCell.TYPE))
+					.createSpec());
+			columns.add(new DataColumnSpecCreator(TOP_PROBABILITIES_COLUMN,
+					ListCell.getCollectionType(DoubleCell.TYPE)).createSpec());
 		}
+		if (settings.getOutputSparseProbabilities()) {
+			columns.add(new DataColumnSpecCreator(SPARSE_PROBABILITIES_COLUMN, StringCell.TYPE).createSpec());
+		}
+		return columns;
 	}
 
 	private List<DataColumnSpec> createProbabilitiesSpecs() {
@@ -109,15 +167,7 @@ public class PredictionTableBuilder {
 			return null;
 		}
 
-		List<DataColumnSpec> columns = new ArrayList<>();
-		for (int i = 0; i < inTableSpec.getNumColumns(); i++) {
-			columns.add(inTableSpec.getColumnSpec(i));
-		}
-		columns.add(new DataColumnSpecCreator(settings.getPredictionColumn(), StringCell.TYPE).createSpec());
-
-		if (settings.getOutputProbabilities()) {
-			columns.addAll(createProbabilitiesSpecs());
-		}
-		return new DataTableSpec(columns.toArray(new DataColumnSpec[] {}));
+		return new DataTableSpec(inTableSpec,
+				new DataTableSpec(createOutputSpecs().toArray(new DataColumnSpec[] {})));
 	}
 }
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.NodeLogger;
+import org.knime.dl.core.DLInvalidEnvironmentException;
+import org.knime.dl.python.util.DLPythonSourceCodeBuilder;
+import org.knime.dl.python.util.DLPythonUtils;
+import org.knime.python2.PythonCommand;
+import org.knime.python2.config.PythonCommandConfig;
+import org.knime.python2.kernel.PythonIOException;
+import org.knime.python2.kernel.PythonKernelCleanupException;
+
+/**
+ * Runs the inference of concurrently executing nodes that use the same model in
+ * one long-lived kernel per model, so the model is loaded once.
+ * <p>
+ * The requests arriving within a short window are coalesced: the requests with
+ * the same script are executed together, the input tables are put into the
+ * kernel side by side and the Python side reads them as one table whose chunks
+ * span several requests (see Coalescing.py). The outputs are split by request
+ * again. Requests with different scripts share the kernel one after another.
+ * The scripts of the coalesced requests have to use
+ * {@link #putInputTableArgs(DLPythonSourceCodeBuilder)} instead of
+ * {@link BertCommands#putInputTableArgs(DLPythonSourceCodeBuilder)}.
+ */
+public final class SharedInferenceService {
+	private static final NodeLogger LOGGER = NodeLogger.getLogger(SharedInferenceService.class);
+
+	private static final long COALESCE_WINDOW_MILLIS = 100;
+	private static final long POLL_MILLIS = 50;
+	private static final int MAX_COALESCED_REQUESTS = 16;
+	private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private static final String COALESCED_INPUT = "coalesced_input";
+	private static final String COALESCED_OUTPUT = "coalesced_output";
+
+	private static final SharedInferenceService INSTANCE = new SharedInferenceService();
+
+	private final Map<PythonCommand, Map<String, SharedModel>> models = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService executor;
+
+	private volatile boolean shutdown = false;
+
+	private SharedInferenceService() {
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "BERT shared inference");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.scheduleWithFixedDelay(this::closeIdle, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @return the shared instance.
+	 */
+	public static SharedInferenceService getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Executes the script in the kernel shared by all the nodes using the same
+	 * model. Blocks until the output table is ready.
+	 *
+	 * @param config    The Python command config.
+	 * @param modelKey  The key identifying the model, e.g. the path of the
+	 *                  classifier file store.
+	 * @param script    The script, has to read the input and write the output
+	 *                  through the arguments put by
+	 *                  {@link #putInputTableArgs(DLPythonSourceCodeBuilder)}.
+	 * @param chunkSize The number of rows per table chunk.
+	 * @param table     The input table.
+	 * @param exec      The execution context.
+	 * @return The output table.
+	 * @throws DLInvalidEnvironmentException
+	 * @throws PythonIOException
+	 * @throws CanceledExecutionException
+	 */
+	public BufferedDataTable execute(PythonCommandConfig config, String modelKey, String script, int chunkSize,
+			BufferedDataTable table, ExecutionContext exec)
+			throws DLInvalidEnvironmentException, PythonIOException, CanceledExecutionException {
+		if (shutdown) {
+			throw new IllegalStateException("The shared inference service is shut down");
+		}
+		PythonCommand command = config.getCommand();
+		SharedModel model = models.computeIfAbsent(command, c -> new ConcurrentHashMap<>())
+				.computeIfAbsent(modelKey, k -> new SharedModel(command, modelKey));
+		return model.execute(new Request(script, chunkSize, table, exec));
+	}
+
+	/**
+	 * Puts the arguments the scripts executed by the service read the coalesced
+	 * input table from and write the outputs to.
+	 *
+	 * @param b The source code builder.
+	 */
+	public static void putInputTableArgs(DLPythonSourceCodeBuilder b) {
+		b.a("input_table = ").a(COALESCED_INPUT).a(",").n();
+		b.a("output = ").a(COALESCED_OUTPUT).a(",").n();
+	}
+
+	private void closeIdle() {
+		long now = System.currentTimeMillis();
+		for (var byKey : models.values()) {
+			for (SharedModel model : byKey.values()) {
+				model.closeIfIdle(now);
+			}
+		}
+	}
+
+	/**
+	 * Closes the shared kernels and stops accepting requests.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		executor.shutdownNow();
+		for (var byKey : models.values()) {
+			for (SharedModel model : byKey.values()) {
+				model.closeIfIdle(Long.MAX_VALUE);
+			}
+		}
+	}
+
+	private static class Request {
+		private final String script;
+		private final int chunkSize;
+		private final BufferedDataTable table;
+		private final ExecutionContext exec;
+		private final long submitted = System.currentTimeMillis();
+
+		private volatile boolean done = false;
+		private volatile BufferedDataTable result;
+		private volatile Exception error;
+
+		Request(String script, int chunkSize, BufferedDataTable table, ExecutionContext exec) {
+			this.script = script;
+			this.chunkSize = chunkSize;
+			this.table = table;
+			this.exec = exec;
+		}
+
+		void complete(BufferedDataTable table) {
+			result = table;
+			done = true;
+		}
+
+		void fail(Exception e) {
+			error = e;
+			done = true;
+		}
+
+		BufferedDataTable getResult()
+				throws DLInvalidEnvironmentException, PythonIOException, CanceledExecutionException {
+			if (error instanceof DLInvalidEnvironmentException) {
+				throw (DLInvalidEnvironmentException) error;
+			} else if (error instanceof PythonIOException) {
+				throw (PythonIOException) error;
+			} else if (error instanceof CanceledExecutionException) {
+				throw (CanceledExecutionException) error;
+			} else if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			} else if (error != null) {
+				throw new IllegalStateException(error.getMessage(), error);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The kernel of one model and the requests waiting for it. The thread holding
+	 * the lock executes the waiting requests, the other threads wait for their
+	 * results.
+	 */
+	private static class SharedModel {
+		private final PythonCommand command;
+		private final String modelKey;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final LinkedList<Request> pending = new LinkedList<>();
+
+		private BertCommands commands;
+		private long lastUsed = System.currentTimeMillis();
+
+		SharedModel(PythonCommand command, String modelKey) {
+			this.command = command;
+			this.modelKey = modelKey;
+		}
+
+		BufferedDataTable execute(Request request)
+				throws DLInvalidEnvironmentException, PythonIOException, CanceledExecutionException {
+			synchronized (pending) {
+				pending.addLast(request);
+			}
+			try {
+				while (!request.done) {
+					request.exec.checkCanceled();
+					if (lock.tryLock(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+						try {
+							if (!request.done) {
+								executeNextGroup();
+							}
+						} finally {
+							lock.unlock();
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				remove(request);
+				throw new CanceledExecutionException("Interrupted while waiting for the shared model");
+			} catch (CanceledExecutionException e) {
+				remove(request);
+				throw e;
+			}
+			return request.getResult();
+		}
+
+		private void remove(Request request) {
+			synchronized (pending) {
+				pending.remove(request);
+			}
+		}
+
+		/**
+		 * Takes the first waiting request and the requests with the same script
+		 * waiting behind it.
+		 */
+		private List<Request> takeGroup() {
+			List<Request> group = new ArrayList<>();
+			synchronized (pending) {
+				Iterator<Request> it = pending.iterator();
+				while (it.hasNext() && group.size() < MAX_COALESCED_REQUESTS) {
+					Request r = it.next();
+					if (group.isEmpty() || r.script.equals(group.get(0).script)) {
+						group.add(r);
+						it.remove();
+					}
+				}
+			}
+			return group;
+		}
+
+		private long getWaitMillis() {
+			synchronized (pending) {
+				return pending.isEmpty() ? 0
+						: pending.getFirst().submitted + COALESCE_WINDOW_MILLIS - System.currentTimeMillis();
+			}
+		}
+
+		private void executeNextGroup() throws InterruptedException {
+			// gives the requests of the other nodes the chance to join
+			long wait = getWaitMillis();
+			if (wait > 0) {
+				Thread.sleep(wait);
+			}
+
+			List<Request> group = takeGroup();
+			if (group.isEmpty()) {
+				return;
+			}
+			LOGGER.debugWithFormat("Executing %d coalesced request(s) for %s", group.size(), modelKey);
+
+			ExecutionContext exec = group.get(0).exec;
+			try {
+				if (commands == null) {
+					commands = new BertCommands(command);
+				}
+				commands.setTableChunkSize(group.get(0).chunkSize);
+				commands.setExpectedOutputTables(group.size());
+				for (int i = 0; i < group.size(); i++) {
+					commands.putDataTable(i, group.get(i).table, group.get(i).exec.createSubProgress(0.1));
+				}
+				exec.setMessage("Calculate (shared by " + group.size() + " request(s))");
+				commands.executeInKernel(createPrelude(group.size(), group.get(0).chunkSize) + group.get(0).script,
+						exec.createSubProgress(0.8));
+			} catch (CanceledExecutionException e) {
+				// the requests that are not canceled are executed again by the next thread holding the lock
+				List<Request> remaining = new ArrayList<>();
+				for (Request r : group) {
+					if (isCanceled(r)) {
+						r.fail(e);
+					} else {
+						remaining.add(r);
+					}
+				}
+				requeue(remaining);
+				closeCommands();
+				return;
+			} catch (DLInvalidEnvironmentException | PythonIOException | RuntimeException e) {
+				group.forEach(r -> r.fail(e));
+				closeCommands();
+				return;
+			}
+
+			for (int i = 0; i < group.size(); i++) {
+				Request r = group.get(i);
+				try {
+					r.complete(commands.getDataTable(i, r.exec, r.exec.createSubProgress(0.1)));
+				} catch (CanceledExecutionException | PythonIOException | RuntimeException e) {
+					r.fail(e);
+				}
+			}
+			lastUsed = System.currentTimeMillis();
+		}
+
+		private static boolean isCanceled(Request request) {
+			try {
+				request.exec.checkCanceled();
+				return false;
+			} catch (CanceledExecutionException e) {
+				return true;
+			}
+		}
+
+		private void requeue(List<Request> requests) {
+			synchronized (pending) {
+				pending.addAll(0, requests);
+			}
+		}
+
+		private static String createPrelude(int numTables, int chunkSize) {
+			DLPythonSourceCodeBuilder b = DLPythonUtils.createSourceCodeBuilder("import Coalescing");
+			b.a(COALESCED_INPUT).a(" = Coalescing.CoalescedTable([knio.input_tables[i] for i in range(")
+					.a(numTables).a(")], ").a(chunkSize).a(")").n();
+			b.a(COALESCED_OUTPUT).a(" = Coalescing.CoalescedOutput(").a(COALESCED_INPUT).a(")").n();
+			return b.toString();
+		}
+
+		void closeIfIdle(long now) {
+			if (!lock.tryLock()) {
+				return;
+			}
+			try {
+				boolean idle;
+				synchronized (pending) {
+					idle = pending.isEmpty();
+				}
+				if (idle && commands != null && now - lastUsed > IDLE_TIMEOUT_MILLIS) {
+					LOGGER.debug("Closing the idle shared kernel of " + modelKey);
+					closeCommands();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void closeCommands() {
+			if (commands == null) {
+				return;
+			}
+			try {
+				commands.close();
+			} catch (PythonKernelCleanupException e) {
+				LOGGER.debug("Failed to close the shared Python kernel", e);
+			}
+			commands = null;
+		}
+	}
+}
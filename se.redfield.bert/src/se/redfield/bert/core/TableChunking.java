@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *  
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core;
+
+import se.redfield.bert.setting.PythonNodeSettings;
+
+/**
+ * Derives the number of rows per chunk of the tables transferred between KNIME
+ * and Python. The chunk size also determines how many rows the Python code
+ * processes at once, since it iterates over the batches of the input table, so
+ * it is derived from a byte budget and the estimated size of an input and an
+ * output row rather than fixed.
+ */
+public final class TableChunking {
+
+	/**
+	 * The chunk size used if no estimate is available.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+	/**
+	 * Hidden size assumed for estimates, the models' hidden size is not known on
+	 * the KNIME side. Matches BERT-base.
+	 */
+	public static final int ASSUMED_HIDDEN_SIZE = 768;
+
+	/**
+	 * Sequence length assumed for estimates if the texts are not truncated to a
+	 * configured length.
+	 */
+	public static final int ASSUMED_SEQ_LENGTH = 512;
+
+	private static final long TARGET_CHUNK_BYTES = 64L << 20;
+	private static final int MIN_CHUNK_SIZE = 100;
+	private static final int MAX_CHUNK_SIZE = 100000;
+
+	/**
+	 * Average size of the text of a token including the serialization overhead.
+	 */
+	private static final int TEXT_BYTES_PER_TOKEN = 8;
+	/**
+	 * Fixed per row overhead, e.g. the row key.
+	 */
+	private static final int ROW_OVERHEAD_BYTES = 64;
+
+	private TableChunking() {
+	}
+
+	/**
+	 * @param settings         The node settings, which may override the chunk
+	 *                         size.
+	 * @param estimatedRowBytes The estimated size of an input row plus the
+	 *                         corresponding output row in bytes.
+	 * @return The number of rows per chunk.
+	 */
+	public static int getChunkSize(PythonNodeSettings settings, long estimatedRowBytes) {
+		if (settings.getTableChunkSize() > 0) {
+			return settings.getTableChunkSize();
+		}
+		long rows = TARGET_CHUNK_BYTES / Math.max(1, estimatedRowBytes + ROW_OVERHEAD_BYTES);
+		return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, rows));
+	}
+
+	/**
+	 * @param maxSeqLength The max sequence length.
+	 * @return The estimated size of the text of a row that is tokenized with the
+	 *         given max sequence length. Longer texts are possible, but they are
+	 *         truncated anyway.
+	 */
+	public static long estimateTextBytes(int maxSeqLength) {
+		return (long) maxSeqLength * TEXT_BYTES_PER_TOKEN;
+	}
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import se.redfield.bert.nodes.port.BertModelType;
+
+/**
+ * Manifest of the models stored in the cache directory. Allows to verify a
+ * cached model by checking its files without loading the model.
+ */
+public class CacheManifest {
+	private static final String MANIFEST_FILE = "bert-cache-manifest.json";
+	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+	private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+	private final transient Path cacheDir;
+	private final Map<String, CacheEntry> entries;
+
+	private CacheManifest(Path cacheDir, Map<String, CacheEntry> entries) {
+		this.cacheDir = cacheDir;
+		this.entries = entries;
+	}
+
+	/**
+	 * Reads the manifest from the cache directory. Returns an empty manifest if
+	 * the cache directory does not contain one yet or if it cannot be parsed.
+	 *
+	 * @param cacheDir The cache directory.
+	 * @return The manifest.
+	 * @throws IOException
+	 */
+	public static CacheManifest load(Path cacheDir) throws IOException {
+		Path file = cacheDir.resolve(MANIFEST_FILE);
+		Map<String, CacheEntry> entries = new LinkedHashMap<>();
+		if (Files.exists(file)) {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				for (CacheEntry entry : read(reader)) {
+					entries.put(entry.getKey(), entry);
+				}
+			} catch (JsonParseException e) {
+				// a broken manifest only means the models have to be verified again
+			}
+		}
+		return new CacheManifest(cacheDir, entries);
+	}
+
+	/**
+	 * Writes the manifest into the cache directory.
+	 *
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		Files.createDirectories(cacheDir);
+		Path tmp = Files.createTempFile(cacheDir, MANIFEST_FILE, ".tmp");
+		try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			write(entries.values(), writer);
+		}
+		Files.move(tmp, cacheDir.resolve(MANIFEST_FILE), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads the entries in the manifest format.
+	 *
+	 * @param reader The reader.
+	 * @return The entries.
+	 */
+	static List<CacheEntry> read(Reader reader) {
+		CacheEntry[] loaded = GSON.fromJson(reader, CacheEntry[].class);
+		return loaded != null ? Arrays.asList(loaded) : Collections.emptyList();
+	}
+
+	/**
+	 * Writes the entries in the manifest format.
+	 *
+	 * @param entries The entries.
+	 * @param writer  The writer.
+	 */
+	static void write(Collection<CacheEntry> entries, Writer writer) {
+		GSON.toJson(entries.toArray(new CacheEntry[] {}), writer);
+	}
+
+	/**
+	 * @return The name of the manifest file.
+	 */
+	static String getFileName() {
+		return MANIFEST_FILE;
+	}
+
+	/**
+	 * Returns the object used to synchronize the operations on the given cache
+	 * directory within this process.
+	 *
+	 * @param cacheDir The cache directory.
+	 * @return The lock object.
+	 */
+	static Object getLock(Path cacheDir) {
+		return LOCKS.computeIfAbsent(cacheDir.toAbsolutePath().normalize(), p -> new Object());
+	}
+
+	/**
+	 * @param type   The model type.
+	 * @param handle The model handle.
+	 * @return The key identifying the model in the manifest.
+	 */
+	public static String createKey(BertModelType type, String handle) {
+		return type.getKey() + ":" + handle;
+	}
+
+	/**
+	 * @param key The entry key.
+	 * @return The entry for the given key.
+	 */
+	public Optional<CacheEntry> get(String key) {
+		return Optional.ofNullable(entries.get(key));
+	}
+
+	/**
+	 * Adds or replaces the entry.
+	 *
+	 * @param entry The entry.
+	 */
+	public void put(CacheEntry entry) {
+		entries.put(entry.getKey(), entry);
+	}
+
+	/**
+	 * @param key The entry key.
+	 * @return The removed entry or <code>null</code>.
+	 */
+	public CacheEntry remove(String key) {
+		return entries.remove(key);
+	}
+
+	/**
+	 * @return All the entries.
+	 */
+	public Collection<CacheEntry> getEntries() {
+		return entries.values();
+	}
+
+	/**
+	 * @return The cache directory.
+	 */
+	public Path getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * Cached model.
+	 */
+	public static class CacheEntry {
+		private String key;
+		private String type;
+		private String handle;
+		private String archiveSha256;
+		private List<CachedFile> files = new ArrayList<>();
+		private long lastAccess;
+
+		/**
+		 * Creates new instance.
+		 *
+		 * @param type   The model type.
+		 * @param handle The model handle.
+		 */
+		public CacheEntry(BertModelType type, String handle) {
+			this.key = createKey(type, handle);
+			this.type = type.getKey();
+			this.handle = handle;
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+		/**
+		 * @return The entry key.
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return The model type.
+		 */
+		public BertModelType getType() {
+			return BertModelType.valueOf(type);
+		}
+
+		/**
+		 * @return The model handle.
+		 */
+		public String getHandle() {
+			return handle;
+		}
+
+		/**
+		 * @return The SHA-256 of the downloaded archive, if the model was downloaded
+		 *         as an archive.
+		 */
+		public String getArchiveSha256() {
+			return archiveSha256;
+		}
+
+		void setArchiveSha256(String archiveSha256) {
+			this.archiveSha256 = archiveSha256;
+		}
+
+		/**
+		 * @return The files of the model.
+		 */
+		public List<CachedFile> getFiles() {
+			return files;
+		}
+
+		/**
+		 * @return The time of the last use of the model.
+		 */
+		public long getLastAccess() {
+			return lastAccess;
+		}
+
+		/**
+		 * Updates the time of the last use of the model.
+		 */
+		public void touch() {
+			lastAccess = System.currentTimeMillis();
+		}
+
+		/**
+		 * @return The total size of the model files in bytes.
+		 */
+		public long getSize() {
+			return files.stream().mapToLong(CachedFile::getSize).sum();
+		}
+
+		/**
+		 * Checks that all the files of the model exist and have the expected size.
+		 *
+		 * @param cacheDir The cache directory.
+		 * @return Whether the cached model is complete.
+		 */
+		public boolean isValid(Path cacheDir) {
+			if (files.isEmpty()) {
+				return false;
+			}
+			for (CachedFile file : files) {
+				Path path = cacheDir.resolve(file.getPath());
+				try {
+					if (!Files.isRegularFile(path) || Files.size(path) != file.getSize()) {
+						return false;
+					}
+				} catch (IOException e) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * File belonging to a cached model.
+	 */
+	public static class CachedFile {
+		private String path;
+		private long size;
+		private String sha256;
+
+		/**
+		 * @param path   The path relative to the cache directory.
+		 * @param size   The file size.
+		 * @param sha256 The SHA-256 of the file content, may be <code>null</code>.
+		 */
+		public CachedFile(String path, long size, String sha256) {
+			this.path = path;
+			this.size = size;
+			this.sha256 = sha256;
+		}
+
+		/**
+		 * @return The path relative to the cache directory.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return The file size.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return The SHA-256 of the file content, may be <code>null</code>.
+		 */
+		public String getSha256() {
+			return sha256;
+		}
+	}
+}
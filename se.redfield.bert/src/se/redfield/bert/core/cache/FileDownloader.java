@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+
+/**
+ * Resumable HTTP file download. The content is downloaded into a
+ * <code>.incomplete</code> file next to the target which is renamed once the
+ * download is finished, so that an interrupted download continues where it
+ * stopped.
+ */
+final class FileDownloader {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int TIMEOUT_MILLIS = 30000;
+	private static final String INCOMPLETE_SUFFIX = ".incomplete";
+
+	private FileDownloader() {
+	}
+
+	/**
+	 * Downloads the URL content into the target file.
+	 *
+	 * @param url    The URL.
+	 * @param target The target file.
+	 * @param exec   The execution monitor used for cancellation.
+	 * @return The hex encoded SHA-256 of the file content.
+	 * @throws IOException
+	 * @throws CanceledExecutionException
+	 */
+	static String download(URL url, Path target, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		Path part = target.resolveSibling(target.getFileName() + INCOMPLETE_SUFFIX);
+		long existing = Files.exists(part) ? Files.size(part) : 0;
+
+		MessageDigest digest = createDigest("SHA-256");
+		HttpURLConnection conn = open(url, "GET");
+		if (existing > 0) {
+			conn.setRequestProperty("Range", "bytes=" + existing + "-");
+		}
+
+		int code = conn.getResponseCode();
+		boolean append;
+		if (code == HttpURLConnection.HTTP_PARTIAL && existing > 0) {
+			append = true;
+			update(digest, part);
+		} else if (code == HttpURLConnection.HTTP_OK) {
+			append = false;
+		} else if (code == 416 && existing > 0) {
+			// range not satisfiable, the partial file is broken
+			conn.disconnect();
+			Files.delete(part);
+			return download(url, target, exec);
+		} else {
+			conn.disconnect();
+			throw new IOException("Failed to download " + url + ": HTTP " + code);
+		}
+
+		try (InputStream in = conn.getInputStream();
+				OutputStream out = append ? Files.newOutputStream(part, StandardOpenOption.APPEND)
+						: Files.newOutputStream(part)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				exec.checkCanceled();
+				out.write(buffer, 0, read);
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			conn.disconnect();
+		}
+
+		Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Performs the HEAD request without following redirects.
+	 *
+	 * @param url The URL.
+	 * @return The connection holding the response headers.
+	 * @throws IOException
+	 */
+	static HttpURLConnection head(URL url) throws IOException {
+		HttpURLConnection conn = open(url, "HEAD");
+		conn.setInstanceFollowRedirects(false);
+		int code = conn.getResponseCode();
+		if (code >= 400) {
+			conn.disconnect();
+			throw new IOException("Failed to access " + url + ": HTTP " + code);
+		}
+		return conn;
+	}
+
+	/**
+	 * Reads the URL content as a string.
+	 *
+	 * @param url The URL.
+	 * @return The content.
+	 * @throws IOException
+	 */
+	static String read(URL url) throws IOException {
+		HttpURLConnection conn = open(url, "GET");
+		try {
+			int code = conn.getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Failed to access " + url + ": HTTP " + code);
+			}
+			try (InputStream in = conn.getInputStream()) {
+				return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			}
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	private static HttpURLConnection open(URL url, String method) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestMethod(method);
+		conn.setConnectTimeout(TIMEOUT_MILLIS);
+		conn.setReadTimeout(TIMEOUT_MILLIS);
+		return conn;
+	}
+
+	/**
+	 * @param file The file.
+	 * @return The hex encoded git blob hash (SHA-1 of the header and the content)
+	 *         of the file.
+	 * @throws IOException
+	 */
+	static String gitBlobSha1(Path file) throws IOException {
+		MessageDigest digest = createDigest("SHA-1");
+		digest.update(("blob " + Files.size(file) + "\0").getBytes(StandardCharsets.UTF_8));
+		update(digest, file);
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @param value The string.
+	 * @return The hex encoded SHA-256 of the UTF-8 encoded string.
+	 */
+	static String sha256(String value) {
+		return toHex(createDigest("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @param value The string.
+	 * @return The hex encoded SHA-1 of the UTF-8 encoded string.
+	 */
+	static String sha1(String value) {
+		return toHex(createDigest("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static void update(MessageDigest digest, Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+	}
+
+	private static MessageDigest createDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import se.redfield.bert.core.cache.CacheManifest.CacheEntry;
+import se.redfield.bert.core.cache.CacheManifest.CachedFile;
+import se.redfield.bert.nodes.port.BertModelType;
+
+/**
+ * Downloads the files of a Hugging Face model into the cache directory. The
+ * files are stored the same way <code>transformers</code> stores them, so the
+ * model is loaded from the cache once it is needed in Python.
+ */
+class HuggingFaceDownloader {
+	private static final String ENDPOINT_ENV = "HUGGINGFACE_CO_RESOLVE_ENDPOINT";
+	private static final String DEFAULT_ENDPOINT = "https://huggingface.co";
+	private static final int PARALLEL_DOWNLOADS = 4;
+
+	private static final String CONFIG_FILE = "config.json";
+	private static final String WEIGHTS_FILE = "tf_model.h5";
+	private static final Set<String> MODEL_FILES = new HashSet<>(Arrays.asList(CONFIG_FILE, WEIGHTS_FILE,
+			"vocab.txt", "vocab.json", "merges.txt", "tokenizer.json", "tokenizer_config.json",
+			"special_tokens_map.json", "added_tokens.json", "spiece.model", "sentencepiece.bpe.model"));
+
+	private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+	private static final Pattern GIT_SHA1 = Pattern.compile("[0-9a-f]{40}");
+
+	private static final Gson GSON = new Gson();
+
+	/**
+	 * Downloads the model files missing in the cache.
+	 *
+	 * @param modelId  The model id.
+	 * @param cacheDir The cache directory.
+	 * @param exec     The execution monitor.
+	 * @return The cache entry describing the model files.
+	 * @throws IOException
+	 * @throws CanceledExecutionException
+	 */
+	CacheEntry download(String modelId, Path cacheDir, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		List<String> files = listFiles(modelId);
+		Files.createDirectories(cacheDir);
+
+		CacheEntry entry = new CacheEntry(BertModelType.HUGGING_FACE, modelId);
+		AtomicInteger done = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(PARALLEL_DOWNLOADS, files.size()));
+		try {
+			List<Future<List<CachedFile>>> futures = new ArrayList<>();
+			for (String file : files) {
+				futures.add(executor.submit(() -> {
+					List<CachedFile> cached = downloadFile(modelId, file, cacheDir, exec);
+					exec.setProgress((double) done.incrementAndGet() / files.size(), "Downloaded " + file);
+					return cached;
+				}));
+			}
+			for (Future<List<CachedFile>> future : futures) {
+				entry.getFiles().addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CanceledExecutionException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CanceledExecutionException) {
+				throw (CanceledExecutionException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		} finally {
+			executor.shutdownNow();
+		}
+		return entry;
+	}
+
+	private static List<String> listFiles(String modelId) throws IOException {
+		String json = FileDownloader.read(new URL(getEndpoint() + "/api/models/" + modelId));
+		JsonObject info = GSON.fromJson(json, JsonObject.class);
+
+		List<String> files = new ArrayList<>();
+		info.getAsJsonArray("siblings").forEach(s -> {
+			String name = s.getAsJsonObject().get("rfilename").getAsString();
+			if (MODEL_FILES.contains(name)) {
+				files.add(name);
+			}
+		});
+
+		if (!files.contains(CONFIG_FILE) || !files.contains(WEIGHTS_FILE)) {
+			throw new IOException("Model " + modelId + " does not provide TensorFlow weights");
+		}
+		return files;
+	}
+
+	/**
+	 * Downloads the file unless it is already cached.
+	 *
+	 * @return The downloaded file and its metadata file.
+	 */
+	private static List<CachedFile> downloadFile(String modelId, String file, Path cacheDir, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		String url = getEndpoint() + "/" + modelId + "/resolve/main/" + file;
+		String etag = getEtag(new URL(url));
+
+		String name = toCacheFilename(url, etag);
+		Path target = cacheDir.resolve(name);
+		Path meta = cacheDir.resolve(name + ".json");
+		if (Files.isRegularFile(target) && Files.exists(meta)) {
+			return Arrays.asList(new CachedFile(name, Files.size(target), null), toCachedFile(cacheDir, meta));
+		}
+
+		String sha256 = FileDownloader.download(new URL(url), target, exec);
+		verify(target, etag, sha256);
+
+		JsonObject metadata = new JsonObject();
+		metadata.addProperty("url", url);
+		metadata.addProperty("etag", etag);
+		try (Writer writer = Files.newBufferedWriter(meta, StandardCharsets.UTF_8)) {
+			GSON.toJson(metadata, writer);
+		}
+		return Arrays.asList(new CachedFile(name, Files.size(target), sha256), toCachedFile(cacheDir, meta));
+	}
+
+	private static CachedFile toCachedFile(Path cacheDir, Path file) throws IOException {
+		return new CachedFile(cacheDir.relativize(file).toString(), Files.size(file), null);
+	}
+
+	private static String getEtag(URL url) throws IOException {
+		HttpURLConnection conn = FileDownloader.head(url);
+		try {
+			String etag = conn.getHeaderField("X-Linked-Etag");
+			if (etag == null) {
+				etag = conn.getHeaderField("ETag");
+			}
+			if (etag == null) {
+				throw new IOException("Server did not return an ETag for " + url);
+			}
+			return etag;
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Checks the downloaded file against the ETag, which is the SHA-256 of the
+	 * content for LFS files and the git blob hash for regular files.
+	 */
+	static void verify(Path file, String etag, String sha256) throws IOException {
+		String hash = etag.replaceFirst("^W/", "").replace("\"", "");
+		boolean valid = true;
+		if (SHA256.matcher(hash).matches()) {
+			valid = hash.equals(sha256);
+		} else if (GIT_SHA1.matcher(hash).matches()) {
+			valid = hash.equals(FileDownloader.gitBlobSha1(file));
+		}
+
+		if (!valid) {
+			Files.delete(file);
+			throw new IOException("Checksum mismatch for " + file.getFileName());
+		}
+	}
+
+	/**
+	 * Same as <code>transformers.file_utils.url_to_filename</code>.
+	 */
+	private static String toCacheFilename(String url, String etag) {
+		String name = FileDownloader.sha256(url) + "." + FileDownloader.sha256(etag);
+		if (url.endsWith(".h5")) {
+			name += ".h5";
+		}
+		return name;
+	}
+
+	private static String getEndpoint() {
+		String endpoint = System.getenv(ENDPOINT_ENV);
+		return endpoint != null && !endpoint.isEmpty() ? endpoint : DEFAULT_ENDPOINT;
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.knime.core.node.ExecutionMonitor;
+
+import se.redfield.bert.core.cache.CacheManifest.CacheEntry;
+import se.redfield.bert.nodes.port.BertModelType;
+import se.redfield.bert.prefs.BertPreferences;
+
+/**
+ * Headless application managing the model cache, e.g. to pre-seed the cache of
+ * a server without internet access:
+ *
+ * <pre>
+ * knime -nosplash -consoleLog -application se.redfield.bert.ModelCache [-cacheDir &lt;dir&gt;] &lt;command&gt;
+ *
+ *   list                                   list the cached models and their size
+ *   download TFHUB|HUGGING_FACE &lt;handle&gt;   download a model into the cache
+ *   export &lt;archive&gt; [&lt;handle&gt; ...]        export the models (all if none given)
+ *   import &lt;archive&gt;                       import previously exported models
+ *   evict &lt;handle&gt; ...                     remove the models from the cache
+ *   quota &lt;megabytes&gt;                      remove the least recently used models above the quota
+ * </pre>
+ *
+ * The cache directory configured on the preference page is used by default.
+ */
+public class ModelCacheApplication implements IApplication {
+	private static final Integer EXIT_ERROR = 1;
+	private static final String CACHE_DIR_ARG = "-cacheDir";
+
+	private final PrintStream out = System.out;
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] rawArgs = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		LinkedList<String> args = new LinkedList<>(Arrays.asList(rawArgs != null ? rawArgs : new String[0]));
+
+		Path cacheDir = Paths.get(BertPreferences.getCacheDir());
+		int idx = args.indexOf(CACHE_DIR_ARG);
+		if (idx >= 0 && idx + 1 < args.size()) {
+			cacheDir = Paths.get(args.get(idx + 1));
+			args.remove(idx + 1);
+			args.remove(idx);
+		}
+
+		if (args.isEmpty()) {
+			return usage();
+		}
+
+		try {
+			return run(cacheDir, args.poll(), args);
+		} catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			return EXIT_ERROR;
+		}
+	}
+
+	private Object run(Path cacheDir, String command, List<String> args) throws Exception {
+		ExecutionMonitor exec = new ExecutionMonitor();
+		switch (command) {
+		case "list":
+			list(cacheDir);
+			break;
+		case "download":
+			if (args.size() != 2) {
+				return usage();
+			}
+			BertModelType type = BertModelType.valueOf(args.get(0));
+			String handle = args.get(1);
+			CacheEntry downloaded = ModelDownloadManager.download(type, handle, cacheDir, exec);
+			synchronized (CacheManifest.getLock(cacheDir)) {
+				CacheManifest manifest = CacheManifest.load(cacheDir);
+				manifest.put(downloaded);
+				manifest.save();
+			}
+			out.println("Downloaded " + handle + " (" + ModelCacheManager.formatSize(downloaded.getSize()) + ")");
+			break;
+		case "export":
+			if (args.isEmpty()) {
+				return usage();
+			}
+			Path archive = Paths.get(args.get(0));
+			List<CacheEntry> entries = ModelCacheManager.index(cacheDir);
+			List<String> keys = new ArrayList<>();
+			if (args.size() == 1) {
+				entries.forEach(e -> keys.add(e.getKey()));
+			} else {
+				for (String h : args.subList(1, args.size())) {
+					keys.add(ModelCacheManager.findKey(entries, h)
+							.orElseThrow(() -> new IllegalArgumentException("Model is not in the cache: " + h)));
+				}
+			}
+			ModelCacheManager.exportBundle(cacheDir, keys, archive, exec);
+			out.println("Exported " + keys.size() + " model(s) to " + archive);
+			break;
+		case "import":
+			if (args.size() != 1) {
+				return usage();
+			}
+			for (CacheEntry entry : ModelCacheManager.importBundle(cacheDir, Paths.get(args.get(0)), exec)) {
+				out.println("Imported " + entry.getHandle());
+			}
+			break;
+		case "evict":
+			if (args.isEmpty()) {
+				return usage();
+			}
+			List<CacheEntry> cached = ModelCacheManager.index(cacheDir);
+			for (String h : args) {
+				String key = ModelCacheManager.findKey(cached, h)
+						.orElseThrow(() -> new IllegalArgumentException("Model is not in the cache: " + h));
+				ModelCacheManager.evict(cacheDir, key);
+				out.println("Removed " + h);
+			}
+			break;
+		case "quota":
+			if (args.size() != 1) {
+				return usage();
+			}
+			ModelCacheManager.index(cacheDir);
+			long maxBytes = Long.parseLong(args.get(0)) * 1024 * 1024;
+			for (CacheEntry entry : ModelCacheManager.evictToQuota(cacheDir, maxBytes, null)) {
+				out.println("Removed " + entry.getHandle());
+			}
+			break;
+		default:
+			return usage();
+		}
+		return EXIT_OK;
+	}
+
+	private void list(Path cacheDir) throws Exception {
+		List<CacheEntry> entries = ModelCacheManager.index(cacheDir);
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		long total = 0;
+		out.println("Cache directory: " + cacheDir);
+		for (CacheEntry entry : entries) {
+			out.println(String.format("%-12s %10s  %s  %s", entry.getType().getKey(),
+					ModelCacheManager.formatSize(entry.getSize()), format.format(new Date(entry.getLastAccess())),
+					entry.getHandle()));
+			total += entry.getSize();
+		}
+		out.println(entries.size() + " model(s), " + ModelCacheManager.formatSize(total));
+	}
+
+	private Object usage() {
+		out.println("Usage: -application se.redfield.bert.ModelCache [-cacheDir <dir>] <command>");
+		out.println("  list");
+		out.println("  download TFHUB|HUGGING_FACE <handle>");
+		out.println("  export <archive> [<handle> ...]");
+		out.println("  import <archive>");
+		out.println("  evict <handle> ...");
+		out.println("  quota <megabytes>");
+		return EXIT_ERROR;
+	}
+
+	@Override
+	public void stop() {
+		// nothing to stop
+	}
+}
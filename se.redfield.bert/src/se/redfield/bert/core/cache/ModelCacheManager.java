@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+
+import com.google.common.io.CountingInputStream;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import se.redfield.bert.core.cache.CacheManifest.CacheEntry;
+import se.redfield.bert.core.cache.CacheManifest.CachedFile;
+import se.redfield.bert.nodes.port.BertModelType;
+
+/**
+ * Maintenance operations on a model cache directory: indexing, moving models
+ * between machines as a single archive and eviction. Used by the preference
+ * page and by the headless {@link ModelCacheApplication}.
+ */
+public final class ModelCacheManager {
+	private static final Pattern HF_META_FILE = Pattern.compile("[0-9a-f]{64}\\.[0-9a-f]{64}(\\.h5)?\\.json");
+	private static final Pattern HF_URL = Pattern.compile("^https?://[^/]+/(.+)/resolve/[^/]+/[^/]+$");
+
+	private static final Gson GSON = new Gson();
+
+	private ModelCacheManager() {
+	}
+
+	/**
+	 * Indexes the cache directory. Models stored by <code>tensorflow_hub</code> or
+	 * <code>transformers</code> without the manifest are added to it, entries
+	 * whose files are gone are removed.
+	 *
+	 * @param cacheDir The cache directory.
+	 * @return The cached models ordered from the most recently used one.
+	 * @throws IOException
+	 */
+	public static List<CacheEntry> index(Path cacheDir) throws IOException {
+		synchronized (CacheManifest.getLock(cacheDir)) {
+			CacheManifest manifest = CacheManifest.load(cacheDir);
+			if (Files.isDirectory(cacheDir)) {
+				indexTFHubModules(manifest);
+				indexHuggingFaceFiles(manifest);
+			}
+			List<String> missing = manifest.getEntries().stream().filter(e -> !hasAnyFile(cacheDir, e))
+					.map(CacheEntry::getKey).collect(Collectors.toList());
+			missing.forEach(manifest::remove);
+			if (Files.isDirectory(cacheDir)) {
+				manifest.save();
+			}
+
+			return manifest.getEntries().stream()
+					.sorted(Comparator.comparingLong(CacheEntry::getLastAccess).reversed())
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static void indexTFHubModules(CacheManifest manifest) throws IOException {
+		Path cacheDir = manifest.getCacheDir();
+		try (Stream<Path> files = Files.list(cacheDir)) {
+			for (Path descriptor : files.filter(f -> f.getFileName().toString().endsWith(TFHubDownloader.DESCRIPTOR_SUFFIX))
+					.collect(Collectors.toList())) {
+				String fileName = descriptor.getFileName().toString();
+				Path moduleDir = cacheDir
+						.resolve(fileName.substring(0, fileName.length() - TFHubDownloader.DESCRIPTOR_SUFFIX.length()));
+				Optional<String> handle = readModuleHandle(descriptor);
+				if (handle.isEmpty() || !Files.isDirectory(moduleDir)
+						|| manifest.get(CacheManifest.createKey(BertModelType.TFHUB, handle.get())).isPresent()) {
+					continue;
+				}
+
+				CacheEntry entry = new CacheEntry(BertModelType.TFHUB, handle.get());
+				entry.getFiles().addAll(TFHubDownloader.listFiles(cacheDir, moduleDir));
+				entry.getFiles().add(TFHubDownloader.toCachedFile(cacheDir, descriptor));
+				manifest.put(entry);
+			}
+		}
+	}
+
+	private static Optional<String> readModuleHandle(Path descriptor) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(descriptor, StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			if (line != null && line.startsWith("Module: ")) {
+				return Optional.of(line.substring("Module: ".length()).trim());
+			}
+		}
+		return Optional.empty();
+	}
+
+	private static void indexHuggingFaceFiles(CacheManifest manifest) throws IOException {
+		Path cacheDir = manifest.getCacheDir();
+		Map<String, CacheEntry> found = new LinkedHashMap<>();
+		try (Stream<Path> files = Files.list(cacheDir)) {
+			for (Path meta : files.filter(f -> HF_META_FILE.matcher(f.getFileName().toString()).matches())
+					.collect(Collectors.toList())) {
+				Optional<String> modelId = readModelId(meta);
+				String metaName = meta.getFileName().toString();
+				Path blob = cacheDir.resolve(metaName.substring(0, metaName.length() - ".json".length()));
+				if (modelId.isEmpty() || !Files.isRegularFile(blob)
+						|| manifest.get(CacheManifest.createKey(BertModelType.HUGGING_FACE, modelId.get())).isPresent()) {
+					continue;
+				}
+
+				CacheEntry entry = found.computeIfAbsent(modelId.get(),
+						id -> new CacheEntry(BertModelType.HUGGING_FACE, id));
+				entry.getFiles().add(TFHubDownloader.toCachedFile(cacheDir, blob));
+				entry.getFiles().add(TFHubDownloader.toCachedFile(cacheDir, meta));
+			}
+		}
+		found.values().forEach(manifest::put);
+	}
+
+	private static Optional<String> readModelId(Path meta) throws IOException {
+		try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+			JsonObject json = GSON.fromJson(reader, JsonObject.class);
+			if (json != null && json.has("url")) {
+				Matcher m = HF_URL.matcher(json.get("url").getAsString());
+				if (m.matches()) {
+					return Optional.of(m.group(1));
+				}
+			}
+		} catch (JsonParseException e) {
+			// not a transformers metadata file
+		}
+		return Optional.empty();
+	}
+
+	private static boolean hasAnyFile(Path cacheDir, CacheEntry entry) {
+		return entry.getFiles().stream().anyMatch(f -> Files.exists(cacheDir.resolve(f.getPath())));
+	}
+
+	/**
+	 * Exports the models into a single zip archive that can be imported into
+	 * another cache directory with {@link #importBundle(Path, Path, ExecutionMonitor)}.
+	 *
+	 * @param cacheDir The cache directory.
+	 * @param keys     The keys of the models to export.
+	 * @param archive  The archive to create.
+	 * @param exec     The execution monitor.
+	 * @throws IOException
+	 * @throws CanceledExecutionException
+	 */
+	public static void exportBundle(Path cacheDir, Collection<String> keys, Path archive, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		synchronized (CacheManifest.getLock(cacheDir)) {
+			CacheManifest manifest = CacheManifest.load(cacheDir);
+			List<CacheEntry> entries = new ArrayList<>();
+			for (String key : keys) {
+				CacheEntry entry = manifest.get(key)
+						.orElseThrow(() -> new IOException("Model is not in the cache: " + key));
+				if (!entry.isValid(cacheDir)) {
+					throw new IOException("Cached files are incomplete: " + entry.getHandle());
+				}
+				entries.add(entry);
+			}
+
+			try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+				writeBundle(cacheDir, entries, out, exec);
+			} catch (IOException | CanceledExecutionException e) {
+				Files.deleteIfExists(archive);
+				throw e;
+			}
+		}
+	}
+
+	private static void writeBundle(Path cacheDir, List<CacheEntry> entries, ZipOutputStream out,
+			ExecutionMonitor exec) throws IOException, CanceledExecutionException {
+		out.putNextEntry(new ZipEntry(CacheManifest.getFileName()));
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		CacheManifest.write(entries, writer);
+		writer.flush();
+		out.closeEntry();
+
+		long total = entries.stream().mapToLong(CacheEntry::getSize).sum();
+		long written = 0;
+		for (CacheEntry entry : entries) {
+			exec.setMessage("Exporting " + entry.getHandle());
+			for (CachedFile file : entry.getFiles()) {
+				exec.checkCanceled();
+				out.putNextEntry(new ZipEntry(file.getPath().replace('\\', '/')));
+				Files.copy(cacheDir.resolve(file.getPath()), out);
+				out.closeEntry();
+				written += file.getSize();
+				exec.setProgress(total > 0 ? (double) written / total : 1.0);
+			}
+		}
+	}
+
+	/**
+	 * Imports models exported by
+	 * {@link #exportBundle(Path, Collection, Path, ExecutionMonitor)} into the cache
+	 * directory.
+	 *
+	 * @param cacheDir The cache directory.
+	 * @param archive  The archive.
+	 * @param exec     The execution monitor.
+	 * @return The imported models.
+	 * @throws IOException
+	 * @throws CanceledExecutionException
+	 */
+	public static List<CacheEntry> importBundle(Path cacheDir, Path archive, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		synchronized (CacheManifest.getLock(cacheDir)) {
+			Path root = cacheDir.toAbsolutePath().normalize();
+			Files.createDirectories(root);
+			List<CacheEntry> imported = new ArrayList<>();
+
+			long archiveSize = Files.size(archive);
+			exec.setMessage("Importing " + archive.getFileName());
+			try (CountingInputStream counter = new CountingInputStream(Files.newInputStream(archive));
+					ZipInputStream in = new ZipInputStream(counter)) {
+				ZipEntry zipEntry;
+				while ((zipEntry = in.getNextEntry()) != null) {
+					exec.checkCanceled();
+					exec.setProgress(archiveSize > 0 ? (double) counter.getCount() / archiveSize : 0);
+					if (CacheManifest.getFileName().equals(zipEntry.getName())) {
+						imported.addAll(CacheManifest.read(new InputStreamReader(in, StandardCharsets.UTF_8) {
+							@Override
+							public void close() {
+								// keep the zip stream open
+							}
+						}));
+					} else if (!zipEntry.isDirectory()) {
+						extract(in, root, zipEntry.getName(), exec);
+					}
+				}
+			}
+
+			if (imported.isEmpty()) {
+				throw new IOException("The archive does not contain a model cache manifest: " + archive);
+			}
+
+			CacheManifest manifest = CacheManifest.load(cacheDir);
+			for (CacheEntry entry : imported) {
+				if (!entry.isValid(cacheDir)) {
+					throw new IOException("The archive is incomplete: " + entry.getHandle());
+				}
+				entry.touch();
+				manifest.put(entry);
+			}
+			manifest.save();
+			return imported;
+		}
+	}
+
+	private static void extract(InputStream in, Path root, String name, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		Path target = root.resolve(name).normalize();
+		if (!target.startsWith(root)) {
+			throw new IOException("Archive entry is outside of the cache directory: " + name);
+		}
+		Files.createDirectories(target.getParent());
+		Path tmp = target.resolveSibling(target.getFileName() + ".incomplete");
+		try (OutputStream out = Files.newOutputStream(tmp)) {
+			// copied in chunks so that large weight files can be canceled
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				exec.checkCanceled();
+				out.write(buffer, 0, read);
+			}
+		} catch (IOException | CanceledExecutionException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Removes the model from the cache directory.
+	 *
+	 * @param cacheDir The cache directory.
+	 * @param key      The model key.
+	 * @return The removed model or <code>null</code> if it is not cached.
+	 * @throws IOException
+	 */
+	public static CacheEntry evict(Path cacheDir, String key) throws IOException {
+		synchronized (CacheManifest.getLock(cacheDir)) {
+			CacheManifest manifest = CacheManifest.load(cacheDir);
+			CacheEntry entry = manifest.remove(key);
+			if (entry != null) {
+				deleteFiles(cacheDir, entry);
+				manifest.save();
+			}
+			return entry;
+		}
+	}
+
+	/**
+	 * Removes the least recently used models until the cache size does not exceed
+	 * the quota.
+	 *
+	 * @param cacheDir The cache directory.
+	 * @param maxBytes The quota in bytes.
+	 * @param keep     The key of a model that must not be removed, may be
+	 *                 <code>null</code>.
+	 * @return The removed models.
+	 * @throws IOException
+	 */
+	public static List<CacheEntry> evictToQuota(Path cacheDir, long maxBytes, String keep) throws IOException {
+		synchronized (CacheManifest.getLock(cacheDir)) {
+			CacheManifest manifest = CacheManifest.load(cacheDir);
+			long size = manifest.getEntries().stream().mapToLong(CacheEntry::getSize).sum();
+			List<CacheEntry> candidates = manifest.getEntries().stream().filter(e -> !e.getKey().equals(keep))
+					.sorted(Comparator.comparingLong(CacheEntry::getLastAccess)).collect(Collectors.toList());
+
+			List<CacheEntry> evicted = new ArrayList<>();
+			for (CacheEntry entry : candidates) {
+				if (size <= maxBytes) {
+					break;
+				}
+				deleteFiles(cacheDir, entry);
+				manifest.remove(entry.getKey());
+				size -= entry.getSize();
+				evicted.add(entry);
+			}
+			if (!evicted.isEmpty()) {
+				manifest.save();
+			}
+			return evicted;
+		}
+	}
+
+	private static void deleteFiles(Path cacheDir, CacheEntry entry) throws IOException {
+		for (CachedFile file : entry.getFiles()) {
+			Files.deleteIfExists(cacheDir.resolve(file.getPath()));
+		}
+		if (entry.getType() == BertModelType.TFHUB) {
+			TFHubDownloader.deleteRecursively(cacheDir.resolve(FileDownloader.sha1(entry.getHandle())));
+		}
+	}
+
+	/**
+	 * Finds the cached model by its key or handle.
+	 *
+	 * @param entries     The cached models.
+	 * @param keyOrHandle The model key or handle.
+	 * @return The model key.
+	 */
+	public static Optional<String> findKey(Collection<CacheEntry> entries, String keyOrHandle) {
+		return entries.stream().filter(e -> e.getKey().equals(keyOrHandle) || e.getHandle().equals(keyOrHandle))
+				.map(CacheEntry::getKey).findFirst();
+	}
+
+	/**
+	 * @param bytes The size in bytes.
+	 * @return Human readable size.
+	 */
+	public static String formatSize(long bytes) {
+		if (bytes < 1024) {
+			return bytes + " B";
+		}
+		String[] units = { "KB", "MB", "GB", "TB" };
+		double value = bytes;
+		int unit = -1;
+		while (value >= 1024 && unit < units.length - 1) {
+			value /= 1024;
+			unit++;
+		}
+		return String.format("%.1f %s", value, units[unit]);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.NodeLogger;
+
+import se.redfield.bert.core.cache.CacheManifest.CacheEntry;
+import se.redfield.bert.nodes.port.BertModelConfig;
+import se.redfield.bert.nodes.port.BertModelType;
+import se.redfield.bert.prefs.BertPreferences;
+import se.redfield.bert.setting.model.BertModelSelectionMode;
+
+/**
+ * Makes the selected models available in the cache directory without loading
+ * them. Cached models are verified against the {@link CacheManifest}, missing
+ * ones are downloaded directly into the layout used by
+ * <code>tensorflow_hub</code> and <code>transformers</code>.
+ */
+public final class ModelDownloadManager {
+	private static final NodeLogger LOGGER = NodeLogger.getLogger(ModelDownloadManager.class);
+
+	private ModelDownloadManager() {
+	}
+
+	/**
+	 * Ensures the model is present in the cache directory. Returns
+	 * <code>false</code> if the model cannot be handled by the manager, in which
+	 * case the caller should load the model in Python instead.
+	 *
+	 * @param model The model.
+	 * @param exec  The execution monitor.
+	 * @return Whether the model is available in the cache directory.
+	 * @throws CanceledExecutionException
+	 */
+	public static boolean ensureAvailable(BertModelConfig model, ExecutionMonitor exec)
+			throws CanceledExecutionException {
+		String cacheDirPath = model.getCacheDir();
+		if (cacheDirPath == null || cacheDirPath.isEmpty() || !isSupported(model)) {
+			return false;
+		}
+
+		Path cacheDir = Paths.get(cacheDirPath);
+		String handle = model.getHandle();
+		String key = CacheManifest.createKey(model.getType(), handle);
+
+		// models in the same cache directory are downloaded one at a time
+		synchronized (CacheManifest.getLock(cacheDir)) {
+			try {
+				CacheManifest manifest = CacheManifest.load(cacheDir);
+				Optional<CacheEntry> cached = manifest.get(key);
+				if (cached.isPresent() && cached.get().isValid(cacheDir)) {
+					cached.get().touch();
+					manifest.save();
+					LOGGER.debug("Model " + handle + " verified by the cache manifest");
+					return true;
+				}
+
+				CacheEntry entry = download(model.getType(), handle, cacheDir, exec);
+				manifest.put(entry);
+				manifest.save();
+				applyQuota(cacheDir, key);
+				return true;
+			} catch (IOException e) {
+				LOGGER.warn("Failed to download " + handle + ", falling back to loading the model in Python: "
+						+ e.getMessage(), e);
+				return false;
+			}
+		}
+	}
+
+	private static void applyQuota(Path cacheDir, String key) throws IOException {
+		long quota = BertPreferences.getCacheQuotaMegabytes();
+		if (quota > 0) {
+			for (CacheEntry evicted : ModelCacheManager.evictToQuota(cacheDir, quota * 1024 * 1024, key)) {
+				LOGGER.info("Removed " + evicted.getHandle() + " from the model cache to stay within the quota");
+			}
+		}
+	}
+
+	/**
+	 * Marks the model as used in the cache manifest, e.g. when a classifier that
+	 * references the pretrained weights instead of storing them is written. Does
+	 * nothing for models not handled by the manager.
+	 *
+	 * @param model The model.
+	 */
+	public static void touch(BertModelConfig model) {
+		String cacheDirPath = model.getCacheDir();
+		if (cacheDirPath == null || cacheDirPath.isEmpty() || !isSupported(model)) {
+			return;
+		}
+
+		Path cacheDir = Paths.get(cacheDirPath);
+		synchronized (CacheManifest.getLock(cacheDir)) {
+			try {
+				CacheManifest manifest = CacheManifest.load(cacheDir);
+				Optional<CacheEntry> cached = manifest.get(CacheManifest.createKey(model.getType(), model.getHandle()));
+				if (cached.isPresent()) {
+					cached.get().touch();
+					manifest.save();
+				}
+			} catch (IOException e) {
+				LOGGER.warn("Failed to update the cache manifest for " + model.getHandle() + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private static boolean isSupported(BertModelConfig model) {
+		String mode = model.getMode();
+		if (BertModelSelectionMode.LOCAL_PATH.name().equals(mode)) {
+			return false;
+		}
+		if (model.getType() == BertModelType.TFHUB) {
+			String handle = model.getHandle();
+			return handle.startsWith("https://") || handle.startsWith("http://");
+		}
+		return true;
+	}
+
+	/**
+	 * Downloads the model into the cache directory.
+	 *
+	 * @param type     The model type.
+	 * @param handle   The model handle.
+	 * @param cacheDir The cache directory.
+	 * @param exec     The execution monitor.
+	 * @return The cache entry describing the model files.
+	 * @throws IOException
+	 * @throws CanceledExecutionException
+	 */
+	static CacheEntry download(BertModelType type, String handle, Path cacheDir, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		if (type == BertModelType.HUGGING_FACE) {
+			return new HuggingFaceDownloader().download(handle, cacheDir, exec);
+		} else {
+			return new TFHubDownloader().download(handle, cacheDir, exec);
+		}
+	}
+}
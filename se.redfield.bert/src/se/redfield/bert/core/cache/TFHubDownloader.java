@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+
+import se.redfield.bert.core.cache.CacheManifest.CacheEntry;
+import se.redfield.bert.core.cache.CacheManifest.CachedFile;
+import se.redfield.bert.nodes.port.BertModelType;
+
+/**
+ * Downloads TF Hub models into the cache directory. The module is extracted into
+ * the same directory <code>tensorflow_hub</code> would use, so the model is
+ * loaded from the cache once it is needed in Python.
+ */
+class TFHubDownloader {
+	private static final String COMPRESSED_FORMAT = "tf-hub-format=compressed";
+	static final String DESCRIPTOR_SUFFIX = ".descriptor.txt";
+
+	/**
+	 * Downloads and extracts the module unless it is already present in the cache.
+	 *
+	 * @param handle   The module handle.
+	 * @param cacheDir The cache directory.
+	 * @param exec     The execution monitor.
+	 * @return The cache entry describing the module files.
+	 * @throws IOException
+	 * @throws CanceledExecutionException
+	 */
+	CacheEntry download(String handle, Path cacheDir, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		String dirName = FileDownloader.sha1(handle);
+		Path moduleDir = cacheDir.resolve(dirName);
+		CacheEntry entry = new CacheEntry(BertModelType.TFHUB, handle);
+
+		if (!isNonEmptyDir(moduleDir)) {
+			Files.createDirectories(cacheDir);
+			Path archive = cacheDir.resolve(dirName + ".tar.gz");
+			exec.setMessage("Downloading " + handle);
+			entry.setArchiveSha256(FileDownloader.download(getDownloadUrl(handle), archive, exec));
+
+			exec.setMessage("Extracting " + handle);
+			Path tmp = cacheDir.resolve(dirName + "." + UUID.randomUUID() + ".tmp");
+			try {
+				TarExtractor.extract(archive, tmp, exec);
+				Files.move(tmp, moduleDir, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException | CanceledExecutionException e) {
+				deleteRecursively(tmp);
+				throw e;
+			}
+			Files.delete(archive);
+			writeDescriptor(getDescriptorFile(cacheDir, dirName), handle);
+		}
+
+		entry.getFiles().addAll(listFiles(cacheDir, moduleDir));
+		Path descriptor = getDescriptorFile(cacheDir, dirName);
+		if (Files.exists(descriptor)) {
+			entry.getFiles().add(toCachedFile(cacheDir, descriptor));
+		}
+		return entry;
+	}
+
+	/**
+	 * @param cacheDir The cache directory.
+	 * @param dirName  The module directory name.
+	 * @return The descriptor file written next to the module directory.
+	 */
+	static Path getDescriptorFile(Path cacheDir, String dirName) {
+		return cacheDir.resolve(dirName + DESCRIPTOR_SUFFIX);
+	}
+
+	private static URL getDownloadUrl(String handle) throws IOException {
+		return new URL(handle + (handle.contains("?") ? "&" : "?") + COMPRESSED_FORMAT);
+	}
+
+	private static boolean isNonEmptyDir(Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return false;
+		}
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.findAny().isPresent();
+		}
+	}
+
+	static List<CachedFile> listFiles(Path cacheDir, Path moduleDir) throws IOException {
+		try (Stream<Path> files = Files.walk(moduleDir)) {
+			return files.filter(Files::isRegularFile).map(f -> toCachedFile(cacheDir, f))
+					.collect(Collectors.toList());
+		}
+	}
+
+	static CachedFile toCachedFile(Path cacheDir, Path file) {
+		try {
+			return new CachedFile(cacheDir.relativize(file).toString(), Files.size(file), null);
+		} catch (IOException e) {
+			return new CachedFile(cacheDir.relativize(file).toString(), -1, null);
+		}
+	}
+
+	/**
+	 * Writes the descriptor file the same way <code>tensorflow_hub</code> does.
+	 */
+	private static void writeDescriptor(Path file, String handle) throws IOException {
+		String content = String.format("Module: %s%nDownload Time: %s%nDownloader Hostname: %s (KNIME)%n", handle,
+				LocalDateTime.now(), InetAddress.getLocalHost().getHostName());
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static void deleteRecursively(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path p : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.deleteIfExists(p);
+			}
+		}
+	}
+}
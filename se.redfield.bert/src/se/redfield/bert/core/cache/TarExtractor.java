@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.core.cache;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+
+/**
+ * Extracts gzip compressed tar archives such as the TF Hub archives. Regular
+ * files and directories are extracted, other entries (links, devices) are
+ * skipped.
+ */
+final class TarExtractor {
+
+	private TarExtractor() {
+	}
+
+	/**
+	 * Extracts the archive into the target directory. The whole gzip stream is
+	 * consumed so that its checksum is verified.
+	 *
+	 * @param archive The <code>.tar.gz</code> archive.
+	 * @param target  The target directory.
+	 * @param exec    The execution monitor used for cancellation.
+	 * @throws IOException
+	 * @throws CanceledExecutionException
+	 */
+	static void extract(Path archive, Path target, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		Path root = target.toAbsolutePath().normalize();
+		Files.createDirectories(root);
+
+		try (InputStream gzip = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(archive)));
+				TarArchiveInputStream in = new TarArchiveInputStream(gzip)) {
+			TarArchiveEntry entry;
+			while ((entry = in.getNextTarEntry()) != null) {
+				exec.checkCanceled();
+				if (entry.isDirectory()) {
+					Files.createDirectories(resolve(root, entry.getName()));
+				} else if (entry.isFile()) {
+					Path file = resolve(root, entry.getName());
+					Files.createDirectories(file.getParent());
+					Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+
+			// drain the stream to let GZIPInputStream validate the trailer
+			gzip.transferTo(OutputStream.nullOutputStream());
+		}
+	}
+
+	/**
+	 * Resolves the entry name against the target directory and rejects the names
+	 * pointing outside of it.
+	 */
+	static Path resolve(Path root, String name) throws IOException {
+		Path path = root.resolve(name).normalize();
+		if (!path.startsWith(root)) {
+			throw new IOException("Archive entry is outside of the target directory: " + name);
+		}
+		return path;
+	}
+}
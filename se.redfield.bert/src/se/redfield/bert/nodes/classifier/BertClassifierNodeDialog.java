@@ -24,12 +24,14 @@ import javax.swing.JLabel;
 import org.knime.core.data.StringValue;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NotConfigurableException;
+import org.knime.core.node.defaultnodesettings.DialogComponentButtonGroup;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.core.node.util.ColumnSelectionPanel;
 import org.knime.dl.base.nodes.AbstractGridBagDialogComponentGroup;
 
 import se.redfield.bert.setting.BertClassifierSettings;
+import se.redfield.bert.setting.BertClassifierSettings.ClassifierArtifactFormat;
 import se.redfield.bert.setting.ui.OptimizerSettingsEditor;
 import se.redfield.bert.setting.ui.PythonNodeDialog;
 
@@ -102,6 +104,14 @@ public class BertClassifierNodeDialog extends PythonNodeDialog<BertClassifierSet
 			addNumberSpinnerRowComponent(settings.getBatchSizeModel(), "Batch size", 1);
 			addNumberSpinnerRowComponent(settings.getValidationBatchSizeModel(), "Validation batch size", 1);
 			addCheckboxRow(settings.getFineTuneBertModel(), "Fine tune BERT", true);
+			addCheckboxRow(settings.getTrainAdaptersModel(), "Train low-rank adapters only", true);
+			addNumberSpinnerRowComponent(settings.getAdapterRankModel(), "Adapter rank", 1);
+			addCheckboxRow(settings.getCacheBackboneFeaturesModel(), "Compute frozen BERT outputs only once", true);
+			addCheckboxRow(settings.getShareBackboneWeightsModel(), "Share frozen BERT weights between classifiers",
+					true);
+			addDoubleColumnRow(new JLabel("Model format"),
+					new DialogComponentButtonGroup(settings.getArtifactFormatModel(), null, false,
+							ClassifierArtifactFormat.values()).getComponentPanel());
 			getComponentGroupPanel().setBorder(BorderFactory.createTitledBorder("Training settings"));
 		}
 	}
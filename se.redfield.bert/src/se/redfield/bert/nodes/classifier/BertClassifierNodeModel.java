@@ -40,12 +40,15 @@ import org.knime.python2.kernel.PythonKernelCleanupException;
 import se.redfield.bert.core.BertCommands;
 import se.redfield.bert.core.ClassesToFeaturesConverter;
 import se.redfield.bert.core.ClassesToFeaturesConverter.ClassifierInput;
+import se.redfield.bert.core.cache.ModelDownloadManager;
 import se.redfield.bert.nodes.port.BertClassifierPortObject;
 import se.redfield.bert.nodes.port.BertClassifierPortObjectSpec;
 import se.redfield.bert.nodes.port.BertModelConfig;
 import se.redfield.bert.nodes.port.BertModelPortObject;
 import se.redfield.bert.nodes.port.BertModelPortObjectSpec;
+import se.redfield.bert.nodes.port.BertModelType;
 import se.redfield.bert.setting.BertClassifierSettings;
+import se.redfield.bert.setting.BertClassifierSettings.ClassifierArtifactFormat;
 
 /**
  * BERT Classifier node. Takes BERT model and constructs classifier that then
@@ -90,6 +93,10 @@ public class BertClassifierNodeModel extends NodeModel {
 				(BufferedDataTable) inObjects[PORT_VALIDATION_TABLE], exec);
 
 		BufferedDataTable statsTable = runTrain(bertModel.getModel(), fileStore, input, exec);
+		if (!settings.getFineTuneBert() && settings.getShareBackboneWeights()) {
+			// the classifier references the pretrained weights in the model cache
+			ModelDownloadManager.touch(bertModel.getModel());
+		}
 
 		return new PortObject[] {
 				new BertClassifierPortObject(createSpec(bertModel.getSpec()), fileStore, input.getClasses()),
@@ -129,6 +136,18 @@ public class BertClassifierNodeModel extends NodeModel {
 		b.a("class_count = ").a(input.getClassesCount()).a(",").n();
 		b.a("epochs = ").a(settings.getEpochs()).a(",").n();
 		b.a("fine_tune_bert = ").a(settings.getFineTuneBert()).a(",").n();
+		if (settings.getFineTuneBert() && settings.getTrainAdapters()) {
+			b.a("adapter_rank = ").a(settings.getAdapterRank()).a(",").n();
+		}
+		if (!settings.getFineTuneBert() && settings.getCacheBackboneFeatures()) {
+			b.a("cache_backbone_features = True,").n();
+		}
+		if (!settings.getFineTuneBert() && settings.getShareBackboneWeights()) {
+			b.a("share_backbone_weights = True,").n();
+		}
+		if (settings.usesArtifactFormat()) {
+			b.a("artifact_format = ").as(settings.getArtifactFormat().getKey()).a(",").n();
+		}
 		b.a("optimizer = " + settings.getOptimizer()).a(",").n();
 		if (input.hasValidationTable()) {
 			BertCommands.putInputTableArgs(b, "validation_table", KNIO_VALIDATION_TABLE_IDX);
@@ -143,7 +162,18 @@ public class BertClassifierNodeModel extends NodeModel {
 	@Override
 	protected PortObjectSpec[] configure(PortObjectSpec[] inSpecs) throws InvalidSettingsException {
 		settings.validate((DataTableSpec) inSpecs[PORT_DATA_TABLE], (DataTableSpec) inSpecs[PORT_VALIDATION_TABLE]);
-		return new PortObjectSpec[] { createSpec((BertModelPortObjectSpec) inSpecs[PORT_BERT_MODEL]), null };
+
+		BertModelPortObjectSpec modelSpec = (BertModelPortObjectSpec) inSpecs[PORT_BERT_MODEL];
+		if (settings.getFineTuneBert() && settings.getTrainAdapters()
+				&& modelSpec.getModel().getType() != BertModelType.HUGGING_FACE) {
+			throw new InvalidSettingsException("Low-rank adapters are only supported for Hugging Face models");
+		}
+		if (settings.usesArtifactFormat() && settings.getArtifactFormat() != ClassifierArtifactFormat.SAVED_MODEL
+				&& modelSpec.getModel().getType() != BertModelType.HUGGING_FACE) {
+			throw new InvalidSettingsException(
+					"The compact and compressed model formats are only supported for Hugging Face models");
+		}
+		return new PortObjectSpec[] { createSpec(modelSpec), null };
 	}
 
 	private BertClassifierPortObjectSpec createSpec(BertModelPortObjectSpec modelSpec) {
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.nodes.distiller;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.filestore.FileStore;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeModel;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.port.PortObject;
+import org.knime.core.node.port.PortObjectSpec;
+import org.knime.core.node.port.PortType;
+import org.knime.dl.core.DLInvalidEnvironmentException;
+import org.knime.dl.python.util.DLPythonSourceCodeBuilder;
+import org.knime.dl.python.util.DLPythonUtils;
+import org.knime.python2.kernel.PythonIOException;
+import org.knime.python2.kernel.PythonKernelCleanupException;
+
+import se.redfield.bert.core.BertCommands;
+import se.redfield.bert.nodes.port.BertClassifierPortObject;
+import se.redfield.bert.nodes.port.BertClassifierPortObjectSpec;
+import se.redfield.bert.nodes.port.BertModelConfig;
+import se.redfield.bert.nodes.port.BertModelPortObject;
+import se.redfield.bert.nodes.port.BertModelPortObjectSpec;
+import se.redfield.bert.setting.BertDistillerSettings;
+import se.redfield.bert.util.InputUtils;
+
+/**
+ * BERT Distiller node. Trains a smaller student classifier on the predictions
+ * the teacher classifier makes for an unlabeled table and compares the latency
+ * and the predictions of both classifiers.
+ */
+public class BertDistillerNodeModel extends NodeModel {
+
+	/**
+	 * Teacher {@link BertClassifierPortObject} input port index.
+	 */
+	public static final int PORT_TEACHER = 0;
+	/**
+	 * Student {@link BertModelPortObject} input port index.
+	 */
+	public static final int PORT_STUDENT_MODEL = 1;
+	/**
+	 * Data table input port index.
+	 */
+	public static final int PORT_DATA_TABLE = 2;
+
+	private final BertDistillerSettings settings = new BertDistillerSettings();
+
+	protected BertDistillerNodeModel() {
+		super(new PortType[] { BertClassifierPortObject.TYPE, BertModelPortObject.TYPE, BufferedDataTable.TYPE },
+				new PortType[] { BertClassifierPortObject.TYPE, BufferedDataTable.TYPE });
+	}
+
+	@Override
+	protected PortObject[] execute(PortObject[] inObjects, ExecutionContext exec) throws Exception {
+		BertClassifierPortObject teacher = (BertClassifierPortObject) inObjects[PORT_TEACHER];
+		BertModelPortObject student = (BertModelPortObject) inObjects[PORT_STUDENT_MODEL];
+		BufferedDataTable inTable = (BufferedDataTable) inObjects[PORT_DATA_TABLE];
+		FileStore fileStore = exec.createFileStore("model");
+
+		BufferedDataTable comparisonTable = runDistill(teacher, student.getModel(), fileStore, inTable, exec);
+
+		return new PortObject[] {
+				new BertClassifierPortObject(
+						createSpec((BertClassifierPortObjectSpec) teacher.getSpec(), student.getSpec()), fileStore,
+						Arrays.asList(teacher.getClasses())),
+				comparisonTable };
+	}
+
+	private BufferedDataTable runDistill(BertClassifierPortObject teacher, BertModelConfig student,
+			FileStore fileStore, BufferedDataTable inTable, ExecutionContext exec)
+			throws PythonKernelCleanupException, DLInvalidEnvironmentException, PythonIOException,
+			CanceledExecutionException {
+		exec.setMessage("Prepare input table");
+		var preprocessedTable = InputUtils.toStringColumnsTable(inTable, exec.createSubExecutionContext(0.05),
+				settings.getSentenceColumn());
+		try (BertCommands commands = new BertCommands(settings.getPythonCommand(), 1)) {
+			commands.putDataTable(preprocessedTable, exec.createSubProgress(0.05));
+			exec.setMessage("Distill classifier");
+			commands.executeInKernel(getDistillScript(teacher, student, fileStore), exec.createSubProgress(0.9));
+			exec.setMessage("Retrieve outputs");
+			return commands.getDataTable(exec, exec.createSubProgress(0));
+		}
+	}
+
+	private String getDistillScript(BertClassifierPortObject teacher, BertModelConfig student, FileStore fileStore) {
+		DLPythonSourceCodeBuilder b = DLPythonUtils.createSourceCodeBuilder("import BertDistiller");
+		b.a("BertDistiller.run_distill(").n();
+
+		BertCommands.putInputTableArgs(b);
+		b.a("teacher_file_store = ").asr(teacher.getFileStore().getFile().getAbsolutePath()).a(",").n();
+		b.a("teacher_model_type_key = ").as(teacher.getModelType().getKey()).a(",").n();
+		b.a("teacher_max_seq_length = ").a(teacher.getMaxSeqLength()).a(",").n();
+		BertCommands.putClassifierLoadArgs(b);
+		BertCommands.putBertModelArgs(b, student);
+		BertCommands.putSentenceColumArg(b, settings.getSentenceColumn());
+		BertCommands.putMaxSeqLengthArg(b, settings.getMaxSeqLength());
+		BertCommands.putFileStoreArgs(b, fileStore);
+		BertCommands.putBatchSizeArgs(b, settings.getBatchSize());
+
+		b.a("class_count = ").a(teacher.getClasses().length).a(",").n();
+		b.a("multi_label = ").a(teacher.isMultiLabel()).a(",").n();
+		b.a("epochs = ").a(settings.getEpochs()).a(",").n();
+		b.a("temperature = ").a(settings.getTemperature()).a(",").n();
+		b.a("hard_label_weight = ").a(settings.getHardLabelWeight()).a(",").n();
+		b.a("evaluation_fraction = ").a(settings.getEvaluationFraction()).a(",").n();
+		b.a("optimizer = " + settings.getOptimizer()).a(",").n();
+		b.a(")").n();
+
+		return b.toString();
+	}
+
+	@Override
+	protected PortObjectSpec[] configure(PortObjectSpec[] inSpecs) throws InvalidSettingsException {
+		settings.validate((DataTableSpec) inSpecs[PORT_DATA_TABLE]);
+		return new PortObjectSpec[] { createSpec((BertClassifierPortObjectSpec) inSpecs[PORT_TEACHER],
+				(BertModelPortObjectSpec) inSpecs[PORT_STUDENT_MODEL]), null };
+	}
+
+	private BertClassifierPortObjectSpec createSpec(BertClassifierPortObjectSpec teacherSpec,
+			BertModelPortObjectSpec studentSpec) {
+		return new BertClassifierPortObjectSpec(settings.getMaxSeqLength(), teacherSpec.isMultiLabel(),
+				teacherSpec.getClassSeparator(), studentSpec.getModel().getType());
+	}
+
+	@Override
+	protected void loadInternals(File nodeInternDir, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		// no internals
+	}
+
+	@Override
+	protected void saveInternals(File nodeInternDir, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		// no internals
+	}
+
+	@Override
+	protected void saveSettingsTo(NodeSettingsWO settings) {
+		this.settings.saveSettingsTo(settings);
+	}
+
+	@Override
+	protected void validateSettings(NodeSettingsRO settings) throws InvalidSettingsException {
+		this.settings.validateSettings(settings);
+	}
+
+	@Override
+	protected void loadValidatedSettingsFrom(NodeSettingsRO settings) throws InvalidSettingsException {
+		this.settings.loadSettingsFrom(settings);
+	}
+
+	@Override
+	protected void reset() {
+		// nothing to reset
+	}
+
+}
@@ -15,12 +15,20 @@
  */
 package se.redfield.bert.nodes.embedder;
 
+import javax.swing.JLabel;
+
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NotConfigurableException;
+import org.knime.core.node.defaultnodesettings.DialogComponentButtonGroup;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.dl.base.nodes.AbstractGridBagDialogComponentGroup;
 
 import se.redfield.bert.setting.BertEmbedderSettings;
+import se.redfield.bert.setting.BertEmbedderSettings.EmbeddingPooling;
+import se.redfield.bert.setting.BertEmbedderSettings.EmbeddingsPrecision;
+import se.redfield.bert.setting.BertEmbedderSettings.SequenceEmbeddingsFormat;
+import se.redfield.bert.setting.DimensionReductionSettings;
+import se.redfield.bert.setting.DimensionReductionSettings.DimensionReduction;
 import se.redfield.bert.setting.ui.InputSettingsEditor;
 import se.redfield.bert.setting.ui.PythonNodeDialog;
 
@@ -43,7 +51,8 @@ public class BertEmbedderNodeDialog extends PythonNodeDialog<BertEmbedderSetting
 
 		addTab("Settings", inputSettings.getComponentGroupPanel());
 		addTab("Advanced", new AdvancedTabGroup().getComponentGroupPanel());
-		addPythonTab();
+		addTab("Dimension reduction", new DimensionReductionTabGroup().getComponentGroupPanel());
+		addPythonTabWithChunkSize();
 	}
 
 	@Override
@@ -55,7 +64,29 @@ public class BertEmbedderNodeDialog extends PythonNodeDialog<BertEmbedderSetting
 	private class AdvancedTabGroup extends AbstractGridBagDialogComponentGroup {
 		public AdvancedTabGroup() {
 			addNumberSpinnerRowComponent(settings.getBatchSizeModel(), "Batch size", 1);
+			addCheckboxRow(settings.getShareModelModel(), "Share the model with concurrently running nodes", true);
+			addDoubleColumnRow(new JLabel("Pooling"), new DialogComponentButtonGroup(settings.getPoolingModel(), null,
+					true, EmbeddingPooling.values()).getComponentPanel());
+			addNumberSpinnerRowComponent(settings.getPoolingLayersModel(), "Number of layers to concatenate", 1);
+			addDoubleColumnRow(new JLabel("Embeddings precision"),
+					new DialogComponentButtonGroup(settings.getEmbeddingsPrecisionModel(), null, false,
+							EmbeddingsPrecision.values()).getComponentPanel());
+			addCheckboxRow(settings.getNormalizeEmbeddingsModel(), "L2 normalize embeddings", true);
 			addCheckboxRow(settings.getIncludeSeqEmbeddingsModel(), "Include sequence embeddings", true);
+			addDoubleColumnRow(new JLabel("Sequence embeddings format"),
+					new DialogComponentButtonGroup(settings.getSeqEmbeddingsFormatModel(), null, false,
+							SequenceEmbeddingsFormat.values()).getComponentPanel());
+		}
+	}
+
+	private class DimensionReductionTabGroup extends AbstractGridBagDialogComponentGroup {
+		public DimensionReductionTabGroup() {
+			DimensionReductionSettings reduction = settings.getDimensionReductionSettings();
+			addDoubleColumnRow(new JLabel("Method"), new DialogComponentButtonGroup(reduction.getMethodModel(), null,
+					false, DimensionReduction.values()).getComponentPanel());
+			addNumberSpinnerRowComponent(reduction.getDimensionsModel(), "Number of dimensions", 1);
+			addNumberSpinnerRowComponent(reduction.getSampleSizeModel(), "PCA sample size", 1);
+			addStringEditRowComponent(reduction.getProjectionFileModel(), "Saved PCA projection (optional)");
 		}
 	}
 }
@@ -32,7 +32,10 @@ import org.knime.core.node.port.PortObjectSpec;
 import org.knime.core.node.port.PortType;
 
 import se.redfield.bert.core.BertEmbedder;
+import se.redfield.bert.nodes.port.BertClassifierPortObjectSpec;
 import se.redfield.bert.nodes.port.BertModelPortObject;
+import se.redfield.bert.nodes.port.BertModelPortObjectSpec;
+import se.redfield.bert.nodes.port.BertModelType;
 import se.redfield.bert.nodes.port.BertPortObjectBase;
 import se.redfield.bert.setting.BertEmbedderSettings;
 
@@ -77,19 +80,29 @@ public class BertEmbedderNodeModel extends NodeModel {
 	@Override
 	protected PortObjectSpec[] configure(PortObjectSpec[] inSpecs) throws InvalidSettingsException {
 		settings.validate((DataTableSpec) inSpecs[PORT_DATA_TABLE]);
+		settings.validate(getModelType(inSpecs[PORT_BERT_MODEL]));
 		return new PortObjectSpec[] { embedder.createSpec((DataTableSpec) inSpecs[PORT_DATA_TABLE]) };
 	}
 
+	private static BertModelType getModelType(PortObjectSpec spec) {
+		if (spec instanceof BertModelPortObjectSpec) {
+			return ((BertModelPortObjectSpec) spec).getModel().getType();
+		} else if (spec instanceof BertClassifierPortObjectSpec) {
+			return ((BertClassifierPortObjectSpec) spec).getModelType();
+		}
+		return null;
+	}
+
 	@Override
 	protected void loadInternals(File nodeInternDir, ExecutionMonitor exec)
 			throws IOException, CanceledExecutionException {
-		// no internals
+		embedder.loadInternals(nodeInternDir);
 	}
 
 	@Override
 	protected void saveInternals(File nodeInternDir, ExecutionMonitor exec)
 			throws IOException, CanceledExecutionException {
-		// no internals
+		embedder.saveInternals(nodeInternDir);
 	}
 
 	@Override
@@ -109,7 +122,7 @@ public class BertEmbedderNodeModel extends NodeModel {
 
 	@Override
 	protected void reset() {
-		// nothing to reset
+		// the fitted projection is kept so that re-execution does not need to fit it again
 	}
 
 }
@@ -22,6 +22,7 @@ import org.knime.core.data.StringValue;
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NotConfigurableException;
+import org.knime.core.node.defaultnodesettings.DialogComponentButtonGroup;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.core.node.util.ColumnSelectionPanel;
@@ -29,6 +30,8 @@ import org.knime.dl.base.nodes.AbstractGridBagDialogComponentGroup;
 
 import se.redfield.bert.nodes.port.BertClassifierPortObjectSpec;
 import se.redfield.bert.setting.BertPredictorSettings;
+import se.redfield.bert.setting.SlidingWindowSettings;
+import se.redfield.bert.setting.SlidingWindowSettings.WindowAggregation;
 import se.redfield.bert.setting.ui.PythonNodeDialog;
 
 /**
@@ -53,7 +56,7 @@ public class BertPredictorNodeDialog extends PythonNodeDialog<BertPredictorSetti
 
 		addTab("Settings", new SettingsTabGroup().getComponentGroupPanel());
 		addTab("Multi-label", new AdvancedTabGroup().getComponentGroupPanel());
-		addPythonTab();
+		addPythonTabWithChunkSize();
 	}
 
 	@Override
@@ -74,11 +77,23 @@ public class BertPredictorNodeDialog extends PythonNodeDialog<BertPredictorSetti
 			addDoubleColumnRow(new JLabel("Sentence column"),
 					getFirstComponent(sentenceColumn, ColumnSelectionPanel.class));
 			addNumberSpinnerRowComponent(settings.getBatchSizeModel(), "Batch size", 1);
+			addCheckboxRow(settings.getShareModelModel(), "Share the model with concurrently running nodes", true);
 			addHorizontalSeparator();
 			addCheckboxRow(settings.getChangePredictionColumnModel(), "Change prediction column name", true);
 			addStringEditRowComponent(settings.getPredictionColumnModel(), "Prediction column name");
 			addCheckboxRow(settings.getOutputProbabilitiesModel(), "Append individual class probabilities", true);
 			addStringEditRowComponent(settings.getProbabilitiesColumnSuffixModel(), "Suffix for probability columns");
+			addCheckboxRow(settings.getOutputTopProbabilitiesModel(), "Append most probable classes", true);
+			addNumberSpinnerRowComponent(settings.getTopProbabilitiesCountModel(), "Number of most probable classes", 1);
+			addCheckboxRow(settings.getOutputSparseProbabilitiesModel(), "Append probabilities above epsilon", true);
+			addNumberSpinnerRowComponent(settings.getSparseProbabilitiesEpsilonModel(), "Epsilon", 0.01);
+			addHorizontalSeparator();
+			SlidingWindowSettings window = settings.getSlidingWindowSettings();
+			addCheckboxRow(window.getEnabledModel(), "Split long texts into overlapping windows", true);
+			addNumberSpinnerRowComponent(window.getStrideModel(), "Window stride", 1);
+			addDoubleColumnRow(new JLabel("Window aggregation"),
+					new DialogComponentButtonGroup(window.getAggregationModel(), null, false,
+							WindowAggregation.values()).getComponentPanel());
 		}
 	}
 
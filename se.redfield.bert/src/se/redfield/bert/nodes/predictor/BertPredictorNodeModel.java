@@ -38,6 +38,8 @@ import org.knime.python2.kernel.PythonKernelCleanupException;
 
 import se.redfield.bert.core.BertCommands;
 import se.redfield.bert.core.PredictionTableBuilder;
+import se.redfield.bert.core.SharedInferenceService;
+import se.redfield.bert.core.TableChunking;
 import se.redfield.bert.nodes.port.BertClassifierPortObject;
 import se.redfield.bert.nodes.port.BertClassifierPortObjectSpec;
 import se.redfield.bert.setting.BertPredictorSettings;
@@ -73,39 +75,62 @@ public class BertPredictorNodeModel extends NodeModel {
 		BertClassifierPortObject classifier = (BertClassifierPortObject) inObjects[PORT_BERT_CLASSIFIER];
 		BufferedDataTable inTable = (BufferedDataTable) inObjects[PORT_DATA_TABLE];
 
-		BufferedDataTable probabilitiesTable = runPredict(classifier, inTable, exec.createSubExecutionContext(0.9));
-		BufferedDataTable outputTable = new PredictionTableBuilder(settings, classifier.isMultiLabel(),
-				classifier.getClasses())
-				.buildPredictionTable(inTable, probabilitiesTable, exec.createSubExecutionContext(0.1));
+		PredictionTableBuilder outputBuilder = new PredictionTableBuilder(settings, classifier.isMultiLabel(),
+				classifier.getClasses());
+		BufferedDataTable predictionsTable = runPredict(classifier, outputBuilder, inTable,
+				exec.createSubExecutionContext(0.9));
+		BufferedDataTable outputTable = outputBuilder.buildPredictionTable(inTable, predictionsTable,
+				exec.createSubExecutionContext(0.1));
 
 		return new PortObject[] { outputTable };
 	}
 
-	private BufferedDataTable runPredict(BertClassifierPortObject classifier, BufferedDataTable inTable,
-			ExecutionContext exec) throws PythonKernelCleanupException, DLInvalidEnvironmentException,
+	private BufferedDataTable runPredict(BertClassifierPortObject classifier, PredictionTableBuilder outputBuilder,
+			BufferedDataTable inTable, ExecutionContext exec) throws PythonKernelCleanupException, DLInvalidEnvironmentException,
 			PythonIOException, CanceledExecutionException {
 		exec.setMessage("Prepare input table");
 		var preprocessedTable = InputUtils.toStringColumnsTable(inTable, exec.createSubExecutionContext(0.05),
 				settings.getSentenceColumn());
-		try (BertCommands commands = new BertCommands(settings.getPythonCommand(), 1)) {
+		int chunkSize = TableChunking.getChunkSize(settings,
+				outputBuilder.estimateRowBytes(classifier.getMaxSeqLength()));
+		String script = getPredictScript(classifier, outputBuilder);
+
+		String modelKey = classifier.getFileStore().getFile().getAbsolutePath();
+		if (settings.getShareModel()) {
+			exec.setMessage("Calculate predictions");
+			return SharedInferenceService.getInstance().execute(settings.getPythonCommand(), modelKey, script,
+					chunkSize, preprocessedTable, exec.createSubExecutionContext(0.95));
+		}
+
+		// the kernel stays alive with the loaded classifier for the next execution, e.g. in a loop
+		try (BertCommands commands = new BertCommands(settings.getPythonCommand(), 1, modelKey)) {
+			commands.setTableChunkSize(chunkSize);
 			commands.putDataTable(preprocessedTable, exec.createSubProgress(0.05));
 			exec.setMessage("Calculate predictions");
-			commands.executeInKernel(getPredictScript(classifier), exec.createSubProgress(0.8));
+			commands.executeInKernel(script, exec.createSubProgress(0.8));
 			return commands.getDataTable(exec, exec.createSubProgress(0.1));
 		}
 	}
 
-	private String getPredictScript(BertClassifierPortObject classifier) {
+	private String getPredictScript(BertClassifierPortObject classifier, PredictionTableBuilder outputBuilder) {
 		DLPythonSourceCodeBuilder b = DLPythonUtils
 				.createSourceCodeBuilder("from BertClassifier import BertClassifier");
 		b.a("BertClassifier.run_predict(").n();
 
-		BertCommands.putInputTableArgs(b);
+		if (settings.getShareModel()) {
+			SharedInferenceService.putInputTableArgs(b);
+		} else {
+			BertCommands.putInputTableArgs(b);
+		}
 		BertCommands.putSentenceColumArg(b, settings.getSentenceColumn());
 		BertCommands.putMaxSeqLengthArg(b, classifier.getMaxSeqLength());
 		BertCommands.putFileStoreArgs(b, classifier.getFileStore());
+		BertCommands.putClassifierLoadArgs(b);
 		BertCommands.putModelTypeArg(b, classifier.getModelType());
 		BertCommands.putBatchSizeArgs(b, settings.getBatchSize());
+		BertCommands.putSlidingWindowArgs(b, settings.getSlidingWindowSettings());
+		b.a("classes = ").as(classifier.getClasses()).a(",").n();
+		outputBuilder.putPredictionArgs(b);
 
 		b.a(")").n();
 
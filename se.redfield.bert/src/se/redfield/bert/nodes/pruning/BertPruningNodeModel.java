@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.nodes.pruning;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.filestore.FileStore;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeModel;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.port.PortObject;
+import org.knime.core.node.port.PortObjectSpec;
+import org.knime.core.node.port.PortType;
+import org.knime.dl.core.DLInvalidEnvironmentException;
+import org.knime.dl.python.util.DLPythonSourceCodeBuilder;
+import org.knime.dl.python.util.DLPythonUtils;
+import org.knime.python2.kernel.PythonIOException;
+import org.knime.python2.kernel.PythonKernelCleanupException;
+
+import se.redfield.bert.core.BertCommands;
+import se.redfield.bert.nodes.port.BertClassifierPortObject;
+import se.redfield.bert.nodes.port.BertClassifierPortObjectSpec;
+import se.redfield.bert.nodes.port.BertModelType;
+import se.redfield.bert.setting.BertPruningSettings;
+import se.redfield.bert.util.InputUtils;
+
+/**
+ * Prune BERT Classifier node. Removes the least important attention heads and
+ * layers of the classifier's BERT model, measured on the input table, until the
+ * model fits into the target size.
+ */
+public class BertPruningNodeModel extends NodeModel {
+
+	/**
+	 * {@link BertClassifierPortObject} input port index.
+	 */
+	public static final int PORT_BERT_CLASSIFIER = 0;
+	/**
+	 * Data table input port index.
+	 */
+	public static final int PORT_DATA_TABLE = 1;
+
+	private final BertPruningSettings settings = new BertPruningSettings();
+
+	protected BertPruningNodeModel() {
+		super(new PortType[] { BertClassifierPortObject.TYPE, BufferedDataTable.TYPE },
+				new PortType[] { BertClassifierPortObject.TYPE, BufferedDataTable.TYPE });
+	}
+
+	@Override
+	protected PortObject[] execute(PortObject[] inObjects, ExecutionContext exec) throws Exception {
+		BertClassifierPortObject classifier = (BertClassifierPortObject) inObjects[PORT_BERT_CLASSIFIER];
+		BufferedDataTable inTable = (BufferedDataTable) inObjects[PORT_DATA_TABLE];
+		FileStore fileStore = exec.createFileStore("model");
+
+		BufferedDataTable comparisonTable = runPrune(classifier, fileStore, inTable, exec);
+
+		return new PortObject[] {
+				new BertClassifierPortObject(createSpec((BertClassifierPortObjectSpec) classifier.getSpec()),
+						fileStore, Arrays.asList(classifier.getClasses())),
+				comparisonTable };
+	}
+
+	private BufferedDataTable runPrune(BertClassifierPortObject classifier, FileStore fileStore,
+			BufferedDataTable inTable, ExecutionContext exec) throws PythonKernelCleanupException,
+			DLInvalidEnvironmentException, PythonIOException, CanceledExecutionException {
+		exec.setMessage("Prepare input table");
+		var preprocessedTable = InputUtils.toStringColumnsTable(inTable, exec.createSubExecutionContext(0.05),
+				settings.getSentenceColumn());
+		try (BertCommands commands = new BertCommands(settings.getPythonCommand(), 1)) {
+			commands.putDataTable(preprocessedTable, exec.createSubProgress(0.05));
+			exec.setMessage("Prune classifier");
+			commands.executeInKernel(getPruneScript(classifier, fileStore), exec.createSubProgress(0.9));
+			exec.setMessage("Retrieve outputs");
+			return commands.getDataTable(exec, exec.createSubProgress(0));
+		}
+	}
+
+	private String getPruneScript(BertClassifierPortObject classifier, FileStore fileStore) {
+		DLPythonSourceCodeBuilder b = DLPythonUtils.createSourceCodeBuilder("import Pruning");
+		b.a("Pruning.run_prune(").n();
+
+		BertCommands.putInputTableArgs(b);
+		b.a("source_file_store = ").asr(classifier.getFileStore().getFile().getAbsolutePath()).a(",").n();
+		BertCommands.putClassifierLoadArgs(b);
+		BertCommands.putModelTypeArg(b, classifier.getModelType());
+		BertCommands.putSentenceColumArg(b, settings.getSentenceColumn());
+		BertCommands.putMaxSeqLengthArg(b, classifier.getMaxSeqLength());
+		BertCommands.putFileStoreArgs(b, fileStore);
+		BertCommands.putBatchSizeArgs(b, settings.getBatchSize());
+
+		b.a("class_count = ").a(classifier.getClasses().length).a(",").n();
+		b.a("multi_label = ").a(classifier.isMultiLabel()).a(",").n();
+		b.a("target_size = ").a(settings.getTargetSize() / 100.0).a(",").n();
+		b.a("epochs = ").a(settings.getEpochs()).a(",").n();
+		b.a("optimizer = " + settings.getOptimizer()).a(",").n();
+		b.a(")").n();
+
+		return b.toString();
+	}
+
+	@Override
+	protected PortObjectSpec[] configure(PortObjectSpec[] inSpecs) throws InvalidSettingsException {
+		settings.validate((DataTableSpec) inSpecs[PORT_DATA_TABLE]);
+
+		BertClassifierPortObjectSpec classifier = (BertClassifierPortObjectSpec) inSpecs[PORT_BERT_CLASSIFIER];
+		if (classifier.getModelType() != BertModelType.HUGGING_FACE) {
+			throw new InvalidSettingsException("Pruning is only supported for classifiers based on Hugging Face models");
+		}
+		return new PortObjectSpec[] { createSpec(classifier), null };
+	}
+
+	private static BertClassifierPortObjectSpec createSpec(BertClassifierPortObjectSpec classifier) {
+		return new BertClassifierPortObjectSpec(classifier.getMaxSeqLength(), classifier.isMultiLabel(),
+				classifier.getClassSeparator(), classifier.getModelType());
+	}
+
+	@Override
+	protected void loadInternals(File nodeInternDir, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		// no internals
+	}
+
+	@Override
+	protected void saveInternals(File nodeInternDir, ExecutionMonitor exec)
+			throws IOException, CanceledExecutionException {
+		// no internals
+	}
+
+	@Override
+	protected void saveSettingsTo(NodeSettingsWO settings) {
+		this.settings.saveSettingsTo(settings);
+	}
+
+	@Override
+	protected void validateSettings(NodeSettingsRO settings) throws InvalidSettingsException {
+		this.settings.validateSettings(settings);
+	}
+
+	@Override
+	protected void loadValidatedSettingsFrom(NodeSettingsRO settings) throws InvalidSettingsException {
+		this.settings.loadSettingsFrom(settings);
+	}
+
+	@Override
+	protected void reset() {
+		// nothing to reset
+	}
+
+}
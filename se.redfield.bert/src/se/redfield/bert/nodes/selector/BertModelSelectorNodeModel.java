@@ -33,6 +33,7 @@ import org.knime.dl.python.util.DLPythonSourceCodeBuilder;
 import org.knime.dl.python.util.DLPythonUtils;
 
 import se.redfield.bert.core.BertCommands;
+import se.redfield.bert.core.cache.ModelDownloadManager;
 import se.redfield.bert.nodes.port.BertModelConfig;
 import se.redfield.bert.nodes.port.BertModelPortObject;
 import se.redfield.bert.nodes.port.BertModelPortObjectSpec;
@@ -56,7 +57,9 @@ public class BertModelSelectorNodeModel extends NodeModel {
 	@Override
 	protected PortObject[] execute(PortObject[] inObjects, ExecutionContext exec) throws Exception {
 		BertModelPortObjectSpec spec = createSpec();
-		downloadOrCheckModel(spec.getModel(), exec);
+		if (!ModelDownloadManager.ensureAvailable(spec.getModel(), exec)) {
+			downloadOrCheckModel(spec.getModel(), exec);
+		}
 		return new PortObject[] { new BertModelPortObject(spec) };
 	}
 
@@ -17,9 +17,11 @@ package se.redfield.bert.nodes.tokenizer;
 
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NotConfigurableException;
+import org.knime.core.node.defaultnodesettings.DialogComponentButtonGroup;
 import org.knime.core.node.port.PortObjectSpec;
 
 import se.redfield.bert.setting.BertTokenizerSettings;
+import se.redfield.bert.setting.BertTokenizerSettings.OutputFormat;
 import se.redfield.bert.setting.ui.InputSettingsEditor;
 import se.redfield.bert.setting.ui.PythonNodeDialog;
 
@@ -40,9 +42,11 @@ public class BertTokenizerNodeDialog extends PythonNodeDialog<BertTokenizerSetti
 	public BertTokenizerNodeDialog() {
 		super(new BertTokenizerSettings());
 		inputSettingsEditor = new InputSettingsEditor(settings.getInputSettings(),
-				BertTokenizerNodeModel.PORT_INPUT_TABLE);
+				BertTokenizerNodeModel.PORT_INPUT_TABLE, false);
 
 		addTab("Settings", inputSettingsEditor.getComponentGroupPanel());
+		addTab("Output", new DialogComponentButtonGroup(settings.getOutputFormatModel(), "Output format", true,
+				OutputFormat.values()).getComponentPanel());
 		addPythonTab();
 	}
 
@@ -49,7 +49,7 @@ public class ZeroShotTextClassifierNodeDialog extends PythonNodeDialog<ZeroShotT
 
 		addTab("Settings", new SettingsTabGroup().getComponentGroupPanel());
 		addTab("Multi-label", new AdvancedTabGroup().getComponentGroupPanel());
-		addPythonTab();
+		addPythonTabWithChunkSize();
 
 	}
 
@@ -82,6 +82,10 @@ public class ZeroShotTextClassifierNodeDialog extends PythonNodeDialog<ZeroShotT
 			addStringEditRowComponent(settings.getPredictionColumnModel(), "Prediction column name");
 			addCheckboxRow(settings.getOutputProbabilitiesModel(), "Append individual class probabilities", true);
 			addStringEditRowComponent(settings.getProbabilitiesColumnSuffixModel(), "Suffix for probability columns");
+			addCheckboxRow(settings.getOutputTopProbabilitiesModel(), "Append most probable classes", true);
+			addNumberSpinnerRowComponent(settings.getTopProbabilitiesCountModel(), "Number of most probable classes", 1);
+			addCheckboxRow(settings.getOutputSparseProbabilitiesModel(), "Append probabilities above epsilon", true);
+			addNumberSpinnerRowComponent(settings.getSparseProbabilitiesEpsilonModel(), "Epsilon", 0.01);
 
 		}
 	}
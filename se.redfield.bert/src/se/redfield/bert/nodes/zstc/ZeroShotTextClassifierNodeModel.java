@@ -40,6 +40,7 @@ import org.knime.python2.kernel.PythonKernelCleanupException;
 
 import se.redfield.bert.core.BertCommands;
 import se.redfield.bert.core.PredictionTableBuilder;
+import se.redfield.bert.core.TableChunking;
 import se.redfield.bert.nodes.port.BertModelConfig;
 import se.redfield.bert.nodes.port.BertModelFeature;
 import se.redfield.bert.nodes.port.BertModelPortObject;
@@ -80,9 +81,9 @@ public class ZeroShotTextClassifierNodeModel extends NodeModel {
 
 		BufferedDataTable inTable = (BufferedDataTable) inObjects[PORT_DATA_TABLE];
 
-		BufferedDataTable probabilitiesTable = runZeroShotTextClassifier(zstcModel.getModel(), inTable,
+		BufferedDataTable predictionsTable = runZeroShotTextClassifier(zstcModel.getModel(), inTable,
 				exec.createSubExecutionContext(0.9));
-		BufferedDataTable outputTable = outputBuilder.buildPredictionTable(inTable, probabilitiesTable,
+		BufferedDataTable outputTable = outputBuilder.buildPredictionTable(inTable, predictionsTable,
 				exec.createSubExecutionContext(0.1));
 
 		return new PortObject[] { outputTable };
@@ -96,6 +97,8 @@ public class ZeroShotTextClassifierNodeModel extends NodeModel {
 				settings.getSentenceColumn());
 
 		try (BertCommands commands = new BertCommands(settings.getPythonCommand(), 1)) {
+			commands.setTableChunkSize(TableChunking.getChunkSize(settings,
+					outputBuilder.estimateRowBytes(TableChunking.ASSUMED_SEQ_LENGTH)));
 			commands.putDataTable(preprocessedTable, exec.createSubProgress(0.05));
 			commands.executeInKernel(getZeroShotTextClassifierScript(zstcModel), exec.createSubProgress(0.8));
 
@@ -117,6 +120,7 @@ public class ZeroShotTextClassifierNodeModel extends NodeModel {
 		BertCommands.putBertModelArgs(b, zstcModel); // bert_model_handle, cach_dir
 		b.a("multi_label = ").a(settings.isMultilabelClassification()).a(",").n();
 		BertCommands.putBatchSizeArgs(b, settings.getBatchSize());
+		outputBuilder.putPredictionArgs(b);
 		b.a(")").n();
 
 		return b.toString();
@@ -37,7 +37,9 @@ public class BertPreferenceInitializer extends AbstractPreferenceInitializer {
 				BertPreferences.createEnvTypeConfig(), //
 				BertPreferences.createCondaEnvConfig(), //
 				BertPreferences.createManualEnvConfig(), //
-				BertPreferences.createCacheDirConfig()//
+				BertPreferences.createCacheDirConfig(), //
+				BertPreferences.createKernelPoolSizeConfig(), //
+				BertPreferences.createCacheQuotaConfig()//
 		);
 	}
 
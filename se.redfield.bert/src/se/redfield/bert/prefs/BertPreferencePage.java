@@ -48,6 +48,10 @@ public final class BertPreferencePage extends AbstractPythonPreferencePage {
 	
 	private StringPythonConfig m_cacheDirConfig = BertPreferences.createCacheDirConfig();
 
+	private IntegerPythonConfig m_kernelPoolSizeConfig = BertPreferences.createKernelPoolSizeConfig();
+
+	private IntegerPythonConfig m_cacheQuotaConfig = BertPreferences.createCacheQuotaConfig();
+
 	/**
 	 * Creates new instance.
 	 */
@@ -74,6 +78,12 @@ public final class BertPreferencePage extends AbstractPythonPreferencePage {
 		
 		configs.add(m_cacheDirConfig);
 		addCacheDirChooser(container);
+
+		configs.add(m_kernelPoolSizeConfig);
+		addKernelPoolSizeChooser(container);
+
+		configs.add(m_cacheQuotaConfig);
+		addModelCachePanel(container);
 	}
 	
 	private void addCacheDirChooser(Composite container) {
@@ -82,6 +92,19 @@ public final class BertPreferencePage extends AbstractPythonPreferencePage {
 		new DirectoryChooser(BertPreferenceInitializer.PREF_CACHE_DIR, "", cacheDirGroup, cacheDirModel);
 	}
 
+	private void addKernelPoolSizeChooser(Composite container) {
+		var kernelPoolGroup = PreferenceUtils.createGroup(container, "Kernel Pool");
+		new IntegerChooser("Number of pre-started Python processes (0 disables the pool):", kernelPoolGroup,
+				m_kernelPoolSizeConfig.getModel());
+	}
+
+	private void addModelCachePanel(Composite container) {
+		var modelCacheGroup = PreferenceUtils.createGroup(container, "Model Cache");
+		new IntegerChooser("Maximum cache size in MB (0 means unlimited):", modelCacheGroup,
+				m_cacheQuotaConfig.getModel());
+		new ModelCachePanel(modelCacheGroup, m_cacheDirConfig.getModel(), m_cacheQuotaConfig.getModel());
+	}
+
 	private static String getEnvPath(final String tag) {
 		return PythonSourceDirectoryLocator
 				.getPathFor(BertPreferencePage.class, String.format("config/bert_%s_%s.yml", getPlatformTag(), tag))//
@@ -39,6 +39,10 @@ public final class BertPreferences {
 	private static final PreferenceStorage CURRENT_SCOPE_PREFS = new PreferenceStorage(PLUGIN_ID,
 			InstanceScope.INSTANCE, DefaultScope.INSTANCE);
 
+	private static final int DEFAULT_KERNEL_POOL_SIZE = 1;
+
+	private static final int DEFAULT_CACHE_QUOTA = 0;
+
 	private static final String DEFAULT_CACHE_DIR = System.getProperty("java.io.tmpdir") + File.separator
 			+ "bert-cache";
 
@@ -85,6 +89,14 @@ public final class BertPreferences {
 		return new StringPythonConfig("cachedir", DEFAULT_CACHE_DIR);
 	}
 
+	static IntegerPythonConfig createKernelPoolSizeConfig() {
+		return new IntegerPythonConfig("kernelpoolsize", DEFAULT_KERNEL_POOL_SIZE, 0, 8);
+	}
+
+	static IntegerPythonConfig createCacheQuotaConfig() {
+		return new IntegerPythonConfig("cachequota", DEFAULT_CACHE_QUOTA, 0, Integer.MAX_VALUE);
+	}
+
 	private static PythonEnvironmentsConfig getCurrentEnvironmentConfig() {
 		var envType = getEnvironmentTypePreference();
 		switch (envType) {
@@ -122,6 +134,20 @@ public final class BertPreferences {
 		return cacheDir;
 	}
 
+	/**
+	 * @return the number of warm Python kernels kept in the pool
+	 */
+	public static int getKernelPoolSize() {
+		return createAndLoadCurrent(BertPreferences::createKernelPoolSizeConfig).getValue();
+	}
+
+	/**
+	 * @return the maximum size of the model cache in megabytes, 0 if unlimited
+	 */
+	public static int getCacheQuotaMegabytes() {
+		return createAndLoadCurrent(BertPreferences::createCacheQuotaConfig).getValue();
+	}
+
 	private BertPreferences() {
 	}
 }
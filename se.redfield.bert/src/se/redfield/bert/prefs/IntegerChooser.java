@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+*/
+package se.redfield.bert.prefs;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+
+final class IntegerChooser {
+
+	private final Spinner m_spinner;
+
+	IntegerChooser(String label, Composite parent, SettingsModelIntegerBounded model) {
+		var composite = new Composite(parent, SWT.NONE);
+		composite.setLayout(new GridLayout(2, false));
+		new Label(composite, SWT.NONE).setText(label);
+		m_spinner = new Spinner(composite, SWT.BORDER);
+		m_spinner.setMinimum(model.getLowerBound());
+		m_spinner.setMaximum(model.getUpperBound());
+		m_spinner.setSelection(model.getIntValue());
+		model.addChangeListener(e -> {
+			if (m_spinner.getSelection() != model.getIntValue()) {
+				m_spinner.setSelection(model.getIntValue());
+			}
+		});
+		m_spinner.addListener(SWT.Modify, event -> model.setIntValue(m_spinner.getSelection()));
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+*/
+package se.redfield.bert.prefs;
+
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.python2.config.PythonConfig;
+import org.knime.python2.config.PythonConfigStorage;
+
+final class IntegerPythonConfig implements PythonConfig {
+
+	private final SettingsModelIntegerBounded m_model;
+
+	IntegerPythonConfig(final String configKey, final int defaultValue, final int minValue, final int maxValue) {
+		m_model = new SettingsModelIntegerBounded(configKey, defaultValue, minValue, maxValue);
+	}
+
+	int getValue() {
+		return m_model.getIntValue();
+	}
+
+	SettingsModelIntegerBounded getModel() {
+		return m_model;
+	}
+
+	@Override
+	public void saveConfigTo(PythonConfigStorage storage) {
+		storage.saveIntegerModel(m_model);
+	}
+
+	@Override
+	public void loadConfigFrom(PythonConfigStorage storage) {
+		storage.loadIntegerModel(m_model);
+	}
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+*/
+package se.redfield.bert.prefs;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.BusyIndicator;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+
+import se.redfield.bert.core.cache.CacheManifest.CacheEntry;
+import se.redfield.bert.core.cache.ModelCacheManager;
+
+/**
+ * Lists the models stored in the cache directory and allows to import, export
+ * and remove them.
+ */
+final class ModelCachePanel {
+
+	private static final String[] COLUMNS = { "Model", "Type", "Size", "Last used" };
+	private static final String[] ARCHIVE_EXTENSIONS = { "*.zip" };
+
+	private final SettingsModelString m_cacheDirModel;
+	private final SettingsModelIntegerBounded m_quotaModel;
+	private final Table m_table;
+	private final Label m_summary;
+
+	ModelCachePanel(Composite parent, SettingsModelString cacheDirModel, SettingsModelIntegerBounded quotaModel) {
+		m_cacheDirModel = cacheDirModel;
+		m_quotaModel = quotaModel;
+
+		var composite = new Composite(parent, SWT.NONE);
+		composite.setLayout(new GridLayout(2, false));
+		composite.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
+
+		m_table = new Table(composite, SWT.BORDER | SWT.MULTI | SWT.FULL_SELECTION);
+		m_table.setHeaderVisible(true);
+		var tableData = new GridData(SWT.FILL, SWT.FILL, true, true);
+		tableData.heightHint = 120;
+		m_table.setLayoutData(tableData);
+		for (String column : COLUMNS) {
+			new TableColumn(m_table, SWT.NONE).setText(column);
+		}
+
+		var buttons = new Composite(composite, SWT.NONE);
+		buttons.setLayout(new GridLayout(1, true));
+		buttons.setLayoutData(new GridData(SWT.FILL, SWT.TOP, false, false));
+		addButton(buttons, "Refresh", this::refresh);
+		addButton(buttons, "Import...", this::importBundle);
+		addButton(buttons, "Export...", this::exportBundle);
+		addButton(buttons, "Remove", this::removeSelected);
+		addButton(buttons, "Apply quota", this::applyQuota);
+
+		m_summary = new Label(composite, SWT.NONE);
+		m_summary.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false, 2, 1));
+
+		m_cacheDirModel.addChangeListener(e -> refresh());
+		refresh();
+	}
+
+	private static void addButton(Composite parent, String text, Runnable action) {
+		var button = new Button(parent, SWT.PUSH);
+		button.setText(text);
+		button.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
+		button.addListener(SWT.Selection, e -> action.run());
+	}
+
+	private Path getCacheDir() {
+		return Paths.get(m_cacheDirModel.getStringValue());
+	}
+
+	private void refresh() {
+		run(() -> {
+			List<CacheEntry> entries = ModelCacheManager.index(getCacheDir());
+			var format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+			m_table.removeAll();
+			long total = 0;
+			for (CacheEntry entry : entries) {
+				var item = new TableItem(m_table, SWT.NONE);
+				item.setText(new String[] { entry.getHandle(), entry.getType().getKey(),
+						ModelCacheManager.formatSize(entry.getSize()), format.format(new Date(entry.getLastAccess())) });
+				item.setData(entry.getKey());
+				total += entry.getSize();
+			}
+			for (TableColumn column : m_table.getColumns()) {
+				column.pack();
+			}
+			m_summary.setText(entries.size() + " model(s), " + ModelCacheManager.formatSize(total));
+			m_summary.getParent().layout();
+		});
+	}
+
+	private void importBundle() {
+		var dialog = new FileDialog(m_table.getShell(), SWT.OPEN);
+		dialog.setFilterExtensions(ARCHIVE_EXTENSIONS);
+		String file = dialog.open();
+		if (file != null) {
+			runWithProgress("Importing models",
+					exec -> ModelCacheManager.importBundle(getCacheDir(), Paths.get(file), exec));
+			refresh();
+		}
+	}
+
+	private void exportBundle() {
+		List<String> keys = getSelectedKeys();
+		if (keys.isEmpty()) {
+			MessageDialog.openInformation(m_table.getShell(), "Export models", "Select the models to export.");
+			return;
+		}
+		var dialog = new FileDialog(m_table.getShell(), SWT.SAVE);
+		dialog.setFilterExtensions(ARCHIVE_EXTENSIONS);
+		dialog.setOverwrite(true);
+		String file = dialog.open();
+		if (file != null) {
+			runWithProgress("Exporting models",
+					exec -> ModelCacheManager.exportBundle(getCacheDir(), keys, Paths.get(file), exec));
+		}
+	}
+
+	private void removeSelected() {
+		List<String> keys = getSelectedKeys();
+		if (!keys.isEmpty() && MessageDialog.openConfirm(m_table.getShell(), "Remove models",
+				"Remove " + keys.size() + " model(s) from the cache directory?")) {
+			run(() -> {
+				for (String key : keys) {
+					ModelCacheManager.evict(getCacheDir(), key);
+				}
+			});
+			refresh();
+		}
+	}
+
+	private void applyQuota() {
+		int quota = m_quotaModel.getIntValue();
+		if (quota > 0) {
+			run(() -> ModelCacheManager.evictToQuota(getCacheDir(), quota * 1024L * 1024L, null));
+			refresh();
+		}
+	}
+
+	private List<String> getSelectedKeys() {
+		List<String> keys = new ArrayList<>();
+		for (TableItem item : m_table.getSelection()) {
+			keys.add((String) item.getData());
+		}
+		return keys;
+	}
+
+	private void run(CacheOperation operation) {
+		BusyIndicator.showWhile(m_table.getDisplay(), () -> {
+			try {
+				operation.run();
+			} catch (Exception e) {
+				MessageDialog.openError(m_table.getShell(), "Model cache", e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Runs the long operation outside of the UI thread in a progress dialog that
+	 * shows the progress and allows to cancel it.
+	 */
+	private void runWithProgress(String title, MonitoredCacheOperation operation) {
+		try {
+			new ProgressMonitorDialog(m_table.getShell()).run(true, true, monitor -> {
+				monitor.beginTask(title, ProgressExecutionMonitor.TOTAL_WORK);
+				try {
+					operation.run(new ProgressExecutionMonitor(monitor));
+				} catch (CanceledExecutionException e) {
+					throw new InterruptedException(e.getMessage());
+				} catch (Exception e) {
+					throw new InvocationTargetException(e);
+				} finally {
+					monitor.done();
+				}
+			});
+		} catch (InvocationTargetException e) {
+			MessageDialog.openError(m_table.getShell(), "Model cache", e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			// canceled by the user, the operation cleaned up after itself
+		}
+	}
+
+	@FunctionalInterface
+	private interface CacheOperation {
+		void run() throws Exception;
+	}
+
+	@FunctionalInterface
+	private interface MonitoredCacheOperation {
+		void run(ExecutionMonitor exec) throws Exception;
+	}
+
+	/**
+	 * Forwards the progress and the messages to the progress dialog and is
+	 * canceled by its cancel button.
+	 */
+	private static final class ProgressExecutionMonitor extends ExecutionMonitor {
+		private static final int TOTAL_WORK = 1000;
+
+		private final IProgressMonitor m_monitor;
+		private int m_worked = 0;
+
+		ProgressExecutionMonitor(IProgressMonitor monitor) {
+			m_monitor = monitor;
+		}
+
+		@Override
+		public void checkCanceled() throws CanceledExecutionException {
+			if (m_monitor.isCanceled()) {
+				throw new CanceledExecutionException();
+			}
+		}
+
+		@Override
+		public void setProgress(double progress) {
+			int worked = (int) Math.round(progress * TOTAL_WORK);
+			if (worked > m_worked) {
+				m_monitor.worked(worked - m_worked);
+				m_worked = worked;
+			}
+		}
+
+		@Override
+		public void setMessage(String message) {
+			m_monitor.subTask(message);
+		}
+	}
+}
@@ -22,6 +22,7 @@ import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.util.ButtonGroupEnumInterface;
 
 import se.redfield.bert.nodes.classifier.BertClassifierNodeModel;
 
@@ -48,6 +49,11 @@ public class BertClassifierSettings extends PythonNodeSettings {
 	private static final String KEY_OPTIMIZER = "optimizer";
 	private static final String KEY_MULTILABEL_CLASSIFICATION = "multilabelClassification";
 	private static final String KEY_CLASS_SEPARATOR = "classSeparator";
+	private static final String KEY_SHARE_BACKBONE_WEIGHTS = "shareBackboneWeights";
+	private static final String KEY_ARTIFACT_FORMAT = "artifactFormat";
+	private static final String KEY_CACHE_BACKBONE_FEATURES = "cacheBackboneFeatures";
+	private static final String KEY_TRAIN_ADAPTERS = "trainAdapters";
+	private static final String KEY_ADAPTER_RANK = "adapterRank";
 
 	private final SettingsModelString sentenceColumn;
 	private final SettingsModelIntegerBounded maxSeqLength;
@@ -56,6 +62,11 @@ public class BertClassifierSettings extends PythonNodeSettings {
 	private final SettingsModelIntegerBounded batchSize;
 	private final SettingsModelIntegerBounded validationBatchSize;
 	private final SettingsModelBoolean fineTuneBert;
+	private final SettingsModelBoolean shareBackboneWeights;
+	private final SettingsModelString artifactFormat;
+	private final SettingsModelBoolean cacheBackboneFeatures;
+	private final SettingsModelBoolean trainAdapters;
+	private final SettingsModelIntegerBounded adapterRank;
 	private OptimizerSettings optimizer;
 	private final SettingsModelBoolean multilabelClassification;
 	private final SettingsModelString classSeparator;
@@ -71,6 +82,11 @@ public class BertClassifierSettings extends PythonNodeSettings {
 		batchSize = new SettingsModelIntegerBounded(KEY_BATCH_SIZE, 20, 1, Integer.MAX_VALUE);
 		validationBatchSize = new SettingsModelIntegerBounded(KEY_VALIDATION_BATCH_SIZE, 20, 1, Integer.MAX_VALUE);
 		fineTuneBert = new SettingsModelBoolean(KEY_FINE_TUNE_BERT, false);
+		shareBackboneWeights = new SettingsModelBoolean(KEY_SHARE_BACKBONE_WEIGHTS, true);
+		artifactFormat = new SettingsModelString(KEY_ARTIFACT_FORMAT, ClassifierArtifactFormat.getDefault().name());
+		cacheBackboneFeatures = new SettingsModelBoolean(KEY_CACHE_BACKBONE_FEATURES, true);
+		trainAdapters = new SettingsModelBoolean(KEY_TRAIN_ADAPTERS, false);
+		adapterRank = new SettingsModelIntegerBounded(KEY_ADAPTER_RANK, 8, 1, 256);
 		optimizer = new OptimizerSettings(KEY_OPTIMIZER);
 		multilabelClassification = new SettingsModelBoolean(KEY_MULTILABEL_CLASSIFICATION, false);
 		classSeparator = new SettingsModelString(KEY_CLASS_SEPARATOR, DEFAULT_CLASS_SEPARATOR);
@@ -79,6 +95,21 @@ public class BertClassifierSettings extends PythonNodeSettings {
 		multilabelClassification.addChangeListener(e -> {
 			classSeparator.setEnabled(multilabelClassification.getBooleanValue());
 		});
+		trainAdapters.setEnabled(false);
+		adapterRank.setEnabled(false);
+		fineTuneBert.addChangeListener(e -> {
+			shareBackboneWeights.setEnabled(!fineTuneBert.getBooleanValue());
+			cacheBackboneFeatures.setEnabled(!fineTuneBert.getBooleanValue());
+			trainAdapters.setEnabled(fineTuneBert.getBooleanValue());
+			adapterRank.setEnabled(fineTuneBert.getBooleanValue() && trainAdapters.getBooleanValue());
+			artifactFormat.setEnabled(usesArtifactFormat());
+		});
+		trainAdapters.addChangeListener(e -> {
+			adapterRank.setEnabled(fineTuneBert.getBooleanValue() && trainAdapters.getBooleanValue());
+			artifactFormat.setEnabled(usesArtifactFormat());
+		});
+		shareBackboneWeights.addChangeListener(e -> artifactFormat.setEnabled(usesArtifactFormat()));
+		artifactFormat.setEnabled(usesArtifactFormat());
 	}
 
 	/**
@@ -96,6 +127,11 @@ public class BertClassifierSettings extends PythonNodeSettings {
 		validationBatchSize.saveSettingsTo(settings);
 		batchSize.saveSettingsTo(settings);
 		fineTuneBert.saveSettingsTo(settings);
+		shareBackboneWeights.saveSettingsTo(settings);
+		artifactFormat.saveSettingsTo(settings);
+		cacheBackboneFeatures.saveSettingsTo(settings);
+		trainAdapters.saveSettingsTo(settings);
+		adapterRank.saveSettingsTo(settings);
 		optimizer.saveSettingsTo(settings);
 		multilabelClassification.saveSettingsTo(settings);
 		classSeparator.saveSettingsTo(settings);
@@ -140,6 +176,12 @@ public class BertClassifierSettings extends PythonNodeSettings {
 		if (multilabelClassification.getBooleanValue() && classSeparator.getStringValue().isEmpty()) {
 			throw new InvalidSettingsException("Class separator is required");
 		}
+
+		try {
+			ClassifierArtifactFormat.valueOf(artifactFormat.getStringValue());
+		} catch (IllegalArgumentException e) {
+			throw new InvalidSettingsException("Invalid model format: " + artifactFormat.getStringValue(), e);
+		}
 	}
 
 	/**
@@ -185,6 +227,25 @@ public class BertClassifierSettings extends PythonNodeSettings {
 		batchSize.loadSettingsFrom(settings);
 		validationBatchSize.loadSettingsFrom(settings);
 		fineTuneBert.loadSettingsFrom(settings);
+		if (settings.containsKey(KEY_SHARE_BACKBONE_WEIGHTS)) {
+			shareBackboneWeights.loadSettingsFrom(settings);
+		} else {
+			shareBackboneWeights.setBooleanValue(false);
+		}
+		if (settings.containsKey(KEY_ARTIFACT_FORMAT)) {
+			artifactFormat.loadSettingsFrom(settings);
+		}
+		if (settings.containsKey(KEY_CACHE_BACKBONE_FEATURES)) {
+			cacheBackboneFeatures.loadSettingsFrom(settings);
+		} else {
+			cacheBackboneFeatures.setBooleanValue(false);
+		}
+		if (settings.containsKey(KEY_TRAIN_ADAPTERS)) {
+			trainAdapters.loadSettingsFrom(settings);
+			adapterRank.loadSettingsFrom(settings);
+		} else {
+			trainAdapters.setBooleanValue(false);
+		}
 		optimizer.loadSettingsFrom(settings);
 		multilabelClassification.loadSettingsFrom(settings);
 		classSeparator.loadSettingsFrom(settings);
@@ -289,6 +350,94 @@ public class BertClassifierSettings extends PythonNodeSettings {
 		return fineTuneBert.getBooleanValue();
 	}
 
+	/**
+	 * @return the shareBackboneWeights model
+	 */
+	public SettingsModelBoolean getShareBackboneWeightsModel() {
+		return shareBackboneWeights;
+	}
+
+	/**
+	 * @return whether the classifier references the frozen pretrained BERT
+	 *         weights in the model cache instead of storing them
+	 */
+	public boolean getShareBackboneWeights() {
+		return shareBackboneWeights.getBooleanValue();
+	}
+
+	/**
+	 * @return the cacheBackboneFeatures model
+	 */
+	public SettingsModelBoolean getCacheBackboneFeaturesModel() {
+		return cacheBackboneFeatures;
+	}
+
+	/**
+	 * @return whether the outputs of the frozen BERT layer are computed once and
+	 *         only the classifier head is trained
+	 */
+	public boolean getCacheBackboneFeatures() {
+		return cacheBackboneFeatures.getBooleanValue();
+	}
+
+	/**
+	 * @return the trainAdapters model
+	 */
+	public SettingsModelBoolean getTrainAdaptersModel() {
+		return trainAdapters;
+	}
+
+	/**
+	 * @return whether BERT is fine-tuned by training low-rank adapters instead of
+	 *         all the weights
+	 */
+	public boolean getTrainAdapters() {
+		return trainAdapters.getBooleanValue();
+	}
+
+	/**
+	 * @return the adapterRank model
+	 */
+	public SettingsModelIntegerBounded getAdapterRankModel() {
+		return adapterRank;
+	}
+
+	/**
+	 * @return the rank of the low-rank adapters
+	 */
+	public int getAdapterRank() {
+		return adapterRank.getIntValue();
+	}
+
+	/**
+	 * The model format is not used if the classifier keeps only its own layers,
+	 * i.e. if the frozen BERT weights are shared or only the low-rank adapters are
+	 * trained.
+	 * 
+	 * @return whether the trained classifier is stored in the selected model
+	 *         format.
+	 */
+	public boolean usesArtifactFormat() {
+		if (fineTuneBert.getBooleanValue()) {
+			return !trainAdapters.getBooleanValue();
+		}
+		return !shareBackboneWeights.getBooleanValue();
+	}
+
+	/**
+	 * @return the artifactFormat model
+	 */
+	public SettingsModelString getArtifactFormatModel() {
+		return artifactFormat;
+	}
+
+	/**
+	 * @return the format the trained model is stored in
+	 */
+	public ClassifierArtifactFormat getArtifactFormat() {
+		return ClassifierArtifactFormat.valueOf(artifactFormat.getStringValue());
+	}
+
 	/**
 	 * @return the optimizer settings.
 	 */
@@ -331,4 +480,59 @@ public class BertClassifierSettings extends PythonNodeSettings {
 	public String getClassSeparator() {
 		return classSeparator.getStringValue();
 	}
+
+	/**
+	 * Format the trained classifier is stored in.
+	 */
+	public enum ClassifierArtifactFormat implements ButtonGroupEnumInterface {
+		/**
+		 * TensorFlow SavedModel.
+		 */
+		SAVED_MODEL("SavedModel"),
+		/**
+		 * Single raw weights file.
+		 */
+		COMPACT("Compact"),
+		/**
+		 * Compressed weight shards.
+		 */
+		COMPRESSED("Compressed");
+
+		private final String title;
+
+		private ClassifierArtifactFormat(String title) {
+			this.title = title;
+		}
+
+		/**
+		 * @return The key used by the Python code.
+		 */
+		public String getKey() {
+			return name().toLowerCase();
+		}
+
+		@Override
+		public String getText() {
+			return title;
+		}
+
+		@Override
+		public String getActionCommand() {
+			return name();
+		}
+
+		@Override
+		public String getToolTip() {
+			return null;
+		}
+
+		@Override
+		public boolean isDefault() {
+			return this == getDefault();
+		}
+
+		static ClassifierArtifactFormat getDefault() {
+			return SAVED_MODEL;
+		}
+	}
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.setting;
+
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+
+import se.redfield.bert.nodes.distiller.BertDistillerNodeModel;
+
+/**
+ * Settings for the {@link BertDistillerNodeModel} node.
+ */
+public class BertDistillerSettings extends PythonNodeSettings {
+	private static final String KEY_SENTENCE_COLUMN = "sentenceColumn";
+	private static final String KEY_MAX_SEQ_LENGTH = "maxSeqLength";
+	private static final String KEY_EPOCHS = "epochs";
+	private static final String KEY_BATCH_SIZE = "batchSize";
+	private static final String KEY_TEMPERATURE = "temperature";
+	private static final String KEY_HARD_LABEL_WEIGHT = "hardLabelWeight";
+	private static final String KEY_EVALUATION_FRACTION = "evaluationFraction";
+	private static final String KEY_OPTIMIZER = "optimizer";
+
+	private final SettingsModelString sentenceColumn;
+	private final SettingsModelIntegerBounded maxSeqLength;
+	private final SettingsModelIntegerBounded epochs;
+	private final SettingsModelIntegerBounded batchSize;
+	private final SettingsModelDoubleBounded temperature;
+	private final SettingsModelDoubleBounded hardLabelWeight;
+	private final SettingsModelDoubleBounded evaluationFraction;
+	private OptimizerSettings optimizer;
+
+	/**
+	 * Creates new instance
+	 */
+	public BertDistillerSettings() {
+		sentenceColumn = new SettingsModelString(KEY_SENTENCE_COLUMN, "");
+		maxSeqLength = new SettingsModelIntegerBounded(KEY_MAX_SEQ_LENGTH, 128, 3, 512);
+		epochs = new SettingsModelIntegerBounded(KEY_EPOCHS, 3, 1, Integer.MAX_VALUE);
+		batchSize = new SettingsModelIntegerBounded(KEY_BATCH_SIZE, 20, 1, Integer.MAX_VALUE);
+		temperature = new SettingsModelDoubleBounded(KEY_TEMPERATURE, 2, 1, 100);
+		hardLabelWeight = new SettingsModelDoubleBounded(KEY_HARD_LABEL_WEIGHT, 0, 0, 1);
+		evaluationFraction = new SettingsModelDoubleBounded(KEY_EVALUATION_FRACTION, 0.1, 0, 0.9);
+		optimizer = new OptimizerSettings(KEY_OPTIMIZER);
+	}
+
+	/**
+	 * Saves current settings into the given {@link NodeSettingsWO}.
+	 *
+	 * @param settings
+	 */
+	@Override
+	public void saveSettingsTo(NodeSettingsWO settings) {
+		super.saveSettingsTo(settings);
+		sentenceColumn.saveSettingsTo(settings);
+		maxSeqLength.saveSettingsTo(settings);
+		epochs.saveSettingsTo(settings);
+		batchSize.saveSettingsTo(settings);
+		temperature.saveSettingsTo(settings);
+		hardLabelWeight.saveSettingsTo(settings);
+		evaluationFraction.saveSettingsTo(settings);
+		optimizer.saveSettingsTo(settings);
+	}
+
+	/**
+	 * Validates settings in the provided {@link NodeSettingsRO}.
+	 *
+	 * @param settings
+	 * @throws InvalidSettingsException
+	 */
+	public void validateSettings(NodeSettingsRO settings) throws InvalidSettingsException {
+		sentenceColumn.validateSettings(settings);
+		maxSeqLength.validateSettings(settings);
+		epochs.validateSettings(settings);
+		batchSize.validateSettings(settings);
+		temperature.validateSettings(settings);
+		if (settings.containsKey(KEY_HARD_LABEL_WEIGHT)) {
+			hardLabelWeight.validateSettings(settings);
+		}
+		evaluationFraction.validateSettings(settings);
+
+		BertDistillerSettings temp = new BertDistillerSettings();
+		temp.loadSettingsFrom(settings);
+		temp.validate();
+	}
+
+	/**
+	 * Validates internal consistency of the current settings
+	 *
+	 * @throws InvalidSettingsException
+	 */
+	public void validate() throws InvalidSettingsException {
+		if (sentenceColumn.getStringValue().isEmpty()) {
+			throw new InvalidSettingsException("Sentence column is not selected");
+		}
+	}
+
+	/**
+	 * Validates the settings against input table spec.
+	 *
+	 * @param spec Input table spec.
+	 * @throws InvalidSettingsException
+	 */
+	public void validate(DataTableSpec spec) throws InvalidSettingsException {
+		validate();
+
+		String sc = sentenceColumn.getStringValue();
+		if (!spec.containsName(sc)) {
+			throw new InvalidSettingsException("Input table doesn't contain column: " + sc);
+		}
+	}
+
+	/**
+	 * Loads settings from the provided {@link NodeSettingsRO}
+	 *
+	 * @param settings
+	 * @throws InvalidSettingsException
+	 */
+	@Override
+	public void loadSettingsFrom(NodeSettingsRO settings) throws InvalidSettingsException {
+		super.loadSettingsFrom(settings);
+		sentenceColumn.loadSettingsFrom(settings);
+		maxSeqLength.loadSettingsFrom(settings);
+		epochs.loadSettingsFrom(settings);
+		batchSize.loadSettingsFrom(settings);
+		temperature.loadSettingsFrom(settings);
+		if (settings.containsKey(KEY_HARD_LABEL_WEIGHT)) {
+			hardLabelWeight.loadSettingsFrom(settings);
+		} else {
+			hardLabelWeight.setDoubleValue(0);
+		}
+		evaluationFraction.loadSettingsFrom(settings);
+		optimizer.loadSettingsFrom(settings);
+	}
+
+	/**
+	 * @return the sentenceColumn model.
+	 */
+	public SettingsModelString getSentenceColumnModel() {
+		return sentenceColumn;
+	}
+
+	/**
+	 * @return the sentence column
+	 */
+	public String getSentenceColumn() {
+		return sentenceColumn.getStringValue();
+	}
+
+	/**
+	 * @return the maxSeqLength model.
+	 */
+	public SettingsModelIntegerBounded getMaxSeqLengthModel() {
+		return maxSeqLength;
+	}
+
+	/**
+	 * @return the max sequence length of the student model
+	 */
+	public int getMaxSeqLength() {
+		return maxSeqLength.getIntValue();
+	}
+
+	/**
+	 * @return the epochs model
+	 */
+	public SettingsModelIntegerBounded getEpochsModel() {
+		return epochs;
+	}
+
+	/**
+	 * @return the number of training epochs
+	 */
+	public int getEpochs() {
+		return epochs.getIntValue();
+	}
+
+	/**
+	 * @return the batch size model
+	 */
+	public SettingsModelIntegerBounded getBatchSizeModel() {
+		return batchSize;
+	}
+
+	/**
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return batchSize.getIntValue();
+	}
+
+	/**
+	 * @return the temperature model
+	 */
+	public SettingsModelDoubleBounded getTemperatureModel() {
+		return temperature;
+	}
+
+	/**
+	 * @return the temperature the teacher predictions are softened with
+	 */
+	public double getTemperature() {
+		return temperature.getDoubleValue();
+	}
+
+	/**
+	 * @return the hardLabelWeight model
+	 */
+	public SettingsModelDoubleBounded getHardLabelWeightModel() {
+		return hardLabelWeight;
+	}
+
+	/**
+	 * @return the weight of the loss on the classes predicted by the teacher, the
+	 *         rest of the loss is on the softened probabilities
+	 */
+	public double getHardLabelWeight() {
+		return hardLabelWeight.getDoubleValue();
+	}
+
+	/**
+	 * @return the evaluationFraction model
+	 */
+	public SettingsModelDoubleBounded getEvaluationFractionModel() {
+		return evaluationFraction;
+	}
+
+	/**
+	 * @return the fraction of the rows held out to compare the student with the
+	 *         teacher
+	 */
+	public double getEvaluationFraction() {
+		return evaluationFraction.getDoubleValue();
+	}
+
+	/**
+	 * @return the optimizer settings.
+	 */
+	public OptimizerSettings getOptimizerSettings() {
+		return optimizer;
+	}
+
+	/**
+	 * @return the Python representation of the current optimizer
+	 */
+	public String getOptimizer() {
+		return optimizer.getOptimizer().getBackendRepresentation();
+	}
+}
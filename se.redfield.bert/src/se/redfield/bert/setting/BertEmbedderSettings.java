@@ -21,8 +21,11 @@ import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.util.ButtonGroupEnumInterface;
 
 import se.redfield.bert.nodes.embedder.BertEmbedderNodeModel;
+import se.redfield.bert.nodes.port.BertModelType;
 
 /**
  * Settings for the {@link BertEmbedderNodeModel} node.
@@ -34,10 +37,24 @@ public class BertEmbedderSettings extends PythonNodeSettings {
 	private static final String KEY_INPUT_SETTINGS = "input";
 	private static final String KEY_BATCH_SIZE = "batchSize";
 	private static final String KEY_INCLUDE_SEQ_EMBEDDINGS = "includeSeqEmbeddings";
+	private static final String KEY_POOLING = "pooling";
+	private static final String KEY_POOLING_LAYERS = "poolingLayers";
+	private static final String KEY_SEQ_EMBEDDINGS_FORMAT = "seqEmbeddingsFormat";
+	private static final String KEY_EMBEDDINGS_PRECISION = "embeddingsPrecision";
+	private static final String KEY_NORMALIZE_EMBEDDINGS = "normalizeEmbeddings";
+	private static final String KEY_DIMENSION_REDUCTION = "dimensionReduction";
+	private static final String KEY_SHARE_MODEL = "shareModel";
 
 	private final InputSettings inputSettings;
 	private final SettingsModelIntegerBounded batchSize;
 	private final SettingsModelBoolean includeSeqEmbeddings;
+	private final SettingsModelString pooling;
+	private final SettingsModelIntegerBounded poolingLayers;
+	private final SettingsModelString seqEmbeddingsFormat;
+	private final SettingsModelString embeddingsPrecision;
+	private final SettingsModelBoolean normalizeEmbeddings;
+	private final DimensionReductionSettings dimensionReduction;
+	private final SettingsModelBoolean shareModel;
 
 	/**
 	 * Creates new instance
@@ -46,6 +63,22 @@ public class BertEmbedderSettings extends PythonNodeSettings {
 		inputSettings = new InputSettings();
 		batchSize = new SettingsModelIntegerBounded(KEY_BATCH_SIZE, 20, 1, Integer.MAX_VALUE);
 		includeSeqEmbeddings = new SettingsModelBoolean(KEY_INCLUDE_SEQ_EMBEDDINGS, false);
+		pooling = new SettingsModelString(KEY_POOLING, EmbeddingPooling.getDefault().name());
+		poolingLayers = new SettingsModelIntegerBounded(KEY_POOLING_LAYERS, 4, 1, 48);
+
+		poolingLayers.setEnabled(false);
+		pooling.addChangeListener(e -> poolingLayers.setEnabled(getPooling() == EmbeddingPooling.CONCAT_LAST_N));
+
+		seqEmbeddingsFormat = new SettingsModelString(KEY_SEQ_EMBEDDINGS_FORMAT,
+				SequenceEmbeddingsFormat.getDefault().name());
+		seqEmbeddingsFormat.setEnabled(false);
+		includeSeqEmbeddings.addChangeListener(e -> seqEmbeddingsFormat.setEnabled(getIncludeSeqEmbeddings()));
+
+		embeddingsPrecision = new SettingsModelString(KEY_EMBEDDINGS_PRECISION,
+				EmbeddingsPrecision.getDefault().name());
+		normalizeEmbeddings = new SettingsModelBoolean(KEY_NORMALIZE_EMBEDDINGS, false);
+		dimensionReduction = new DimensionReductionSettings(KEY_DIMENSION_REDUCTION);
+		shareModel = new SettingsModelBoolean(KEY_SHARE_MODEL, false);
 	}
 
 	/**
@@ -58,6 +91,13 @@ public class BertEmbedderSettings extends PythonNodeSettings {
 		inputSettings.saveSettingsTo(settings.addNodeSettings(KEY_INPUT_SETTINGS));
 		batchSize.saveSettingsTo(settings);
 		includeSeqEmbeddings.saveSettingsTo(settings);
+		pooling.saveSettingsTo(settings);
+		poolingLayers.saveSettingsTo(settings);
+		seqEmbeddingsFormat.saveSettingsTo(settings);
+		embeddingsPrecision.saveSettingsTo(settings);
+		normalizeEmbeddings.saveSettingsTo(settings);
+		dimensionReduction.saveSettingsTo(settings);
+		shareModel.saveSettingsTo(settings);
 	}
 
 	/**
@@ -83,6 +123,45 @@ public class BertEmbedderSettings extends PythonNodeSettings {
 	 */
 	public void validate() throws InvalidSettingsException {
 		inputSettings.validate();
+
+		if (getIncludeSeqEmbeddings() && inputSettings.getSlidingWindowSettings().isEnabled()) {
+			throw new InvalidSettingsException("Sequence embeddings are not available in the sliding window mode");
+		}
+
+		try {
+			EmbeddingPooling.valueOf(pooling.getStringValue());
+		} catch (IllegalArgumentException e) {
+			throw new InvalidSettingsException("Invalid pooling: " + pooling.getStringValue(), e);
+		}
+
+		try {
+			SequenceEmbeddingsFormat.valueOf(seqEmbeddingsFormat.getStringValue());
+		} catch (IllegalArgumentException e) {
+			throw new InvalidSettingsException(
+					"Invalid sequence embeddings format: " + seqEmbeddingsFormat.getStringValue(), e);
+		}
+
+		try {
+			EmbeddingsPrecision.valueOf(embeddingsPrecision.getStringValue());
+		} catch (IllegalArgumentException e) {
+			throw new InvalidSettingsException("Invalid embeddings precision: " + embeddingsPrecision.getStringValue(),
+					e);
+		}
+
+		dimensionReduction.validate();
+	}
+
+	/**
+	 * Validates the settings against the type of the input BERT model.
+	 * 
+	 * @param modelType The model type or <code>null</code> if unknown.
+	 * @throws InvalidSettingsException
+	 */
+	public void validate(BertModelType modelType) throws InvalidSettingsException {
+		if (getPooling() == EmbeddingPooling.CONCAT_LAST_N && modelType == BertModelType.TFHUB) {
+			throw new InvalidSettingsException(
+					"Concatenation of the last layers is only supported for Hugging Face models");
+		}
 	}
 
 	/**
@@ -92,6 +171,7 @@ public class BertEmbedderSettings extends PythonNodeSettings {
 	 * @throws InvalidSettingsException
 	 */
 	public void validate(DataTableSpec spec) throws InvalidSettingsException {
+		validate();
 		inputSettings.validate(spec);
 	}
 
@@ -106,6 +186,30 @@ public class BertEmbedderSettings extends PythonNodeSettings {
 		inputSettings.loadSettingsFrom(settings.getNodeSettings(KEY_INPUT_SETTINGS));
 		batchSize.loadSettingsFrom(settings);
 		includeSeqEmbeddings.loadSettingsFrom(settings);
+
+		if (settings.containsKey(KEY_POOLING)) {
+			pooling.loadSettingsFrom(settings);
+			poolingLayers.loadSettingsFrom(settings);
+		}
+
+		if (settings.containsKey(KEY_SEQ_EMBEDDINGS_FORMAT)) {
+			seqEmbeddingsFormat.loadSettingsFrom(settings);
+		} else {
+			// nodes created before the tensor format was introduced keep the column per token
+			seqEmbeddingsFormat.setStringValue(SequenceEmbeddingsFormat.COLUMNS.name());
+		}
+
+		if (settings.containsKey(KEY_EMBEDDINGS_PRECISION)) {
+			embeddingsPrecision.loadSettingsFrom(settings);
+			normalizeEmbeddings.loadSettingsFrom(settings);
+		}
+		dimensionReduction.loadSettingsFrom(settings);
+
+		if (settings.containsKey(KEY_SHARE_MODEL)) {
+			shareModel.loadSettingsFrom(settings);
+		} else {
+			shareModel.setBooleanValue(false);
+		}
 	}
 
 	/**
@@ -142,4 +246,272 @@ public class BertEmbedderSettings extends PythonNodeSettings {
 	public boolean getIncludeSeqEmbeddings() {
 		return includeSeqEmbeddings.getBooleanValue();
 	}
+
+	/**
+	 * @return the pooling model.
+	 */
+	public SettingsModelString getPoolingModel() {
+		return pooling;
+	}
+
+	/**
+	 * @return the strategy used to reduce the model outputs to a single vector.
+	 */
+	public EmbeddingPooling getPooling() {
+		return EmbeddingPooling.valueOf(pooling.getStringValue());
+	}
+
+	/**
+	 * @return the poolingLayers model.
+	 */
+	public SettingsModelIntegerBounded getPoolingLayersModel() {
+		return poolingLayers;
+	}
+
+	/**
+	 * @return the number of last layers concatenated by the
+	 *         {@link EmbeddingPooling#CONCAT_LAST_N} pooling.
+	 */
+	public int getPoolingLayers() {
+		return poolingLayers.getIntValue();
+	}
+
+	/**
+	 * @return the seqEmbeddingsFormat model.
+	 */
+	public SettingsModelString getSeqEmbeddingsFormatModel() {
+		return seqEmbeddingsFormat;
+	}
+
+	/**
+	 * @return the way the sequence embeddings are stored in the output table.
+	 */
+	public SequenceEmbeddingsFormat getSeqEmbeddingsFormat() {
+		return SequenceEmbeddingsFormat.valueOf(seqEmbeddingsFormat.getStringValue());
+	}
+
+	/**
+	 * @return the embeddingsPrecision model.
+	 */
+	public SettingsModelString getEmbeddingsPrecisionModel() {
+		return embeddingsPrecision;
+	}
+
+	/**
+	 * @return the precision the embeddings are stored with.
+	 */
+	public EmbeddingsPrecision getEmbeddingsPrecision() {
+		return EmbeddingsPrecision.valueOf(embeddingsPrecision.getStringValue());
+	}
+
+	/**
+	 * @return the normalizeEmbeddings model.
+	 */
+	public SettingsModelBoolean getNormalizeEmbeddingsModel() {
+		return normalizeEmbeddings;
+	}
+
+	/**
+	 * @return whether the embeddings are L2 normalized.
+	 */
+	public boolean getNormalizeEmbeddings() {
+		return normalizeEmbeddings.getBooleanValue();
+	}
+
+	/**
+	 * @return the dimension reduction settings.
+	 */
+	public DimensionReductionSettings getDimensionReductionSettings() {
+		return dimensionReduction;
+	}
+
+	/**
+	 * @return the shareModel model.
+	 */
+	public SettingsModelBoolean getShareModelModel() {
+		return shareModel;
+	}
+
+	/**
+	 * @return <code>true</code> if the BERT model should be shared with other
+	 *         concurrently running nodes.
+	 */
+	public boolean getShareModel() {
+		return shareModel.getBooleanValue();
+	}
+
+	/**
+	 * Strategy used to reduce the BERT outputs to a single embedding vector per
+	 * row. Pooling is performed inside the model graph.
+	 */
+	public enum EmbeddingPooling implements ButtonGroupEnumInterface {
+		/**
+		 * Output of the model pooler layer.
+		 */
+		POOLER("Pooler output"),
+		/**
+		 * Mean of the token vectors, padding excluded.
+		 */
+		MEAN("Mean of tokens"),
+		/**
+		 * Element-wise maximum of the token vectors, padding excluded.
+		 */
+		MAX("Max of tokens"),
+		/**
+		 * Vector of the [CLS] token.
+		 */
+		CLS("CLS token"),
+		/**
+		 * Concatenated token means of the last N hidden layers.
+		 */
+		CONCAT_LAST_N("Concatenate last N layers");
+
+		private final String title;
+
+		private EmbeddingPooling(String title) {
+			this.title = title;
+		}
+
+		/**
+		 * @return The key used by the Python code.
+		 */
+		public String getKey() {
+			return name().toLowerCase();
+		}
+
+		@Override
+		public String getText() {
+			return title;
+		}
+
+		@Override
+		public String getActionCommand() {
+			return name();
+		}
+
+		@Override
+		public String getToolTip() {
+			return null;
+		}
+
+		@Override
+		public boolean isDefault() {
+			return this == getDefault();
+		}
+
+		static EmbeddingPooling getDefault() {
+			return POOLER;
+		}
+	}
+
+	/**
+	 * Output format of the sequence (per-token) embeddings.
+	 */
+	public enum SequenceEmbeddingsFormat implements ButtonGroupEnumInterface {
+		/**
+		 * Single binary column holding the [sequence length x hidden size] tensor
+		 * with the padding trimmed.
+		 */
+		TENSOR("Single tensor column"),
+		/**
+		 * Separate list column for every token position.
+		 */
+		COLUMNS("Column per token");
+
+		private final String title;
+
+		private SequenceEmbeddingsFormat(String title) {
+			this.title = title;
+		}
+
+		/**
+		 * @return The key used by the Python code.
+		 */
+		public String getKey() {
+			return name().toLowerCase();
+		}
+
+		@Override
+		public String getText() {
+			return title;
+		}
+
+		@Override
+		public String getActionCommand() {
+			return name();
+		}
+
+		@Override
+		public String getToolTip() {
+			return null;
+		}
+
+		@Override
+		public boolean isDefault() {
+			return this == getDefault();
+		}
+
+		static SequenceEmbeddingsFormat getDefault() {
+			return TENSOR;
+		}
+	}
+
+	/**
+	 * Numeric precision of the output embeddings.
+	 */
+	public enum EmbeddingsPrecision implements ButtonGroupEnumInterface {
+		/**
+		 * List of doubles.
+		 */
+		DOUBLE("Double list"),
+		/**
+		 * Binary float32 vector.
+		 */
+		FLOAT32("Float32"),
+		/**
+		 * Binary float16 vector.
+		 */
+		FLOAT16("Float16"),
+		/**
+		 * Binary int8 vector with a float32 scale per vector.
+		 */
+		INT8("Int8 (quantized)");
+
+		private final String title;
+
+		private EmbeddingsPrecision(String title) {
+			this.title = title;
+		}
+
+		/**
+		 * @return The key used by the Python code.
+		 */
+		public String getKey() {
+			return name().toLowerCase();
+		}
+
+		@Override
+		public String getText() {
+			return title;
+		}
+
+		@Override
+		public String getActionCommand() {
+			return name();
+		}
+
+		@Override
+		public String getToolTip() {
+			return null;
+		}
+
+		@Override
+		public boolean isDefault() {
+			return this == getDefault();
+		}
+
+		static EmbeddingsPrecision getDefault() {
+			return DOUBLE;
+		}
+	}
 }
@@ -47,6 +47,12 @@ public class BertPredictorSettings extends PythonNodeSettings {
 	private static final String KEY_NUMBER_OF_PREDICTED_CLASSES = "numberOfPredictedClasses";
 	private static final String KEY_USE_CUSTOM_CLASS_SEPARATOR = "useCustomClassSeparator";
 	private static final String KEY_CLASS_SEPARATOR = "classSeparator";
+	private static final String KEY_SLIDING_WINDOW = "slidingWindow";
+	private static final String KEY_OUTPUT_TOP_PROBABILITIES = "outputTopProbabilities";
+	private static final String KEY_TOP_PROBABILITIES_COUNT = "topProbabilitiesCount";
+	private static final String KEY_OUTPUT_SPARSE_PROBABILITIES = "outputSparseProbabilities";
+	private static final String KEY_SPARSE_PROBABILITIES_EPSILON = "sparseProbabilitiesEpsilon";
+	private static final String KEY_SHARE_MODEL = "shareModel";
 
 	private static final String DEFAULT_PRECICTION_COLUMN = "Prediction";
 	private static final double DEFAULT_PREDICTION_THRESHOLD = 0.5;
@@ -63,6 +69,12 @@ public class BertPredictorSettings extends PythonNodeSettings {
 	private final SettingsModelIntegerBounded numberOfClassesPerPrediction;
 	private final SettingsModelBoolean useCustomClassSeparator;
 	private final SettingsModelString classSeparator;
+	private final SlidingWindowSettings slidingWindow;
+	private final SettingsModelBoolean outputTopProbabilities;
+	private final SettingsModelIntegerBounded topProbabilitiesCount;
+	private final SettingsModelBoolean outputSparseProbabilities;
+	private final SettingsModelDoubleBounded sparseProbabilitiesEpsilon;
+	private final SettingsModelBoolean shareModel;
 
 	/**
 	 * Creates new instance.
@@ -82,12 +94,21 @@ public class BertPredictorSettings extends PythonNodeSettings {
 				Integer.MAX_VALUE);
 		useCustomClassSeparator = new SettingsModelBoolean(KEY_USE_CUSTOM_CLASS_SEPARATOR, false);
 		classSeparator = new SettingsModelString(KEY_CLASS_SEPARATOR, BertClassifierSettings.DEFAULT_CLASS_SEPARATOR);
+		slidingWindow = new SlidingWindowSettings(KEY_SLIDING_WINDOW);
+		outputTopProbabilities = new SettingsModelBoolean(KEY_OUTPUT_TOP_PROBABILITIES, false);
+		topProbabilitiesCount = new SettingsModelIntegerBounded(KEY_TOP_PROBABILITIES_COUNT, 5, 1,
+				Integer.MAX_VALUE);
+		outputSparseProbabilities = new SettingsModelBoolean(KEY_OUTPUT_SPARSE_PROBABILITIES, false);
+		sparseProbabilitiesEpsilon = new SettingsModelDoubleBounded(KEY_SPARSE_PROBABILITIES_EPSILON, 0.01, 0, 1);
+		shareModel = new SettingsModelBoolean(KEY_SHARE_MODEL, false);
 
 		predictionColumn.setEnabled(changePredictionColumn.getBooleanValue());
 		probabilitiesColumnSuffix.setEnabled(outputProbabilities.getBooleanValue());
 		predictionThreshold.setEnabled(useCustomThreshould.getBooleanValue());
 		numberOfClassesPerPrediction.setEnabled(false);
 		classSeparator.setEnabled(false);
+		topProbabilitiesCount.setEnabled(false);
+		sparseProbabilitiesEpsilon.setEnabled(false);
 
 		changePredictionColumn.addChangeListener(e -> {
 			predictionColumn.setEnabled(changePredictionColumn.getBooleanValue());
@@ -114,6 +135,13 @@ public class BertPredictorSettings extends PythonNodeSettings {
 		useCustomClassSeparator.addChangeListener(e -> {
 			classSeparator.setEnabled(useCustomClassSeparator.getBooleanValue());
 		});
+
+		outputTopProbabilities.addChangeListener(e -> {
+			topProbabilitiesCount.setEnabled(outputTopProbabilities.getBooleanValue());
+		});
+		outputSparseProbabilities.addChangeListener(e -> {
+			sparseProbabilitiesEpsilon.setEnabled(outputSparseProbabilities.getBooleanValue());
+		});
 	}
 
 	/**
@@ -136,6 +164,12 @@ public class BertPredictorSettings extends PythonNodeSettings {
 		classSeparator.saveSettingsTo(settings);
 		fixNumberOfClasses.saveSettingsTo(settings);
 		numberOfClassesPerPrediction.saveSettingsTo(settings);
+		slidingWindow.saveSettingsTo(settings);
+		outputTopProbabilities.saveSettingsTo(settings);
+		topProbabilitiesCount.saveSettingsTo(settings);
+		outputSparseProbabilities.saveSettingsTo(settings);
+		sparseProbabilitiesEpsilon.saveSettingsTo(settings);
+		shareModel.saveSettingsTo(settings);
 	}
 
 	/**
@@ -187,6 +221,7 @@ public class BertPredictorSettings extends PythonNodeSettings {
 	 */
 	public void configure(DataTableSpec spec, BertClassifierPortObjectSpec classifier) throws InvalidSettingsException {
 		validate(spec);
+		slidingWindow.validate(classifier.getMaxSeqLength());
 
 		if (classifier.isMultiLabel() && !getUseCustomClassSeparator()) {
 			classSeparator.setStringValue(classifier.getClassSeparator());
@@ -239,6 +274,23 @@ public class BertPredictorSettings extends PythonNodeSettings {
 		fixNumberOfClasses.loadSettingsFrom(settings);
 		classSeparator.loadSettingsFrom(settings);
 		useCustomClassSeparator.loadSettingsFrom(settings);
+		slidingWindow.loadSettingsFrom(settings);
+
+		if (settings.containsKey(KEY_OUTPUT_TOP_PROBABILITIES)) {
+			outputTopProbabilities.loadSettingsFrom(settings);
+			topProbabilitiesCount.loadSettingsFrom(settings);
+			outputSparseProbabilities.loadSettingsFrom(settings);
+			sparseProbabilitiesEpsilon.loadSettingsFrom(settings);
+		} else {
+			outputTopProbabilities.setBooleanValue(false);
+			outputSparseProbabilities.setBooleanValue(false);
+		}
+
+		if (settings.containsKey(KEY_SHARE_MODEL)) {
+			shareModel.loadSettingsFrom(settings);
+		} else {
+			shareModel.setBooleanValue(false);
+		}
 	}
 
 	/**
@@ -426,4 +478,86 @@ public class BertPredictorSettings extends PythonNodeSettings {
 			return BertClassifierSettings.DEFAULT_CLASS_SEPARATOR;
 		}
 	}
+
+	/**
+	 * @return the sliding window settings.
+	 */
+	public SlidingWindowSettings getSlidingWindowSettings() {
+		return slidingWindow;
+	}
+
+	/**
+	 * @return the outputTopProbabilities model.
+	 */
+	public SettingsModelBoolean getOutputTopProbabilitiesModel() {
+		return outputTopProbabilities;
+	}
+
+	/**
+	 * @return <code>true</code> if the most probable classes and their
+	 *         probabilities should be added to the output table as two list
+	 *         columns.
+	 */
+	public boolean getOutputTopProbabilities() {
+		return outputTopProbabilities.getBooleanValue();
+	}
+
+	/**
+	 * @return the topProbabilitiesCount model.
+	 */
+	public SettingsModelIntegerBounded getTopProbabilitiesCountModel() {
+		return topProbabilitiesCount;
+	}
+
+	/**
+	 * @return the number of the most probable classes to output.
+	 */
+	public int getTopProbabilitiesCount() {
+		return topProbabilitiesCount.getIntValue();
+	}
+
+	/**
+	 * @return the outputSparseProbabilities model.
+	 */
+	public SettingsModelBoolean getOutputSparseProbabilitiesModel() {
+		return outputSparseProbabilities;
+	}
+
+	/**
+	 * @return <code>true</code> if the probabilities above epsilon should be added
+	 *         to the output table as a JSON object.
+	 */
+	public boolean getOutputSparseProbabilities() {
+		return outputSparseProbabilities.getBooleanValue();
+	}
+
+	/**
+	 * @return the sparseProbabilitiesEpsilon model.
+	 */
+	public SettingsModelDoubleBounded getSparseProbabilitiesEpsilonModel() {
+		return sparseProbabilitiesEpsilon;
+	}
+
+	/**
+	 * @return the probability a class must exceed to be included into the sparse
+	 *         probabilities.
+	 */
+	public double getSparseProbabilitiesEpsilon() {
+		return sparseProbabilitiesEpsilon.getDoubleValue();
+	}
+
+	/**
+	 * @return the shareModel model.
+	 */
+	public SettingsModelBoolean getShareModelModel() {
+		return shareModel;
+	}
+
+	/**
+	 * @return <code>true</code> if the classifier should be shared with other
+	 *         concurrently running nodes.
+	 */
+	public boolean getShareModel() {
+		return shareModel.getBooleanValue();
+	}
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.setting;
+
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+
+import se.redfield.bert.nodes.pruning.BertPruningNodeModel;
+
+/**
+ * Settings for the {@link BertPruningNodeModel} node.
+ */
+public class BertPruningSettings extends PythonNodeSettings {
+	private static final String KEY_SENTENCE_COLUMN = "sentenceColumn";
+	private static final String KEY_TARGET_SIZE = "targetSize";
+	private static final String KEY_EPOCHS = "epochs";
+	private static final String KEY_BATCH_SIZE = "batchSize";
+	private static final String KEY_OPTIMIZER = "optimizer";
+
+	private final SettingsModelString sentenceColumn;
+	private final SettingsModelIntegerBounded targetSize;
+	private final SettingsModelIntegerBounded epochs;
+	private final SettingsModelIntegerBounded batchSize;
+	private OptimizerSettings optimizer;
+
+	/**
+	 * Creates new instance
+	 */
+	public BertPruningSettings() {
+		sentenceColumn = new SettingsModelString(KEY_SENTENCE_COLUMN, "");
+		targetSize = new SettingsModelIntegerBounded(KEY_TARGET_SIZE, 50, 1, 100);
+		epochs = new SettingsModelIntegerBounded(KEY_EPOCHS, 1, 0, Integer.MAX_VALUE);
+		batchSize = new SettingsModelIntegerBounded(KEY_BATCH_SIZE, 20, 1, Integer.MAX_VALUE);
+		optimizer = new OptimizerSettings(KEY_OPTIMIZER);
+	}
+
+	/**
+	 * Saves current settings into the given {@link NodeSettingsWO}.
+	 *
+	 * @param settings
+	 */
+	@Override
+	public void saveSettingsTo(NodeSettingsWO settings) {
+		super.saveSettingsTo(settings);
+		sentenceColumn.saveSettingsTo(settings);
+		targetSize.saveSettingsTo(settings);
+		epochs.saveSettingsTo(settings);
+		batchSize.saveSettingsTo(settings);
+		optimizer.saveSettingsTo(settings);
+	}
+
+	/**
+	 * Validates settings in the provided {@link NodeSettingsRO}.
+	 *
+	 * @param settings
+	 * @throws InvalidSettingsException
+	 */
+	public void validateSettings(NodeSettingsRO settings) throws InvalidSettingsException {
+		sentenceColumn.validateSettings(settings);
+		targetSize.validateSettings(settings);
+		epochs.validateSettings(settings);
+		batchSize.validateSettings(settings);
+
+		BertPruningSettings temp = new BertPruningSettings();
+		temp.loadSettingsFrom(settings);
+		temp.validate();
+	}
+
+	/**
+	 * Validates internal consistency of the current settings
+	 *
+	 * @throws InvalidSettingsException
+	 */
+	public void validate() throws InvalidSettingsException {
+		if (sentenceColumn.getStringValue().isEmpty()) {
+			throw new InvalidSettingsException("Sentence column is not selected");
+		}
+	}
+
+	/**
+	 * Validates the settings against input table spec.
+	 *
+	 * @param spec Input table spec.
+	 * @throws InvalidSettingsException
+	 */
+	public void validate(DataTableSpec spec) throws InvalidSettingsException {
+		validate();
+
+		String sc = sentenceColumn.getStringValue();
+		if (!spec.containsName(sc)) {
+			throw new InvalidSettingsException("Input table doesn't contain column: " + sc);
+		}
+	}
+
+	/**
+	 * Loads settings from the provided {@link NodeSettingsRO}
+	 *
+	 * @param settings
+	 * @throws InvalidSettingsException
+	 */
+	@Override
+	public void loadSettingsFrom(NodeSettingsRO settings) throws InvalidSettingsException {
+		super.loadSettingsFrom(settings);
+		sentenceColumn.loadSettingsFrom(settings);
+		targetSize.loadSettingsFrom(settings);
+		epochs.loadSettingsFrom(settings);
+		batchSize.loadSettingsFrom(settings);
+		optimizer.loadSettingsFrom(settings);
+	}
+
+	/**
+	 * @return the sentenceColumn model.
+	 */
+	public SettingsModelString getSentenceColumnModel() {
+		return sentenceColumn;
+	}
+
+	/**
+	 * @return the sentence column
+	 */
+	public String getSentenceColumn() {
+		return sentenceColumn.getStringValue();
+	}
+
+	/**
+	 * @return the targetSize model.
+	 */
+	public SettingsModelIntegerBounded getTargetSizeModel() {
+		return targetSize;
+	}
+
+	/**
+	 * @return the share of the BERT encoder parameters to keep, in percent
+	 */
+	public int getTargetSize() {
+		return targetSize.getIntValue();
+	}
+
+	/**
+	 * @return the epochs model
+	 */
+	public SettingsModelIntegerBounded getEpochsModel() {
+		return epochs;
+	}
+
+	/**
+	 * @return the number of epochs the pruned classifier is trained for
+	 */
+	public int getEpochs() {
+		return epochs.getIntValue();
+	}
+
+	/**
+	 * @return the batch size model
+	 */
+	public SettingsModelIntegerBounded getBatchSizeModel() {
+		return batchSize;
+	}
+
+	/**
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return batchSize.getIntValue();
+	}
+
+	/**
+	 * @return the optimizer settings.
+	 */
+	public OptimizerSettings getOptimizerSettings() {
+		return optimizer;
+	}
+
+	/**
+	 * @return the Python representation of the current optimizer
+	 */
+	public String getOptimizer() {
+		return optimizer.getOptimizer().getBackendRepresentation();
+	}
+}
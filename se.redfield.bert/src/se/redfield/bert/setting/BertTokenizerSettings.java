@@ -19,6 +19,8 @@ import org.knime.core.data.DataTableSpec;
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.util.ButtonGroupEnumInterface;
 
 import se.redfield.bert.nodes.tokenizer.BertTokenizerNodeModel;
 
@@ -30,14 +32,17 @@ import se.redfield.bert.nodes.tokenizer.BertTokenizerNodeModel;
  */
 public class BertTokenizerSettings extends PythonNodeSettings {
 	private static final String KEY_INPUT_SETTINGS = "input";
+	private static final String KEY_OUTPUT_FORMAT = "outputFormat";
 
 	private final InputSettings inputSettings;
+	private final SettingsModelString outputFormat;
 
 	/**
 	 * Creates new instance
 	 */
 	public BertTokenizerSettings() {
 		inputSettings = new InputSettings();
+		outputFormat = new SettingsModelString(KEY_OUTPUT_FORMAT, OutputFormat.getDefault().name());
 	}
 
 	/**
@@ -49,6 +54,7 @@ public class BertTokenizerSettings extends PythonNodeSettings {
 	public void saveSettingsTo(NodeSettingsWO settings) {
 		super.saveSettingsTo(settings);
 		inputSettings.saveSettingsTo(settings.addNodeSettings(KEY_INPUT_SETTINGS));
+		outputFormat.saveSettingsTo(settings);
 	}
 
 	/**
@@ -72,6 +78,10 @@ public class BertTokenizerSettings extends PythonNodeSettings {
 	 */
 	public void validate() throws InvalidSettingsException {
 		inputSettings.validate();
+
+		if (inputSettings.getSlidingWindowSettings().isEnabled()) {
+			throw new InvalidSettingsException("Sliding window mode is not supported by the tokenizer");
+		}
 	}
 
 	/**
@@ -81,6 +91,7 @@ public class BertTokenizerSettings extends PythonNodeSettings {
 	 * @throws InvalidSettingsException
 	 */
 	public void validate(DataTableSpec spec) throws InvalidSettingsException {
+		validate();
 		inputSettings.validate(spec);
 	}
 
@@ -94,6 +105,12 @@ public class BertTokenizerSettings extends PythonNodeSettings {
 	public void loadSettingsFrom(NodeSettingsRO settings) throws InvalidSettingsException {
 		super.loadSettingsFrom(settings);
 		inputSettings.loadSettingsFrom(settings.getNodeSettings(KEY_INPUT_SETTINGS));
+
+		if (settings.containsKey(KEY_OUTPUT_FORMAT)) {
+			outputFormat.loadSettingsFrom(settings);
+		} else {
+			outputFormat.setStringValue(OutputFormat.PADDED.name());
+		}
 	}
 
 	/**
@@ -102,4 +119,71 @@ public class BertTokenizerSettings extends PythonNodeSettings {
 	public InputSettings getInputSettings() {
 		return inputSettings;
 	}
+
+	/**
+	 * @return the output format model.
+	 */
+	public SettingsModelString getOutputFormatModel() {
+		return outputFormat;
+	}
+
+	/**
+	 * @return the layout of the tokenizer output columns.
+	 */
+	public OutputFormat getOutputFormat() {
+		return OutputFormat.valueOf(outputFormat.getStringValue());
+	}
+
+	/**
+	 * Layout of the tokenizer output columns.
+	 */
+	public enum OutputFormat implements ButtonGroupEnumInterface {
+		/**
+		 * Ids, masks and segments, each padded to the max sequence length. Can be fed
+		 * to the BERT model as is.
+		 */
+		PADDED("Padded ids, masks and segments"),
+		/**
+		 * Unpadded ids and the number of tokens. The masks and segments can be derived
+		 * from the number of tokens and the length of the first sentence.
+		 */
+		PACKED("Packed ids and token count");
+
+		private final String title;
+
+		private OutputFormat(String title) {
+			this.title = title;
+		}
+
+		/**
+		 * @return The key used by the Python code.
+		 */
+		public String getKey() {
+			return name().toLowerCase();
+		}
+
+		@Override
+		public String getText() {
+			return title;
+		}
+
+		@Override
+		public String getActionCommand() {
+			return name();
+		}
+
+		@Override
+		public String getToolTip() {
+			return null;
+		}
+
+		@Override
+		public boolean isDefault() {
+			return this == getDefault();
+		}
+
+		static OutputFormat getDefault() {
+			return PADDED;
+		}
+	}
 }
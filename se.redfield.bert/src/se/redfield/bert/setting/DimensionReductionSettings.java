@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.setting;
+
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.util.ButtonGroupEnumInterface;
+
+/**
+ * Group of settings for the dimensionality reduction applied to the embeddings
+ * before they are written to the output table.
+ */
+public class DimensionReductionSettings {
+	private static final String KEY_METHOD = "method";
+	private static final String KEY_DIMENSIONS = "dimensions";
+	private static final String KEY_SAMPLE_SIZE = "sampleSize";
+	private static final String KEY_PROJECTION_FILE = "projectionFile";
+
+	private final String key;
+	private final SettingsModelString method;
+	private final SettingsModelIntegerBounded dimensions;
+	private final SettingsModelIntegerBounded sampleSize;
+	private final SettingsModelString projectionFile;
+
+	/**
+	 * @param key The settings key.
+	 */
+	public DimensionReductionSettings(String key) {
+		this.key = key;
+		method = new SettingsModelString(KEY_METHOD, DimensionReduction.NONE.name());
+		dimensions = new SettingsModelIntegerBounded(KEY_DIMENSIONS, 128, 1, Integer.MAX_VALUE);
+		sampleSize = new SettingsModelIntegerBounded(KEY_SAMPLE_SIZE, 10000, 1, Integer.MAX_VALUE);
+		projectionFile = new SettingsModelString(KEY_PROJECTION_FILE, "");
+
+		method.addChangeListener(e -> updateEnabled());
+		updateEnabled();
+	}
+
+	private void updateEnabled() {
+		DimensionReduction m = getMethod();
+		dimensions.setEnabled(m != DimensionReduction.NONE);
+		sampleSize.setEnabled(m == DimensionReduction.PCA);
+		projectionFile.setEnabled(m == DimensionReduction.PCA);
+	}
+
+	/**
+	 * Saves the settings into the given {@link NodeSettingsWO}.
+	 *
+	 * @param settings
+	 */
+	public void saveSettingsTo(NodeSettingsWO settings) {
+		NodeSettingsWO cfg = settings.addNodeSettings(key);
+		method.saveSettingsTo(cfg);
+		dimensions.saveSettingsTo(cfg);
+		sampleSize.saveSettingsTo(cfg);
+		projectionFile.saveSettingsTo(cfg);
+	}
+
+	/**
+	 * Loads the settings from the given {@link NodeSettingsRO}. Keeps the defaults
+	 * (no reduction) in case the settings were saved before the option was
+	 * introduced.
+	 *
+	 * @param settings
+	 * @throws InvalidSettingsException
+	 */
+	public void loadSettingsFrom(NodeSettingsRO settings) throws InvalidSettingsException {
+		if (settings.containsKey(key)) {
+			NodeSettingsRO cfg = settings.getNodeSettings(key);
+			method.loadSettingsFrom(cfg);
+			dimensions.loadSettingsFrom(cfg);
+			sampleSize.loadSettingsFrom(cfg);
+			projectionFile.loadSettingsFrom(cfg);
+		}
+	}
+
+	/**
+	 * Validates consistency of the current settings.
+	 *
+	 * @throws InvalidSettingsException
+	 */
+	public void validate() throws InvalidSettingsException {
+		try {
+			DimensionReduction.valueOf(method.getStringValue());
+		} catch (IllegalArgumentException e) {
+			throw new InvalidSettingsException("Invalid dimension reduction method: " + method.getStringValue(), e);
+		}
+
+		if (getMethod() == DimensionReduction.PCA && projectionFile.getStringValue().isEmpty()
+				&& getSampleSize() < getDimensions()) {
+			throw new InvalidSettingsException("PCA sample size should not be less than the number of dimensions");
+		}
+	}
+
+	/**
+	 * @return the method model.
+	 */
+	public SettingsModelString getMethodModel() {
+		return method;
+	}
+
+	/**
+	 * @return the dimension reduction method.
+	 */
+	public DimensionReduction getMethod() {
+		return DimensionReduction.valueOf(method.getStringValue());
+	}
+
+	/**
+	 * @return the dimensions model.
+	 */
+	public SettingsModelIntegerBounded getDimensionsModel() {
+		return dimensions;
+	}
+
+	/**
+	 * @return the number of dimensions of the reduced embeddings.
+	 */
+	public int getDimensions() {
+		return dimensions.getIntValue();
+	}
+
+	/**
+	 * @return the sampleSize model.
+	 */
+	public SettingsModelIntegerBounded getSampleSizeModel() {
+		return sampleSize;
+	}
+
+	/**
+	 * @return the max number of rows used to fit the PCA projection.
+	 */
+	public int getSampleSize() {
+		return sampleSize.getIntValue();
+	}
+
+	/**
+	 * @return the projectionFile model.
+	 */
+	public SettingsModelString getProjectionFileModel() {
+		return projectionFile;
+	}
+
+	/**
+	 * @return the path to the previously saved PCA projection, or empty string if
+	 *         the projection should be fitted.
+	 */
+	public String getProjectionFile() {
+		return projectionFile.getStringValue();
+	}
+
+	/**
+	 * Dimension reduction method.
+	 */
+	public enum DimensionReduction implements ButtonGroupEnumInterface {
+		/**
+		 * Embeddings are not reduced.
+		 */
+		NONE("None"),
+		/**
+		 * Leading dimensions are kept (Matryoshka embeddings).
+		 */
+		TRUNCATE("Truncate"),
+		/**
+		 * PCA projection.
+		 */
+		PCA("PCA");
+
+		private final String title;
+
+		private DimensionReduction(String title) {
+			this.title = title;
+		}
+
+		/**
+		 * @return The key used by the Python code.
+		 */
+		public String getKey() {
+			return name().toLowerCase();
+		}
+
+		@Override
+		public String getText() {
+			return title;
+		}
+
+		@Override
+		public String getActionCommand() {
+			return name();
+		}
+
+		@Override
+		public String getToolTip() {
+			return null;
+		}
+
+		@Override
+		public boolean isDefault() {
+			return this == NONE;
+		}
+	}
+}
@@ -34,11 +34,13 @@ public class InputSettings {
 	private static final String KEY_SECOND_SENTENCE_COLUMN = "secondSentenceColumn";
 	private static final String KEY_TWO_SENTENCE_MODE = "twoSentenceMode";
 	private static final String KEY_MAX_SEQ_LENGTH = "maxSeqLength";
+	private static final String KEY_SLIDING_WINDOW = "slidingWindow";
 
 	private final SettingsModelString sentenceColumn;
 	private final SettingsModelString secondSentenceColumn;
 	private final SettingsModelBoolean twoSentenceMode;
 	private final SettingsModelIntegerBounded maxSeqLength;
+	private final SlidingWindowSettings slidingWindow;
 
 	/**
 	 * Creates new instance.
@@ -48,6 +50,7 @@ public class InputSettings {
 		secondSentenceColumn = new SettingsModelString(KEY_SECOND_SENTENCE_COLUMN, "");
 		twoSentenceMode = new SettingsModelBoolean(KEY_TWO_SENTENCE_MODE, false);
 		maxSeqLength = new SettingsModelIntegerBounded(KEY_MAX_SEQ_LENGTH, 128, 3, 512);
+		slidingWindow = new SlidingWindowSettings(KEY_SLIDING_WINDOW);
 
 		secondSentenceColumn.setEnabled(false);
 		twoSentenceMode.addChangeListener(e -> {
@@ -65,6 +68,7 @@ public class InputSettings {
 		secondSentenceColumn.saveSettingsTo(settings);
 		twoSentenceMode.saveSettingsTo(settings);
 		maxSeqLength.saveSettingsTo(settings);
+		slidingWindow.saveSettingsTo(settings);
 	}
 
 	/**
@@ -96,6 +100,7 @@ public class InputSettings {
 		if (twoSentenceMode.getBooleanValue() && secondSentenceColumn.getStringValue().isEmpty()) {
 			throw new InvalidSettingsException("Second sentence column is not selected");
 		}
+		slidingWindow.validate(getMaxSeqLength());
 	}
 
 	/**
@@ -131,6 +136,7 @@ public class InputSettings {
 		secondSentenceColumn.loadSettingsFrom(settings);
 		twoSentenceMode.loadSettingsFrom(settings);
 		maxSeqLength.loadSettingsFrom(settings);
+		slidingWindow.loadSettingsFrom(settings);
 	}
 
 	/**
@@ -189,4 +195,11 @@ public class InputSettings {
 	public int getMaxSeqLength() {
 		return maxSeqLength.getIntValue();
 	}
+
+	/**
+	 * @return the sliding window settings.
+	 */
+	public SlidingWindowSettings getSlidingWindowSettings() {
+		return slidingWindow;
+	}
 }
@@ -19,6 +19,7 @@ import org.knime.conda.prefs.CondaPreferences;
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.python2.PythonVersion;
 import org.knime.python2.config.PythonCommandConfig;
 import se.redfield.bert.prefs.BertPreferences;
@@ -26,12 +27,15 @@ import se.redfield.bert.prefs.BertPreferences;
 public class PythonNodeSettings {
 
 	private static final String KEY_PYTHON_COMMAND = "pythonCommand";
+	private static final String KEY_TABLE_CHUNK_SIZE = "tableChunkSize";
 
 	private final PythonCommandConfig pythonCommand;
+	private final SettingsModelIntegerBounded tableChunkSize;
 
 	public PythonNodeSettings() {
 		pythonCommand = new PythonCommandConfig(KEY_PYTHON_COMMAND, PythonVersion.PYTHON3,
 				CondaPreferences::getCondaInstallationDirectory, BertPreferences::getPythonCommandPreference);
+		tableChunkSize = new SettingsModelIntegerBounded(KEY_TABLE_CHUNK_SIZE, 0, 0, Integer.MAX_VALUE);
 	}
 	
 	public PythonCommandConfig getPythonCommand() {
@@ -40,9 +44,30 @@ public class PythonNodeSettings {
 
 	public void loadSettingsFrom(NodeSettingsRO settings) throws InvalidSettingsException {
 		pythonCommand.loadSettingsFrom(settings);
+		if (settings.containsKey(KEY_TABLE_CHUNK_SIZE)) {
+			tableChunkSize.loadSettingsFrom(settings);
+		} else {
+			tableChunkSize.setIntValue(0);
+		}
 	}
 
 	public void saveSettingsTo(NodeSettingsWO settings) {
 		pythonCommand.saveSettingsTo(settings);
+		tableChunkSize.saveSettingsTo(settings);
+	}
+
+	/**
+	 * @return the tableChunkSize model.
+	 */
+	public SettingsModelIntegerBounded getTableChunkSizeModel() {
+		return tableChunkSize;
+	}
+
+	/**
+	 * @return the number of rows per chunk of the tables transferred to Python, 0
+	 *         if it should be derived from the estimated row size.
+	 */
+	public int getTableChunkSize() {
+		return tableChunkSize.getIntValue();
 	}
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2022 Redfield AB.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, Version 3, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+package se.redfield.bert.setting;
+
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.util.ButtonGroupEnumInterface;
+
+/**
+ * Group of settings for the long-text (sliding window) mode. In this mode the
+ * documents longer than the max sequence length are split into overlapping
+ * windows and the results computed for individual windows are aggregated per
+ * document.
+ */
+public class SlidingWindowSettings {
+	private static final String KEY_ENABLED = "enabled";
+	private static final String KEY_STRIDE = "stride";
+	private static final String KEY_AGGREGATION = "aggregation";
+
+	private final String key;
+	private final SettingsModelBoolean enabled;
+	private final SettingsModelIntegerBounded stride;
+	private final SettingsModelString aggregation;
+
+	/**
+	 * @param key The settings key.
+	 */
+	public SlidingWindowSettings(String key) {
+		this.key = key;
+		enabled = new SettingsModelBoolean(KEY_ENABLED, false);
+		stride = new SettingsModelIntegerBounded(KEY_STRIDE, 64, 1, 512);
+		aggregation = new SettingsModelString(KEY_AGGREGATION, WindowAggregation.getDefault().name());
+
+		stride.setEnabled(false);
+		aggregation.setEnabled(false);
+		enabled.addChangeListener(e -> {
+			stride.setEnabled(enabled.getBooleanValue());
+			aggregation.setEnabled(enabled.getBooleanValue());
+		});
+	}
+
+	/**
+	 * Saves the settings into the given {@link NodeSettingsWO}.
+	 *
+	 * @param settings
+	 */
+	public void saveSettingsTo(NodeSettingsWO settings) {
+		NodeSettingsWO cfg = settings.addNodeSettings(key);
+		enabled.saveSettingsTo(cfg);
+		stride.saveSettingsTo(cfg);
+		aggregation.saveSettingsTo(cfg);
+	}
+
+	/**
+	 * Loads the settings from the given {@link NodeSettingsRO}. Keeps the defaults
+	 * (disabled mode) in case the settings were saved before the option was
+	 * introduced.
+	 *
+	 * @param settings
+	 * @throws InvalidSettingsException
+	 */
+	public void loadSettingsFrom(NodeSettingsRO settings) throws InvalidSettingsException {
+		if (settings.containsKey(key)) {
+			NodeSettingsRO cfg = settings.getNodeSettings(key);
+			enabled.loadSettingsFrom(cfg);
+			stride.loadSettingsFrom(cfg);
+			aggregation.loadSettingsFrom(cfg);
+		}
+	}
+
+	/**
+	 * Validates consistency of the current settings.
+	 *
+	 * @param maxSeqLength The max sequence length used for tokenization.
+	 * @throws InvalidSettingsException
+	 */
+	public void validate(int maxSeqLength) throws InvalidSettingsException {
+		if (isEnabled() && getStride() > maxSeqLength - 2) {
+			throw new InvalidSettingsException(
+					"Window stride should not be greater than the max sequence length minus 2 special tokens");
+		}
+	}
+
+	/**
+	 * @return the enabled model.
+	 */
+	public SettingsModelBoolean getEnabledModel() {
+		return enabled;
+	}
+
+	/**
+	 * @return whether the sliding window mode is enabled.
+	 */
+	public boolean isEnabled() {
+		return enabled.getBooleanValue();
+	}
+
+	/**
+	 * @return the stride model.
+	 */
+	public SettingsModelIntegerBounded getStrideModel() {
+		return stride;
+	}
+
+	/**
+	 * @return the number of tokens the window is moved by.
+	 */
+	public int getStride() {
+		return stride.getIntValue();
+	}
+
+	/**
+	 * @return the aggregation model.
+	 */
+	public SettingsModelString getAggregationModel() {
+		return aggregation;
+	}
+
+	/**
+	 * @return the method used to aggregate the results of individual windows.
+	 */
+	public WindowAggregation getAggregation() {
+		return WindowAggregation.valueOf(aggregation.getStringValue());
+	}
+
+	/**
+	 * Method used to aggregate the results computed for the individual windows of
+	 * the document.
+	 */
+	public enum WindowAggregation implements ButtonGroupEnumInterface {
+		/**
+		 * Element-wise mean of the window results.
+		 */
+		MEAN("Mean"),
+		/**
+		 * Element-wise maximum of the window results.
+		 */
+		MAX("Max");
+
+		private final String title;
+
+		private WindowAggregation(String title) {
+			this.title = title;
+		}
+
+		/**
+		 * @return The key used by the Python code.
+		 */
+		public String getKey() {
+			return name().toLowerCase();
+		}
+
+		@Override
+		public String getText() {
+			return title;
+		}
+
+		@Override
+		public String getActionCommand() {
+			return name();
+		}
+
+		@Override
+		public String getToolTip() {
+			return null;
+		}
+
+		@Override
+		public boolean isDefault() {
+			return this == getDefault();
+		}
+
+		static WindowAggregation getDefault() {
+			return MEAN;
+		}
+	}
+}
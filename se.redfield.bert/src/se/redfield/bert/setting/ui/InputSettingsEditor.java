@@ -20,12 +20,15 @@ import javax.swing.JLabel;
 import org.knime.core.data.StringValue;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NotConfigurableException;
+import org.knime.core.node.defaultnodesettings.DialogComponentButtonGroup;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.core.node.util.ColumnSelectionPanel;
 import org.knime.dl.base.nodes.AbstractGridBagDialogComponentGroup;
 
 import se.redfield.bert.setting.InputSettings;
+import se.redfield.bert.setting.SlidingWindowSettings;
+import se.redfield.bert.setting.SlidingWindowSettings.WindowAggregation;
 
 /**
  * 
@@ -45,8 +48,20 @@ public class InputSettingsEditor extends AbstractGridBagDialogComponentGroup {
 	 * @param settings  The settings object.
 	 * @param specIndex Input data table spec index.
 	 */
-	@SuppressWarnings("unchecked")
 	public InputSettingsEditor(InputSettings settings, int specIndex) {
+		this(settings, specIndex, true);
+	}
+
+	/**
+	 * Creates new instance.
+	 * 
+	 * @param settings          The settings object.
+	 * @param specIndex         Input data table spec index.
+	 * @param showSlidingWindow Whether the sliding window settings should be
+	 *                          displayed.
+	 */
+	@SuppressWarnings("unchecked")
+	public InputSettingsEditor(InputSettings settings, int specIndex, boolean showSlidingWindow) {
 		firstSentenceColumn = new DialogComponentColumnNameSelection(settings.getSentenceColumnModel(), "", specIndex,
 				true, StringValue.class);
 		secondSentenceColumn = new DialogComponentColumnNameSelection(settings.getSecondSentenceColumnModel(), "",
@@ -58,6 +73,16 @@ public class InputSettingsEditor extends AbstractGridBagDialogComponentGroup {
 		addDoubleColumnRow(new JLabel("Second sentence column"),
 				getFirstComponent(secondSentenceColumn, ColumnSelectionPanel.class));
 		addNumberSpinnerRowComponent(settings.getMaxSeqLengthModel(), "Max sequence length", 1);
+
+		if (showSlidingWindow) {
+			SlidingWindowSettings window = settings.getSlidingWindowSettings();
+			addHorizontalSeparator();
+			addCheckboxRow(window.getEnabledModel(), "Split long texts into overlapping windows", true);
+			addNumberSpinnerRowComponent(window.getStrideModel(), "Window stride", 1);
+			addDoubleColumnRow(new JLabel("Window aggregation"),
+					new DialogComponentButtonGroup(window.getAggregationModel(), null, false,
+							WindowAggregation.values()).getComponentPanel());
+		}
 	}
 
 	/**
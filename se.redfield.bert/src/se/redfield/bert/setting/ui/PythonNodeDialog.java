@@ -15,11 +15,16 @@
  */
 package se.redfield.bert.setting.ui;
 
+import java.awt.BorderLayout;
+
+import javax.swing.JPanel;
+
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeDialogPane;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.NotConfigurableException;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.python2.config.PythonFixedVersionExecutableSelectionPanel;
 
@@ -40,6 +45,17 @@ public abstract class PythonNodeDialog<S extends PythonNodeSettings> extends Nod
 		addTab("Python", selector);
 	}
 
+	/**
+	 * Adds the Python tab with the option to override the table chunk size.
+	 */
+	protected final void addPythonTabWithChunkSize() {
+		JPanel panel = new JPanel(new BorderLayout());
+		panel.add(selector, BorderLayout.NORTH);
+		panel.add(new DialogComponentNumber(settings.getTableChunkSizeModel(),
+				"Rows per table chunk (0 = automatic)", 1000).getComponentPanel(), BorderLayout.CENTER);
+		addTab("Python", panel);
+	}
+
 	@Override
 	protected void loadSettingsFrom(NodeSettingsRO settings, PortObjectSpec[] specs) throws NotConfigurableException {
 		try {
@@ -38,6 +38,13 @@ import org.knime.ext.textprocessing.data.DocumentValue;
  */
 public final class InputUtils {
 
+	/**
+	 * Number of rows per worker that may be converted ahead of the row currently
+	 * written. Large enough to keep the workers busy with documents of very
+	 * different sizes.
+	 */
+	private static final int QUEUE_SIZE_PER_WORKER = 100;
+
 	private InputUtils() {
 
 	}
@@ -73,11 +80,21 @@ public final class InputUtils {
 		for (var column : columns) {
 			var colIdx = spec.findColumnIndex(column);
 			var colSpec = spec.getColumnSpec(colIdx);
+			var parallel = isExpensiveToConvert(colSpec.getType());
 			getConverter(colSpec.getType())//
-					.ifPresent(c -> rearranger.replace(new ToStringCellFactory(colIdx, colSpec.getName(), c), colIdx));
+					.ifPresent(c -> rearranger.replace(new ToStringCellFactory(colIdx, colSpec.getName(), c, parallel),
+							colIdx));
 		}
 	}
 
+	/**
+	 * Extracting the text of a document is expensive enough for the conversion to
+	 * be done in parallel, reading a string value isn't.
+	 */
+	private static boolean isExpensiveToConvert(DataType type) {
+		return type.isCompatible(DocumentValue.class);
+	}
+
 	private static Optional<Function<DataCell, String>> getConverter(DataType type) {
 		if (type.isCompatible(DocumentValue.class)) {
 			return Optional.of(InputUtils::documentValueToString);
@@ -108,10 +125,15 @@ public final class InputUtils {
 
 		private final Function<DataCell, String> m_converter;
 
-		ToStringCellFactory(int colIdx, String name, final Function<DataCell, String> converter) {
+		ToStringCellFactory(int colIdx, String name, final Function<DataCell, String> converter,
+				final boolean parallel) {
 			super(new DataColumnSpecCreator(name, StringCell.TYPE).createSpec());
 			m_colIdx = colIdx;
 			m_converter = converter;
+			if (parallel) {
+				int workers = Runtime.getRuntime().availableProcessors();
+				setParallelProcessing(true, workers, workers * QUEUE_SIZE_PER_WORKER);
+			}
 		}
 
 		@Override